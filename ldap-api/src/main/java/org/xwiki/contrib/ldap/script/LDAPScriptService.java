@@ -19,6 +19,9 @@
  */
 package org.xwiki.contrib.ldap.script;
 
+import java.util.List;
+import java.util.Map;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -28,7 +31,13 @@ import org.xwiki.context.Execution;
 import org.xwiki.contrib.ldap.XWikiLDAPConfig;
 import org.xwiki.contrib.ldap.XWikiLDAPConnection;
 import org.xwiki.contrib.ldap.XWikiLDAPException;
+import org.xwiki.contrib.ldap.internal.LDAPCircuitBreaker;
 import org.xwiki.contrib.ldap.internal.LDAPGroupsCache;
+import org.xwiki.contrib.ldap.internal.LDAPLoginDNCache;
+import org.xwiki.contrib.ldap.internal.LDAPMetrics;
+import org.xwiki.contrib.ldap.internal.LDAPOperationStatistics;
+import org.xwiki.contrib.ldap.internal.LDAPServer;
+import org.xwiki.contrib.ldap.internal.LDAPServerSelector;
 import org.xwiki.script.service.ScriptService;
 import org.xwiki.stability.Unstable;
 
@@ -58,6 +67,18 @@ public class LDAPScriptService implements ScriptService
     @Inject
     private LDAPGroupsCache caches;
 
+    @Inject
+    private LDAPLoginDNCache loginDNCache;
+
+    @Inject
+    private LDAPCircuitBreaker circuitBreaker;
+
+    @Inject
+    private LDAPMetrics metrics;
+
+    @Inject
+    private LDAPServerSelector serverSelector;
+
     /**
      * @return the XWiki context associated with this execution.
      */
@@ -118,6 +139,87 @@ public class LDAPScriptService implements ScriptService
         this.caches.reset();
     }
 
+    /**
+     * Force to empty the cache containing the DNs resolved from login inputs (mail, uid, etc.).
+     * 
+     * @since 9.5.7
+     */
+    @Unstable
+    public void resetLoginDNCache()
+    {
+        this.loginDNCache.reset();
+    }
+
+    /**
+     * @return the state of the circuit breakers of the currently configured LDAP servers: {@code CLOSED} when at least
+     *         one server is considered healthy, {@code OPEN} when calls to all the servers fail immediately and
+     *         {@code HALF_OPEN} when a few trial calls are allowed on the servers which are not open
+     * @since 9.5.7
+     */
+    @Unstable
+    public String getCircuitBreakerState()
+    {
+        XWikiLDAPConfig configuration = new XWikiLDAPConfig(null);
+        boolean ssl = "1".equals(configuration.getLDAPParam("ldap_ssl", "0"));
+
+        LDAPCircuitBreaker.State state = LDAPCircuitBreaker.State.OPEN;
+        for (LDAPServer server : this.serverSelector.getServers(configuration, ssl)) {
+            LDAPCircuitBreaker.State serverState =
+                this.circuitBreaker.getState(LDAPCircuitBreaker.getKey(server.getHost(), server.getPort()));
+
+            if (serverState == LDAPCircuitBreaker.State.CLOSED) {
+                return serverState.name();
+            } else if (serverState == LDAPCircuitBreaker.State.HALF_OPEN) {
+                state = serverState;
+            }
+        }
+
+        return state.name();
+    }
+
+    /**
+     * @return the state of the circuit breakers of all the LDAP servers used so far, indexed by server
+     * @since 9.5.7
+     */
+    @Unstable
+    public Map<String, LDAPCircuitBreaker.State> getCircuitBreakerStates()
+    {
+        return this.circuitBreaker.getStates();
+    }
+
+    /**
+     * Force to close all the circuit breakers, i.e. consider all LDAP directories healthy again.
+     * 
+     * @since 9.5.7
+     */
+    @Unstable
+    public void resetCircuitBreakers()
+    {
+        this.circuitBreaker.reset();
+    }
+
+    /**
+     * @return the count, errors and durations (mean, percentiles and max in milliseconds) of each LDAP operation type
+     *         ({@code connect}, {@code bind}, {@code search}, {@code page}, {@code compare}) on each server
+     * @since 9.5.7
+     */
+    @Unstable
+    public List<LDAPOperationStatistics> getMetrics()
+    {
+        return this.metrics.getStatistics();
+    }
+
+    /**
+     * Forget all the LDAP operations statistics collected so far.
+     * 
+     * @since 9.5.7
+     */
+    @Unstable
+    public void resetMetrics()
+    {
+        this.metrics.reset();
+    }
+
     /**
      * Get the error generated while performing the previously called action.
      *
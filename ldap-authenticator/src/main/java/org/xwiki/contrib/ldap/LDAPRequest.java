@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.xwiki.contrib.ldap.internal.LDAPCircuitBreaker;
+import org.xwiki.contrib.ldap.internal.LDAPMetrics;
+
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+
+/**
+ * A request sent to a LDAP server, followed until its response is complete to measure it and report its outcome to
+ * the circuit breaker of the server.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+class LDAPRequest
+{
+    private final XWikiLDAPConfig configuration;
+
+    private final LDAPCircuitBreaker circuitBreaker;
+
+    private final String server;
+
+    private final LDAPMetrics.Timer timer;
+
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    /**
+     * @param configuration the current LDAP configuration
+     * @param circuitBreaker the circuit breaker to report the outcome of the request to
+     * @param server the identifier of the server the request is sent to
+     * @param timer the timer measuring the request
+     */
+    LDAPRequest(XWikiLDAPConfig configuration, LDAPCircuitBreaker circuitBreaker, String server,
+        LDAPMetrics.Timer timer)
+    {
+        this.configuration = configuration;
+        this.circuitBreaker = circuitBreaker;
+        this.server = server;
+        this.timer = timer;
+    }
+
+    /**
+     * @param entry an entry returned by the server
+     */
+    void entry(LDAPEntry entry)
+    {
+        this.timer.entry(entry);
+    }
+
+    /**
+     * Indicate that the response was fully received.
+     */
+    void success()
+    {
+        if (this.completed.compareAndSet(false, true)) {
+            this.timer.stop();
+            this.circuitBreaker.success(this.configuration, this.server);
+        }
+    }
+
+    /**
+     * Indicate that the request failed.
+     *
+     * @param error the error
+     */
+    void failure(Throwable error)
+    {
+        if (this.completed.compareAndSet(false, true)) {
+            this.timer.fail();
+            this.circuitBreaker.failure(this.configuration, this.server, error);
+        }
+    }
+
+    /**
+     * Indicate that the request was abandoned before its response was fully received.
+     */
+    void cancel()
+    {
+        if (this.completed.compareAndSet(false, true)) {
+            this.timer.fail();
+            this.circuitBreaker.release(this.configuration, this.server);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPControl;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPResponse;
+import com.novell.ldap.LDAPSearchQueue;
+import com.novell.ldap.LDAPSearchResult;
+import com.novell.ldap.LDAPSearchResultReference;
+
+/**
+ * The result of a search request sent without waiting for the answer, so that several requests can be in flight on
+ * the same connection.
+ * <p>
+ * Referrals are not followed: the received search result references are ignored.
+ * <p>
+ * Waiting for a response in the jldap queue can be neither interrupted nor limited in time, so {@link #get()} and
+ * {@link #get(long, TimeUnit)} leave the reception of the responses to a background thread and wait for the search to
+ * complete. {@link #getEntries()} receives the responses in the calling thread.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+public class LDAPSearchFuture implements Future<List<LDAPEntry>>
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(LDAPSearchFuture.class);
+
+    private static ExecutorService receivers;
+
+    private final LDAPConnection connection;
+
+    private final LDAPSearchQueue queue;
+
+    private final int messageID;
+
+    /**
+     * Only one thread at a time reads the responses of the search from the queue.
+     */
+    private final Lock receiveLock = new ReentrantLock();
+
+    private final List<LDAPEntry> entries = new ArrayList<>();
+
+    private boolean done;
+
+    private boolean cancelled;
+
+    private boolean receiving;
+
+    private LDAPException failure;
+
+    private LDAPControl[] responseControls;
+
+    private final LDAPRequest request;
+
+    /**
+     * @param connection the connection on which the search was sent
+     * @param queue the queue receiving the responses of the search
+     */
+    public LDAPSearchFuture(LDAPConnection connection, LDAPSearchQueue queue)
+    {
+        this(connection, queue, null);
+    }
+
+    /**
+     * @param connection the connection on which the search was sent
+     * @param queue the queue receiving the responses of the search
+     * @param request the request to complete when the search is finished, can be {@code null}
+     */
+    LDAPSearchFuture(LDAPConnection connection, LDAPSearchQueue queue, LDAPRequest request)
+    {
+        this.connection = connection;
+        this.queue = queue;
+        this.messageID = queue.getMessageIDs()[0];
+        this.request = request;
+    }
+
+    private static synchronized ExecutorService getReceivers()
+    {
+        if (receivers == null) {
+            receivers = Executors.newCachedThreadPool(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "XWiki LDAP search receiver");
+                    thread.setDaemon(true);
+
+                    return thread;
+                }
+            });
+        }
+
+        return receivers;
+    }
+
+    /**
+     * @return the identifier of the search request
+     */
+    public int getMessageID()
+    {
+        return this.messageID;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        synchronized (this) {
+            if (this.done) {
+                return false;
+            }
+
+            this.cancelled = true;
+            complete();
+        }
+
+        // Also wakes up the thread waiting for the responses of the search
+        try {
+            this.connection.abandon(this.messageID);
+        } catch (LDAPException e) {
+            LOGGER.debug("Failed to abandon LDAP search [{}]", this.messageID, e);
+        }
+
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled()
+    {
+        return this.cancelled;
+    }
+
+    @Override
+    public boolean isDone()
+    {
+        synchronized (this) {
+            if (this.done) {
+                return true;
+            }
+        }
+
+        return this.queue.isComplete(this.messageID);
+    }
+
+    @Override
+    public synchronized List<LDAPEntry> get() throws InterruptedException, ExecutionException
+    {
+        startReceiver();
+
+        while (!this.done) {
+            wait();
+        }
+
+        return getResult();
+    }
+
+    @Override
+    public synchronized List<LDAPEntry> get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        startReceiver();
+
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        while (!this.done) {
+            if (remaining <= 0) {
+                throw new TimeoutException("Timed out waiting for LDAP search [" + this.messageID + "]");
+            }
+
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+
+        return getResult();
+    }
+
+    /**
+     * Wait for the search to complete.
+     *
+     * @return the found entries
+     * @throws LDAPException when the search failed
+     */
+    public List<LDAPEntry> getEntries() throws LDAPException
+    {
+        receive();
+
+        synchronized (this) {
+            // Another thread is receiving the responses
+            boolean interrupted = false;
+            while (!this.done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (this.cancelled) {
+                throw new LDAPException("The search was cancelled", LDAPException.USER_CANCELLED, null);
+            }
+            if (this.failure != null) {
+                throw this.failure;
+            }
+
+            return Collections.unmodifiableList(this.entries);
+        }
+    }
+
+    /**
+     * @return the controls returned by the server with the final response of the search, {@code null} if the search
+     *         is not finished or if there aren't any
+     */
+    public synchronized LDAPControl[] getResponseControls()
+    {
+        return this.responseControls;
+    }
+
+    private List<LDAPEntry> getResult() throws ExecutionException
+    {
+        if (this.cancelled) {
+            throw new CancellationException();
+        }
+        if (this.failure != null) {
+            throw new ExecutionException(this.failure);
+        }
+
+        return Collections.unmodifiableList(this.entries);
+    }
+
+    private void startReceiver()
+    {
+        if (!this.done && !this.receiving) {
+            this.receiving = true;
+
+            getReceivers().execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    receive();
+                }
+            });
+        }
+    }
+
+    private synchronized boolean isCompleted()
+    {
+        return this.done;
+    }
+
+    /**
+     * Receive the responses of the search until it's complete, unless another thread is already doing it.
+     */
+    private void receive()
+    {
+        if (!this.receiveLock.tryLock()) {
+            return;
+        }
+
+        try {
+            while (!isCompleted()) {
+                receiveNext();
+            }
+        } finally {
+            this.receiveLock.unlock();
+        }
+    }
+
+    private void receiveNext()
+    {
+        // Never wait for the queue while holding the monitor, cancel() needs it
+        LDAPMessage message;
+        try {
+            message = this.queue.getResponse(this.messageID);
+        } catch (LDAPException e) {
+            synchronized (this) {
+                if (!this.done) {
+                    this.failure = e;
+                    complete();
+                }
+            }
+
+            return;
+        }
+
+        synchronized (this) {
+            if (this.done) {
+                // Cancelled while waiting
+                return;
+            }
+
+            try {
+                if (message == null) {
+                    // Nothing left to receive for this request
+                    complete();
+                } else if (message instanceof LDAPSearchResult) {
+                    LDAPEntry entry = ((LDAPSearchResult) message).getEntry();
+                    this.entries.add(entry);
+                    if (this.request != null) {
+                        this.request.entry(entry);
+                    }
+                } else if (message instanceof LDAPSearchResultReference) {
+                    LOGGER.debug("Ignoring search result reference received for LDAP search [{}]", this.messageID);
+                } else if (message instanceof LDAPResponse) {
+                    this.responseControls = message.getControls();
+
+                    ((LDAPResponse) message).chkResultCode();
+
+                    complete();
+                }
+            } catch (LDAPException e) {
+                this.failure = e;
+                complete();
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the monitor.
+     */
+    private void complete()
+    {
+        this.done = true;
+
+        if (this.request != null) {
+            if (this.cancelled) {
+                this.request.cancel();
+            } else if (this.failure != null) {
+                this.request.failure(this.failure);
+            } else {
+                this.request.success();
+            }
+        }
+
+        notifyAll();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPControl;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPReferralException;
+import com.novell.ldap.LDAPSearchResults;
+
+/**
+ * Search results which complete their {@link LDAPRequest} when they have been consumed, so that the whole search (and
+ * not only the first batch of results) is measured and reported to the circuit breaker.
+ * <p>
+ * Must be abandoned with {@link XWikiLDAPConnection#abandon(LDAPSearchResults)}.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+class MonitoredLDAPSearchResults extends LDAPSearchResults
+{
+    private final LDAPSearchResults results;
+
+    private final LDAPRequest request;
+
+    /**
+     * @param results the results returned by jldap
+     * @param request the request to complete when all the results have been consumed
+     */
+    MonitoredLDAPSearchResults(LDAPSearchResults results, LDAPRequest request)
+    {
+        this.results = results;
+        this.request = request;
+    }
+
+    @Override
+    public boolean hasMore()
+    {
+        boolean more = this.results.hasMore();
+
+        if (!more) {
+            this.request.success();
+        }
+
+        return more;
+    }
+
+    @Override
+    public LDAPEntry next() throws LDAPException
+    {
+        LDAPEntry entry;
+        try {
+            entry = this.results.next();
+        } catch (LDAPReferralException e) {
+            // The following results can still be consumed
+            throw e;
+        } catch (LDAPException e) {
+            this.request.failure(e);
+
+            throw e;
+        }
+
+        if (entry != null) {
+            this.request.entry(entry);
+        }
+
+        return entry;
+    }
+
+    @Override
+    public int getCount()
+    {
+        return this.results.getCount();
+    }
+
+    @Override
+    public LDAPControl[] getResponseControls()
+    {
+        return this.results.getResponseControls();
+    }
+
+    /**
+     * Abandon the search.
+     *
+     * @param connection the connection on which the search was sent
+     * @throws LDAPException when failing to abandon the search
+     */
+    void abandon(LDAPConnection connection) throws LDAPException
+    {
+        this.request.cancel();
+
+        connection.abandon(this.results);
+    }
+}
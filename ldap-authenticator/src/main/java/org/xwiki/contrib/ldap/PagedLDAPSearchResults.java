@@ -19,27 +19,44 @@
  */
 package org.xwiki.contrib.ldap;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.contrib.ldap.internal.LDAPMetrics;
 
 import com.novell.ldap.LDAPControl;
 import com.novell.ldap.LDAPEntry;
 import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPReferralException;
 import com.novell.ldap.LDAPSearchConstraints;
+import com.novell.ldap.LDAPSearchQueue;
 import com.novell.ldap.LDAPSearchResults;
 import com.novell.ldap.controls.LDAPPagedResultsControl;
 import com.novell.ldap.controls.LDAPPagedResultsResponse;
 
 /**
  * Paginated version of {@link LDAPSearchResults}.
+ * <p>
+ * When read-ahead is enabled ({@code ldap_search_readahead}) the next pages are requested in the background as soon
+ * as the consumer reached a configurable part of the current page, instead of waiting for the current page to be fully
+ * consumed. In that mode referrals are not followed.
+ * <p>
+ * Besides the {@link #hasMore()}/{@link #next()} loop the results can be consumed with a for-each loop (the search is
+ * closed once all the entries were returned) or page by page with {@link #nextPage()}, for example to dispatch each
+ * page to worker threads while the following one is being received.
  *
  * @version $Id$
  * @since 9.3
  */
-public class PagedLDAPSearchResults implements AutoCloseable
+public class PagedLDAPSearchResults implements AutoCloseable, Iterable<LDAPEntry>
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(PagedLDAPSearchResults.class);
 
@@ -57,10 +74,109 @@ public class PagedLDAPSearchResults implements AutoCloseable
 
     private final int pageSize;
 
+    /**
+     * True if the Simple Paged Results control is attached to the search requests.
+     */
+    private boolean paged;
+
+    /**
+     * True if at least one entry was returned.
+     */
+    private boolean received;
+
+    /**
+     * The maximum number of pages to request in advance, 0 when read-ahead is disabled.
+     */
+    private int readAhead;
+
+    private int readAheadThreshold;
+
+    /**
+     * The pages requested in advance and not consumed yet.
+     */
+    private final Deque<LDAPSearchFuture> nextPages = new ArrayDeque<>();
+
+    /**
+     * The last requested page, its cookie is needed to request the following one.
+     */
+    private LDAPSearchFuture lastPage;
+
+    /**
+     * True when the server indicated that there isn't any page after {@link #lastPage}.
+     */
+    private boolean lastPageRequested;
+
+    private List<LDAPEntry> currentPage = Collections.emptyList();
+
+    private int currentIndex;
+
     private LDAPSearchResults currentSearchResults;
 
     private boolean lastResult;
 
+    /**
+     * The request of the current page, completed once the page was fully received.
+     */
+    private LDAPRequest currentRequest;
+
+    private boolean closed;
+
+    /**
+     * Iterate over the entries of the search and close it when they have all been returned.
+     *
+     * @version $Id$
+     */
+    private final class EntryIterator implements Iterator<LDAPEntry>
+    {
+        private LDAPEntry nextEntry;
+
+        private boolean done;
+
+        @Override
+        public boolean hasNext()
+        {
+            if (this.nextEntry == null && !this.done) {
+                // hasMore() is sometimes true even when there is nothing left so the next entry is always fetched
+                try {
+                    this.nextEntry = hasMore() ? PagedLDAPSearchResults.this.next() : null;
+                } catch (LDAPException e) {
+                    LOGGER.debug("Failed to get the next LDAP search result", e);
+                }
+
+                if (this.nextEntry == null) {
+                    this.done = true;
+
+                    try {
+                        close();
+                    } catch (LDAPException e) {
+                        LOGGER.debug("LDAP Search clean up failed", e);
+                    }
+                }
+            }
+
+            return this.nextEntry != null;
+        }
+
+        @Override
+        public LDAPEntry next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            LDAPEntry entry = this.nextEntry;
+            this.nextEntry = null;
+
+            return entry;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     /**
      * @param connection the connection
      * @param base The base distinguished name to search from.
@@ -89,33 +205,192 @@ public class PagedLDAPSearchResults implements AutoCloseable
         this.typesOnly = typesOnly;
 
         this.pageSize = pageSize;
+        this.paged = pageSize > 0 && connection.isPagedResultsEnabled();
+
+        if (this.paged) {
+            this.readAhead = connection.getConfiguration().getSearchReadAhead();
+            this.readAheadThreshold = connection.getConfiguration().getSearchReadAheadThreshold();
+        }
 
         // First search page
-        search(null);
+        if (this.readAhead > 0) {
+            this.lastPage = searchAsync(null);
+            this.nextPages.add(this.lastPage);
+        } else {
+            search(null);
+        }
     }
 
-    private void search(byte[] cookie) throws LDAPException
+    private LDAPSearchConstraints createConstraints(byte[] cookie)
     {
-        LDAPPagedResultsControl control = new LDAPPagedResultsControl(this.pageSize, cookie, false);
         LDAPSearchConstraints constraints = new LDAPSearchConstraints();
-        //constraints.setControls(control);
-        LOGGER.info(" AXWIKI: constrains disabled (does not work with ibm ldap)");
+        if (this.paged) {
+            constraints.setControls(new LDAPPagedResultsControl(this.pageSize, cookie, false));
+        }
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug(
                     "LDAP pagined search: base=[{}] query=[{}] attrs=[{}] scope=[{}] typesOnly=[{}]"
                             + " pageSize=[{}], cookie=[{}]",
                     this.base, this.filter, this.attrs != null ? Arrays.asList(this.attrs) : null, this.scope,
-                    this.typesOnly, this.pageSize, cookie != null ? Arrays.asList(cookie) : null);
+                    this.typesOnly, this.paged ? this.pageSize : 0, cookie != null ? Arrays.asList(cookie) : null);
+        }
+
+        return constraints;
+    }
+
+    private void search(byte[] cookie) throws LDAPException
+    {
+        LDAPSearchConstraints constraints = createConstraints(cookie);
+
+        LDAPRequest request = this.connection.startRequest(LDAPMetrics.PAGE);
+        try {
+            this.currentSearchResults = this.connection.getConnection().search(this.base, this.scope, this.filter,
+                    this.attrs, this.typesOnly, constraints);
+        } catch (LDAPException | RuntimeException e) {
+            request.failure(e);
+
+            throw e;
+        }
+
+        this.currentRequest = request;
+    }
+
+    private LDAPSearchFuture searchAsync(byte[] cookie) throws LDAPException
+    {
+        LDAPSearchConstraints constraints = createConstraints(cookie);
+
+        LDAPRequest request = this.connection.startRequest(LDAPMetrics.PAGE);
+        try {
+            LDAPSearchQueue queue = this.connection.getConnection().search(this.base, this.scope, this.filter,
+                    this.attrs, this.typesOnly, (LDAPSearchQueue) null, constraints);
+
+            return new LDAPSearchFuture(this.connection.getConnection(), queue, request);
+        } catch (LDAPException | RuntimeException e) {
+            request.failure(e);
+
+            throw e;
+        }
+    }
+
+    private static byte[] getCookie(LDAPControl[] controls)
+    {
+        if (controls != null) {
+            for (LDAPControl control : controls) {
+                if (control instanceof LDAPPagedResultsResponse) {
+                    byte[] cookie = ((LDAPPagedResultsResponse) control).getCookie();
+
+                    // An empty cookie indicates the last page
+                    return cookie != null && cookie.length > 0 ? cookie : null;
+                }
+            }
         }
 
-        this.currentSearchResults = this.connection.getConnection().search(this.base, this.scope, this.filter,
-                this.attrs, this.typesOnly, constraints);
+        return null;
+    }
+
+    /**
+     * Request the next pages until {@link #readAhead} pages are waiting to be consumed.
+     *
+     * @param wait true to wait for the last requested page to be received if needed, false to stop at the first page
+     *            not fully received yet
+     */
+    private void requestNextPages(boolean wait) throws LDAPException
+    {
+        boolean block = wait;
+        while (!this.lastPageRequested && this.nextPages.size() < this.readAhead) {
+            if (!block && !this.lastPage.isDone()) {
+                break;
+            }
+
+            // Make sure the page was fully received to get its cookie
+            this.lastPage.getEntries();
+
+            byte[] cookie = getCookie(this.lastPage.getResponseControls());
+            if (cookie != null) {
+                this.lastPage = searchAsync(cookie);
+                this.nextPages.add(this.lastPage);
+            } else {
+                this.lastPageRequested = true;
+            }
+
+            block = false;
+        }
+    }
+
+    /**
+     * @return true if there is at least one more entry to consume in read-ahead mode
+     */
+    private boolean hasMoreReadAhead() throws LDAPException
+    {
+        while (this.currentIndex >= this.currentPage.size()) {
+            if (this.nextPages.isEmpty()) {
+                requestNextPages(true);
+
+                if (this.nextPages.isEmpty()) {
+                    return false;
+                }
+            }
+
+            this.currentPage = this.nextPages.poll().getEntries();
+            this.currentIndex = 0;
+        }
+
+        readAheadIfNeeded();
+
+        return true;
+    }
+
+    private void readAheadIfNeeded() throws LDAPException
+    {
+        if (this.currentIndex * 100 >= this.currentPage.size() * this.readAheadThreshold) {
+            requestNextPages(false);
+        }
+    }
+
+    /**
+     * Search again without paged results if the passed error indicates that the server rejected them.
+     *
+     * @return true if the search was sent again
+     */
+    private boolean fallback(LDAPException e) throws LDAPException
+    {
+        if (this.paged && !this.received && isPagingRejected(e)) {
+            // Some servers advertise (or are forced to use) paged results but reject them: search again without
+            this.connection.pagedResultsRejected();
+            this.paged = false;
+
+            if (this.readAhead > 0) {
+                this.readAhead = 0;
+                cancelNextPages();
+            }
+
+            search(null);
+
+            return true;
+        }
+
+        return false;
+    }
+
+    private void cancelNextPages()
+    {
+        for (LDAPSearchFuture page : this.nextPages) {
+            page.cancel(true);
+        }
+        this.nextPages.clear();
+
+        if (this.lastPage != null) {
+            this.lastPage.cancel(true);
+        }
     }
 
     private LDAPSearchResults getCurrentLDAPSearchResults() throws LDAPException
     {
         if (!this.lastResult && !this.currentSearchResults.hasMore()) {
+            // The current page was fully received
+            this.currentRequest.success();
+
             // Get next page (if any)
             LDAPControl[] controls = this.currentSearchResults.getResponseControls();
             if (controls != null) {
@@ -140,7 +415,8 @@ public class PagedLDAPSearchResults implements AutoCloseable
 
     private void nextLDAPSearchResults(byte[] cookie) throws LDAPException
     {
-        if (cookie != null) {
+        // An empty cookie indicates the last page
+        if (cookie != null && cookie.length > 0) {
             search(cookie);
         } else {
             // Mark that we reached the last page
@@ -155,6 +431,28 @@ public class PagedLDAPSearchResults implements AutoCloseable
      */
     public boolean hasMore()
     {
+        if (this.closed) {
+            return false;
+        }
+
+        if (this.readAhead > 0) {
+            try {
+                return hasMoreReadAhead();
+            } catch (LDAPException e) {
+                try {
+                    if (fallback(e)) {
+                        return hasMore();
+                    }
+                } catch (LDAPException fallbackException) {
+                    LOGGER.debug("Failed to search again without paged results", fallbackException);
+                }
+
+                LOGGER.debug("Failed to get the next page of LDAP search results", e);
+
+                return false;
+            }
+        }
+
         LDAPSearchResults results;
         try {
             results = getCurrentLDAPSearchResults();
@@ -180,13 +478,120 @@ public class PagedLDAPSearchResults implements AutoCloseable
      */
     public LDAPEntry next() throws LDAPException
     {
-        return getCurrentLDAPSearchResults().next();
+        LDAPEntry entry;
+        try {
+            if (this.readAhead > 0) {
+                if (!hasMoreReadAhead()) {
+                    throw new NoSuchElementException();
+                }
+
+                this.received = true;
+
+                // The entries are counted by the page future
+                entry = this.currentPage.get(this.currentIndex++);
+
+                readAheadIfNeeded();
+
+                return entry;
+            }
+
+            entry = getCurrentLDAPSearchResults().next();
+        } catch (LDAPException e) {
+            if (this.readAhead == 0) {
+                // The page futures report their own errors
+                this.currentRequest.failure(e);
+            }
+
+            if (fallback(e)) {
+                return next();
+            }
+
+            throw e;
+        }
+
+        this.received = true;
+        this.currentRequest.entry(entry);
+
+        return entry;
+    }
+
+    /**
+     * Returns the entries remaining in the current page, receiving the next page first if the current one was fully
+     * consumed. In read-ahead mode the following pages are requested before returning.
+     *
+     * @return the next entries, empty when all the results have been returned
+     * @throws LDAPException A general exception which includes an error message and an LDAP error code.
+     * @since 9.5.7
+     */
+    public List<LDAPEntry> nextPage() throws LDAPException
+    {
+        if (!hasMore()) {
+            return Collections.emptyList();
+        }
+
+        List<LDAPEntry> entries;
+        if (this.readAhead > 0) {
+            entries = new ArrayList<>(this.currentPage.subList(this.currentIndex, this.currentPage.size()));
+
+            this.received = true;
+            this.currentIndex = this.currentPage.size();
+
+            readAheadIfNeeded();
+        } else {
+            entries = new ArrayList<>();
+
+            LDAPSearchResults page = getCurrentLDAPSearchResults();
+            while (page == this.currentSearchResults && page.hasMore()) {
+                LDAPEntry entry = next();
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned iterator closes the search when all the entries have been returned. Errors are logged and end the
+     * iteration.
+     *
+     * @since 9.5.7
+     */
+    @Override
+    public Iterator<LDAPEntry> iterator()
+    {
+        return new EntryIterator();
+    }
+
+    private boolean isPagingRejected(LDAPException e)
+    {
+        switch (e.getResultCode()) {
+            case LDAPException.UNAVAILABLE_CRITICAL_EXTENSION:
+            case LDAPException.PROTOCOL_ERROR:
+            case LDAPException.OPERATIONS_ERROR:
+            case LDAPException.UNWILLING_TO_PERFORM:
+                return true;
+
+            default:
+                return false;
+        }
     }
 
     @Override
     public void close() throws LDAPException
     {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        cancelNextPages();
+
         if (this.currentSearchResults != null) {
+            this.currentRequest.cancel();
             this.connection.getConnection().abandon(this.currentSearchResults);
         }
     }
@@ -35,6 +35,7 @@ import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
 import org.xwiki.text.StringUtils;
 
+import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.LDAPDN;
 import com.novell.ldap.LDAPException;
 import com.xpn.xwiki.XWikiContext;
@@ -672,10 +673,7 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
                     }
                 } else if (!ldapDn.equals(bindDN)) {
                     // Validate user credentials
-                    connector.bind(ldapDn, password);
-
-                    // Rebind admin user
-                    connector.bind(bindDN, configuration.getLDAPBindPassword(trimedAuthInput, password));
+                    connector.verifyCredentials(ldapDn, password);
                 }
             }
 
@@ -693,6 +691,12 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
             // 10. sync user
             // ////////////////////////////////////////////////////////////////////
 
+            if (searchAttributes == null && StringUtils.isNotEmpty(configuration.getUserGroupsAttribute())) {
+                // Get the user attributes now, they contain the groups of the user
+                searchAttributes = connector.searchLDAP(ldapDn, null, ldapUtils.getAttributeNameTable(context),
+                        LDAPConnection.SCOPE_BASE);
+            }
+
             userProfile = syncUser(userProfile, searchAttributes, ldapDn, trimedAuthInput, ldapUtils, context);
 
             // from now on we can enter the application
@@ -706,6 +710,9 @@ public class XWikiLDAPAuthServiceImpl extends XWikiAuthServiceImpl
             // 10. sync groups membership
             // ////////////////////////////////////////////////////////////////////
 
+            // The groups listed in the user attributes (if any) are used instead of searching the user in each group
+            ldapUtils.setUserGroups(ldapUtils.getUserGroups(searchAttributes));
+
             try {
                 syncGroupsMembership(userProfile.getFullName(), ldapDn, isNewUser, ldapUtils, context);
             } catch (XWikiException e) {
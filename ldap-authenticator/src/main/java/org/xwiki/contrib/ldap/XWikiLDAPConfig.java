@@ -195,7 +195,7 @@ public class XWikiLDAPConfig
     /**
      * @param userId the complete user id given
      * @param configurationSource the Configuration source to use to find LDAP parameters first (if not found in this
-     *            source then the parameter will be searched for in xwiki.cfg).
+     *            source then the parameter will be searched for in xwiki.cfg), can be {@code null}
      * @since 9.1.1
      */
     public XWikiLDAPConfig(String userId, ConfigurationSource configurationSource)
@@ -237,6 +237,36 @@ public class XWikiLDAPConfig
         return this.memoryConfiguration;
     }
 
+    /**
+     * The LDAP parameters of the XWiki preferences can only be read from a thread associated with an XWiki context.
+     *
+     * @return a copy of this configuration with the current LDAP parameters of the XWiki preferences, which can be
+     *         used from any thread
+     * @since 9.5.7
+     */
+    XWikiLDAPConfig snapshot()
+    {
+        XWikiLDAPConfig snapshot = new XWikiLDAPConfig(null, (ConfigurationSource) null);
+
+        if (this.configurationSource != null) {
+            for (String key : this.configurationSource.getKeys()) {
+                if (key.startsWith("ldap")) {
+                    String value = this.configurationSource.getProperty(key, String.class);
+
+                    // Empty values fall back on xwiki.cfg
+                    if (value != null && !"".equals(value)) {
+                        snapshot.memoryConfiguration.put(key, value);
+                    }
+                }
+            }
+        }
+
+        snapshot.memoryConfiguration.putAll(this.memoryConfiguration);
+        snapshot.finalMemoryConfiguration.putAll(this.finalMemoryConfiguration);
+
+        return snapshot;
+    }
+
     private void parseRemoteUser(String ssoRemoteUser)
     {
         this.memoryConfiguration.put("auth.input", ssoRemoteUser);
@@ -323,7 +353,10 @@ public class XWikiLDAPConfig
 
         // First look for the parameter in the defined configuration source (by default in XWikiPreferences document
         // from the current wiki).
-        String param = this.configurationSource.getProperty(name, String.class);
+        String param = null;
+        if (this.configurationSource != null) {
+            param = this.configurationSource.getProperty(name, String.class);
+        }
 
         // If not found, check in xwiki.cfg
         if (param == null || "".equals(param)) {
@@ -744,6 +777,27 @@ public class XWikiLDAPConfig
         return (int) getLDAPParamAsLong("ldap_groupcache_expiration", 21600);
     }
 
+    /**
+     * @return the time in seconds after which the cached members of a group are checked for changes: the group is
+     *         expanded again only if it or one of its nested groups changed. 0 to expand the group again each time its
+     *         cache entry expires. In both cases groups are fully expanded again after {@link #getCacheExpiration()}.
+     * @since 9.5.7
+     */
+    public int getCacheRefreshInterval()
+    {
+        return (int) getLDAPParamAsLong("ldap_groupcache_refresh", 0);
+    }
+
+    /**
+     * @return the name of the attribute changed each time a group entry is modified, empty to use
+     *         {@code uSNChanged} with Active Directory and {@code modifyTimestamp} with other servers
+     * @since 9.5.7
+     */
+    public String getGroupChangeAttribute()
+    {
+        return getLDAPParam("ldap_group_change_attribute", "");
+    }
+
     /**
      * @param context the XWiki context.
      * @return the pattern to resolve to find the password to use to connect to LDAP server. It is based on
@@ -843,6 +897,26 @@ public class XWikiLDAPConfig
         return MessageFormat.format(getLDAPBindPassword(), input, password);
     }
 
+    /**
+     * @return true if the LDAP bind DN and password are fixed service credentials, false if they are derived from the
+     *         login input or the password of the user
+     * @since 9.5.7
+     */
+    public boolean isServiceBindIdentity()
+    {
+        return !hasArguments(getLDAPBindDN()) && !hasArguments(getLDAPBindPassword());
+    }
+
+    private static boolean hasArguments(String pattern)
+    {
+        try {
+            return new MessageFormat(pattern).getFormats().length > 0;
+        } catch (IllegalArgumentException e) {
+            // Not a valid pattern, assume the worst
+            return true;
+        }
+    }
+
     /**
      * @param context the XWiki context.
      * @return the maximum number of milliseconds the client waits for any operation under these constraints to
@@ -1232,4 +1306,278 @@ public class XWikiLDAPConfig
     {
         return (int) getLDAPParamAsLong("ldap_searchPageSize", 500);
     }
+
+    /**
+     * @return the number of pages of a paginated search to request before they are needed, 0 to request each page only
+     *         when the previous one has been consumed
+     * @since 9.5.7
+     */
+    public int getSearchReadAhead()
+    {
+        return (int) getLDAPParamAsLong("ldap_search_readahead", 0);
+    }
+
+    /**
+     * @return the percentage of the current page which has to be consumed before the next pages are requested
+     * @since 9.5.7
+     */
+    public int getSearchReadAheadThreshold()
+    {
+        return (int) getLDAPParamAsLong("ldap_search_readahead_threshold", 50);
+    }
+
+    /**
+     * @return the number of group members whose DN are read in parallel when resolving the members of a group, 0 or
+     *         1 to resolve them one by one
+     * @since 9.5.7
+     */
+    public int getGroupMembersBatchSize()
+    {
+        return (int) getLDAPParamAsLong("ldap_group_members_batch_size", 50);
+    }
+
+    /**
+     * @param host the host of the LDAP server
+     * @return the maximum number of threads expanding the nested groups of a group in parallel, 1 to expand them
+     *         sequentially
+     * @since 9.5.7
+     */
+    public int getGroupExpansionParallelism(String host)
+    {
+        return (int) getLDAPParamAsLong("ldap_group_expansion_parallelism." + host,
+            getLDAPParamAsLong("ldap_group_expansion_parallelism", 1));
+    }
+
+    /**
+     * @return how to check if a user is a member of a group: {@code expand} to get all the members of the group,
+     *         {@code inchain} to ask the server using the Active Directory {@code LDAP_MATCHING_RULE_IN_CHAIN} or
+     *         {@code auto} to use the later only when the server is an Active Directory
+     * @since 9.5.7
+     */
+    public String getMembershipCheck()
+    {
+        return getLDAPParam("ldap_membership_check", "expand");
+    }
+
+    /**
+     * @return the user attribute listing the DNs of the groups the user belongs to (like {@code memberOf}), empty if
+     *         the membership of the user in the mapped groups should be checked on the groups side
+     * @since 9.5.7
+     */
+    public String getUserGroupsAttribute()
+    {
+        return getLDAPParam("ldap_user_groups_attribute", "");
+    }
+
+    /**
+     * @param host the host of the LDAP server
+     * @return {@code auto} to use the Simple Paged Results control when the server advertises it, {@code 1} to always
+     *         use it or {@code 0} to never use it
+     * @since 9.5.7
+     */
+    public String getPagedResults(String host)
+    {
+        return getLDAPParam("ldap_paged_results." + host, getLDAPParam("ldap_paged_results", "auto"));
+    }
+
+    /**
+     * @return true if connections to the LDAP server should be kept and reused between authentications (only when they
+     *         are bound with fixed service credentials, see {@link #isServiceBindIdentity()}), disabled by default
+     * @since 9.5.7
+     */
+    public boolean isConnectionPoolEnabled()
+    {
+        return getLDAPParamAsLong("ldap_pool", 0) == 1;
+    }
+
+    /**
+     * @return the maximum number of connections (idle or in use) to keep for a given server and bind identity
+     * @since 9.5.7
+     */
+    public int getConnectionPoolMaxSize()
+    {
+        return (int) getLDAPParamAsLong("ldap_pool_maxsize", 20);
+    }
+
+    /**
+     * @return the number of milliseconds after which an unused pooled connection is closed
+     * @since 9.5.7
+     */
+    public long getConnectionPoolIdleTimeout()
+    {
+        return getLDAPParamAsLong("ldap_pool_idle_timeout", 300000);
+    }
+
+    /**
+     * @return the maximum number of milliseconds to wait for an available pooled connection when the pool is full
+     * @since 9.5.7
+     */
+    public long getConnectionPoolMaxWait()
+    {
+        return getLDAPParamAsLong("ldap_pool_maxwait", getLDAPTimeout());
+    }
+
+    /**
+     * @return the number of milliseconds between two checks of the pooled and shared connections to close the idle ones
+     *         and forget the unused servers and identities, 0 to disable the periodic check
+     * @since 9.5.7
+     */
+    public long getConnectionPoolEvictionInterval()
+    {
+        return getLDAPParamAsLong("ldap_pool_eviction_interval", 60000);
+    }
+
+    /**
+     * @return the maximum number of pooled connections used to verify users credentials for a given server
+     * @since 9.5.7
+     */
+    public int getCredentialsConnectionPoolMaxSize()
+    {
+        return (int) getLDAPParamAsLong("ldap_pool_credentials_maxsize", 5);
+    }
+
+    /**
+     * @return the way operations are sent to the LDAP server: {@code dedicated} to use a connection (and its reader
+     *         thread) per authentication or {@code shared} to multiplex the operations of all authentications using
+     *         the same bind identity over a few connections (only when they are bound with fixed service credentials,
+     *         see {@link #isServiceBindIdentity()})
+     * @since 9.5.7
+     */
+    public String getLDAPTransport()
+    {
+        return getLDAPParam("ldap_transport", "dedicated");
+    }
+
+    /**
+     * @return the number of connections over which operations are multiplexed for a given server and bind identity
+     *         when the {@code shared} transport is used
+     * @since 9.5.7
+     */
+    public int getSharedConnectionsCount()
+    {
+        return (int) getLDAPParamAsLong("ldap_transport_shared_connections", 2);
+    }
+
+    /**
+     * @return the time in seconds during which a DN resolved from a login input is kept in cache, 0 to disable
+     * @since 9.5.7
+     */
+    public int getLoginDNCacheExpiration()
+    {
+        return (int) getLDAPParamAsLong("ldap_logindn_cache_expiration", 3600);
+    }
+
+    /**
+     * @return the time in seconds during which a login input which could not be resolved to a DN is kept in cache, 0
+     *         to disable
+     * @since 9.5.7
+     */
+    public int getLoginDNCacheUnresolvedExpiration()
+    {
+        return (int) getLDAPParamAsLong("ldap_logindn_cache_unresolved_expiration", 300);
+    }
+
+    /**
+     * @return the maximum number of login inputs to keep in the login DN cache
+     * @since 9.5.7
+     */
+    public int getLoginDNCacheSize()
+    {
+        return (int) getLDAPParamAsLong("ldap_logindn_cache_size", 10000);
+    }
+
+    /**
+     * @return the LDAP servers to use, each one in the form {@code host} or {@code host:port}
+     * @since 9.5.7
+     */
+    public List<String> getLDAPServers()
+    {
+        List<String> servers = new ArrayList<>();
+
+        for (String server : getLDAPListParam("ldap_server", Collections.singletonList("localhost"))) {
+            if (StringUtils.isNotBlank(server)) {
+                servers.add(server.trim());
+            }
+        }
+
+        if (servers.isEmpty()) {
+            servers.add("localhost");
+        }
+
+        return servers;
+    }
+
+    /**
+     * @return the strategy used to choose the server to connect to when several are configured: {@code roundrobin},
+     *         {@code leastoutstanding} or {@code latency}
+     * @since 9.5.7
+     */
+    public String getLDAPServerStrategy()
+    {
+        return getLDAPParam("ldap_server_strategy", "roundrobin");
+    }
+
+    /**
+     * @return the number of milliseconds between two health checks of the configured servers, 0 to disable health
+     *         checks
+     * @since 9.5.7
+     */
+    public long getLDAPServerProbeInterval()
+    {
+        return getLDAPParamAsLong("ldap_server_probe_interval", 10000);
+    }
+
+    /**
+     * @return true if calls to the LDAP directory should fail immediately when it keeps failing
+     * @since 9.5.7
+     */
+    public boolean isCircuitBreakerEnabled()
+    {
+        return getLDAPParamAsLong("ldap_circuitbreaker", 1) == 1;
+    }
+
+    /**
+     * @return the percentage of failed calls from which the circuit breaker opens
+     * @since 9.5.7
+     */
+    public int getCircuitBreakerFailureRate()
+    {
+        return (int) getLDAPParamAsLong("ldap_circuitbreaker_failure_rate", 50);
+    }
+
+    /**
+     * @return the number of last calls taken into account to compute the failure rate
+     * @since 9.5.7
+     */
+    public int getCircuitBreakerWindowSize()
+    {
+        return (int) getLDAPParamAsLong("ldap_circuitbreaker_window", 20);
+    }
+
+    /**
+     * @return the minimum number of calls before the failure rate is taken into account
+     * @since 9.5.7
+     */
+    public int getCircuitBreakerMinimumCalls()
+    {
+        return (int) getLDAPParamAsLong("ldap_circuitbreaker_minimum_calls", 10);
+    }
+
+    /**
+     * @return the number of milliseconds during which calls fail immediately once the circuit breaker opened
+     * @since 9.5.7
+     */
+    public long getCircuitBreakerOpenDuration()
+    {
+        return getLDAPParamAsLong("ldap_circuitbreaker_open_duration", 30000);
+    }
+
+    /**
+     * @return the number of trial calls which need to succeed to close the circuit breaker again
+     * @since 9.5.7
+     */
+    public int getCircuitBreakerHalfOpenCalls()
+    {
+        return (int) getLDAPParamAsLong("ldap_circuitbreaker_halfopen_calls", 3);
+    }
 }
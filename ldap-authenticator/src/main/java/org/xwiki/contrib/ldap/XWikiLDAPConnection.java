@@ -21,12 +21,23 @@ package org.xwiki.contrib.ldap;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
-import java.security.Security;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.contrib.ldap.internal.LDAPCircuitBreaker;
+import org.xwiki.contrib.ldap.internal.LDAPConnectionPool;
+import org.xwiki.contrib.ldap.internal.LDAPLoginDNCache;
+import org.xwiki.contrib.ldap.internal.LDAPMetrics;
+import org.xwiki.contrib.ldap.internal.LDAPServer;
+import org.xwiki.contrib.ldap.internal.LDAPServerCapabilities;
+import org.xwiki.contrib.ldap.internal.LDAPServerSelector;
+import org.xwiki.contrib.ldap.internal.LDAPSharedConnections;
+import org.xwiki.contrib.ldap.internal.LDAPSocketFactories;
+import org.xwiki.contrib.ldap.internal.PooledLDAPConnection;
 
 import com.novell.ldap.LDAPAttribute;
 import com.novell.ldap.LDAPAttributeSet;
@@ -34,11 +45,12 @@ import com.novell.ldap.LDAPConnection;
 import com.novell.ldap.LDAPDN;
 import com.novell.ldap.LDAPEntry;
 import com.novell.ldap.LDAPException;
-import com.novell.ldap.LDAPJSSESecureSocketFactory;
 import com.novell.ldap.LDAPSearchConstraints;
+import com.novell.ldap.LDAPSearchQueue;
 import com.novell.ldap.LDAPSearchResults;
 import com.novell.ldap.LDAPSocketFactory;
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.Utils;
 
 import javax.naming.InvalidNameException;
 import javax.naming.ldap.LdapName;
@@ -61,11 +73,57 @@ public class XWikiLDAPConnection {
      */
     private LDAPConnection connection;
 
+    /**
+     * The pooled connection when {@link #connection} was borrowed from the connection pool.
+     */
+    private PooledLDAPConnection pooledConnection;
+
+    /**
+     * True when {@link #connection} is a clone of a connection shared with other users of the same bind identity.
+     */
+    private boolean shared;
+
+    /**
+     * The DN the connection is currently bound with.
+     */
+    private String boundDN;
+
+    /**
+     * The DN and password used to open the connection.
+     */
+    private String loginDN;
+
+    private String loginPassword;
+
+    /**
+     * The SSL configuration used to open the connection.
+     */
+    private boolean ssl;
+
+    private String pathToKeys;
+
+    /**
+     * True when the connection is opened with the configured service credentials, in which case it can be pooled or
+     * shared. A connection bound with the credentials of a user is always dedicated so that its password is checked.
+     */
+    private boolean serviceIdentity;
+
+    /**
+     * The use of the server selected by {@link #open(String, String, XWikiContext)}.
+     */
+    private LDAPServer.Lease serverLease;
+
     /**
      * LDAP attributes that should be treated as binary data.
      */
     private Set<String> binaryAttributes = new HashSet<>();
 
+    /**
+     * The DNs already resolved by {@link #createLoginDNByUID(String)} (possibly from several threads when expanding
+     * groups in parallel).
+     */
+    private Map<String, String> resolvedDNs = new ConcurrentHashMap<>();
+
     private final XWikiLDAPConfig configuration;
 
     /**
@@ -91,9 +149,31 @@ public class XWikiLDAPConnection {
         this();
 
         this.connection = connection.connection;
+        this.pooledConnection = connection.pooledConnection;
+        this.shared = connection.shared;
+        this.serviceIdentity = connection.serviceIdentity;
+        this.boundDN = connection.boundDN;
+        this.serverLease = connection.serverLease;
+        this.loginDN = connection.loginDN;
+        this.loginPassword = connection.loginPassword;
+        this.ssl = connection.ssl;
+        this.pathToKeys = connection.pathToKeys;
+        this.resolvedDNs = connection.resolvedDNs;
         this.binaryAttributes = connection.binaryAttributes;
     }
 
+    private LDAPConnectionPool getConnectionPool() {
+        return Utils.getComponent(LDAPConnectionPool.class);
+    }
+
+    private LDAPSharedConnections getSharedConnections() {
+        return Utils.getComponent(LDAPSharedConnections.class);
+    }
+
+    private boolean isSharedTransport() {
+        return "shared".equals(this.configuration.getLDAPTransport());
+    }
+
     /**
      * @param context the XWiki context.
      * @return the maximum number of milliseconds the client waits for any operation under these constraints to
@@ -128,27 +208,157 @@ public class XWikiLDAPConnection {
      * @throws XWikiLDAPException error when trying to open connection.
      */
     public boolean open(String ldapUserName, String password, XWikiContext context) throws XWikiLDAPException {
-        // open LDAP
-        int ldapPort = this.configuration.getLDAPPort();
-        String ldapHost = this.configuration.getLDAPParam("ldap_server", "localhost");
-
         // allow to use the given user and password also as the LDAP bind user and password
         String bindDN = this.configuration.getLDAPBindDN(ldapUserName, password);
         String bindPassword = this.configuration.getLDAPBindPassword(ldapUserName, password);
+        this.serviceIdentity = this.configuration.isServiceBindIdentity();
 
-        boolean bind;
-        if ("1".equals(this.configuration.getLDAPParam("ldap_ssl", "0"))) {
-            String keyStore = this.configuration.getLDAPParam("ldap_ssl.keystore", "");
+        boolean ssl = "1".equals(this.configuration.getLDAPParam("ldap_ssl", "0"));
+        String keyStore = null;
+        if (ssl) {
+            keyStore = this.configuration.getLDAPParam("ldap_ssl.keystore", "");
 
             LOGGER.debug("Connecting to LDAP using SSL");
-
-            bind = open(ldapHost, ldapPort, bindDN, bindPassword, keyStore, true, context);
         } else {
             LOGGER.debug("AXWIKI:binds " + bindDN);
-            bind = open(ldapHost, ldapPort, bindDN, bindPassword, null, false, context);
         }
 
-        return bind;
+        return openAvailableServer(bindDN, bindPassword, keyStore, ssl, context);
+    }
+
+    private boolean openAvailableServer(String bindDN, String bindPassword, String keyStore, boolean ssl,
+                                        XWikiContext context) throws XWikiLDAPException {
+        // open LDAP, trying the next server when one cannot be reached
+        LDAPServerSelector selector = getServerSelector();
+        LDAPCircuitBreaker circuitBreaker = getCircuitBreaker();
+        XWikiLDAPException failure = null;
+        for (LDAPServer server : selector.getServers(this.configuration, ssl)) {
+            String key = LDAPCircuitBreaker.getKey(server.getHost(), server.getPort());
+
+            // fail fast when the server is known to be unhealthy
+            try {
+                circuitBreaker.acquire(this.configuration, key);
+            } catch (LDAPException e) {
+                LOGGER.debug("Skipping LDAP server [{}]: {}", server, e.getMessage());
+
+                failure = new XWikiLDAPException("LDAP bind failed with LDAPException.", e);
+                continue;
+            }
+
+            long start = System.currentTimeMillis();
+            boolean bind;
+            try {
+                bind = open(server.getHost(), server.getPort(), bindDN, bindPassword, keyStore, ssl, context);
+            } catch (XWikiLDAPException e) {
+                circuitBreaker.failure(this.configuration, key, e.getCause());
+
+                if (!isServerUnavailable(e.getCause())) {
+                    throw e;
+                }
+
+                LOGGER.warn("Failed to connect to LDAP server [{}]: {}", server, ExceptionUtils.getRootCauseMessage(e));
+
+                selector.failed(server);
+                failure = e;
+                continue;
+            } catch (RuntimeException e) {
+                circuitBreaker.failure(this.configuration, key, e);
+
+                throw e;
+            }
+
+            circuitBreaker.success(this.configuration, key);
+            this.serverLease = selector.connected(server, System.currentTimeMillis() - start);
+
+            return bind;
+        }
+
+        throw failure;
+    }
+
+    private LDAPMetrics getMetrics() {
+        return Utils.getComponent(LDAPMetrics.class);
+    }
+
+    LDAPMetrics.Timer startTimer(String operation) {
+        return getMetrics().start(operation, LDAPMetrics.getServer(this.connection));
+    }
+
+    /**
+     * Fail fast if the current server is known to be unhealthy and start measuring a request sent to it.
+     *
+     * @param operation the type of request
+     * @return the request to complete when its response is received
+     * @throws LDAPException when the circuit of the current server is open
+     */
+    LDAPRequest startRequest(String operation) throws LDAPException {
+        String server = LDAPMetrics.getServer(this.connection);
+
+        LDAPCircuitBreaker circuitBreaker = getCircuitBreaker();
+        circuitBreaker.acquire(this.configuration, server);
+
+        return new LDAPRequest(this.configuration, circuitBreaker, server, getMetrics().start(operation, server));
+    }
+
+    /**
+     * @return the configuration used by this connection
+     */
+    XWikiLDAPConfig getConfiguration() {
+        return this.configuration;
+    }
+
+    private LDAPServerCapabilities getServerCapabilities() {
+        return Utils.getComponent(LDAPServerCapabilities.class);
+    }
+
+    /**
+     * @return true if searches on the current server should use the Simple Paged Results control
+     */
+    boolean isPagedResultsEnabled() {
+        String pagedResults = this.configuration.getPagedResults(this.connection.getHost());
+
+        if ("1".equals(pagedResults)) {
+            return true;
+        } else if ("0".equals(pagedResults)) {
+            return false;
+        }
+
+        return getServerCapabilities().isControlSupported(this.connection, LDAPServerCapabilities.PAGED_RESULTS);
+    }
+
+    /**
+     * @return true if the current server advertises itself as an Active Directory
+     */
+    boolean isActiveDirectory() {
+        return getServerCapabilities().isCapabilitySupported(this.connection, LDAPServerCapabilities.ACTIVE_DIRECTORY);
+    }
+
+    /**
+     * Indicate that the current server rejected the Simple Paged Results control.
+     */
+    void pagedResultsRejected() {
+        LOGGER.warn("LDAP server [{}] rejected the paged results control, falling back to non paged searches",
+                LDAPMetrics.getServer(this.connection));
+
+        getServerCapabilities().setUnsupported(this.connection, LDAPServerCapabilities.PAGED_RESULTS);
+    }
+
+    private LDAPCircuitBreaker getCircuitBreaker() {
+        return Utils.getComponent(LDAPCircuitBreaker.class);
+    }
+
+    private LDAPServerSelector getServerSelector() {
+        return Utils.getComponent(LDAPServerSelector.class);
+    }
+
+    private boolean isServerUnavailable(Throwable e) {
+        if (e instanceof LDAPException) {
+            int resultCode = ((LDAPException) e).getResultCode();
+
+            return resultCode == LDAPException.CONNECT_ERROR || resultCode == LDAPException.SERVER_DOWN;
+        }
+
+        return false;
     }
 
     /**
@@ -176,61 +386,201 @@ public class XWikiLDAPConnection {
 
         setBinaryAttributes(this.configuration.getBinaryAttributes());
 
+        this.loginDN = dn;
+        this.loginPassword = password;
+        this.ssl = ssl;
+        this.pathToKeys = pathToKeys;
+
         try {
-            if (ssl) {
-                // Dynamically set JSSE as a security provider
-                Security.addProvider(this.configuration.getSecureProvider());
+            if (this.serviceIdentity && isSharedTransport()) {
+                shareConnection(ldapHost, port, dn, password, pathToKeys, ssl, context);
+            } else if (this.serviceIdentity && this.configuration.isConnectionPoolEnabled()) {
+                borrowConnection(ldapHost, port, dn, password, pathToKeys, ssl, context);
+            } else {
+                createConnection(ldapHost, port, dn, password, pathToKeys, ssl, context);
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new XWikiLDAPException("LDAP bind failed with UnsupportedEncodingException.", e);
+        } catch (LDAPException e) {
+            throw new XWikiLDAPException("LDAP bind failed with LDAPException.", e);
+        }
 
-                if (pathToKeys != null && pathToKeys.length() > 0) {
-                    // Dynamically set the property that JSSE uses to identify
-                    // the keystore that holds trusted root certificates
+        return true;
+    }
 
-                    System.setProperty("javax.net.ssl.trustStore", pathToKeys);
-                    // obviously unnecessary: sun default pwd = "changeit"
-                    // System.setProperty("javax.net.ssl.trustStorePassword", sslpwd);
-                }
+    /**
+     * Open another connection to the current server, with the same identity.
+     *
+     * @param configuration the configuration to use for the new connection
+     * @return the new connection, {@code null} if this connection is not open
+     * @throws XWikiLDAPException error when trying to open the new connection
+     */
+    XWikiLDAPConnection duplicate(XWikiLDAPConfig configuration) throws XWikiLDAPException {
+        if (this.connection == null) {
+            return null;
+        }
 
-                LDAPSocketFactory ssf = new LDAPJSSESecureSocketFactory();
+        XWikiLDAPConnection duplicate = new XWikiLDAPConnection(configuration);
+        duplicate.serviceIdentity = this.serviceIdentity;
+        // The login is already resolved
+        duplicate.resolvedDNs = this.resolvedDNs;
 
-                // Set the socket factory as the default for all future connections
-                // LDAPConnection.setSocketFactory(ssf);
+        duplicate.open(this.connection.getHost(), this.connection.getPort(), this.loginDN, this.loginPassword,
+                this.pathToKeys, this.ssl, null);
 
-                // Note: the socket factory can also be passed in as a parameter
-                // to the constructor to set it for this connection only.
-                this.connection = new LDAPConnection(ssf);
-            } else {
-                this.connection = new LDAPConnection();
+        return duplicate;
+    }
+
+    private LDAPConnectionPool.ConnectionFactory createConnectionFactory(final String ldapHost, final int port,
+                                                                         final String loginDN, final String password,
+                                                                         final String pathToKeys, final boolean ssl,
+                                                                         final XWikiContext context) {
+        return new LDAPConnectionPool.ConnectionFactory() {
+            @Override
+            public LDAPConnection createConnection() throws LDAPException {
+                try {
+                    return XWikiLDAPConnection.this.createConnection(ldapHost, port, loginDN, password, pathToKeys,
+                            ssl, context);
+                } catch (UnsupportedEncodingException e) {
+                    throw new LDAPException(e.getMessage(), LDAPException.ENCODING_ERROR, null, e);
+                } catch (XWikiLDAPException e) {
+                    throw new LDAPException(e.getMessage(), LDAPException.CONNECT_ERROR, null, e);
+                }
             }
+        };
+    }
 
-            // connect
-            connect(ldapHost, port);
+    private void borrowConnection(String ldapHost, int port, String loginDN, String password, String pathToKeys,
+                                  boolean ssl, XWikiContext context) throws LDAPException, XWikiLDAPException {
+        String bindDN = loginDN.replaceAll("\\\\", "");
+        String key = LDAPConnectionPool.getKey(ldapHost, port, ssl, bindDN, password);
 
-            // set referral following
-            LDAPSearchConstraints constraints = new LDAPSearchConstraints(this.connection.getConstraints());
-            constraints.setTimeLimit(getTimeout(context));
-            constraints.setMaxResults(getMaxResults(context));
-            constraints.setReferralFollowing(true);
-            constraints.setReferralHandler(new LDAPPluginReferralHandler(loginDN, password, context));
-            this.connection.setConstraints(constraints);
+        try {
+            this.pooledConnection = getConnectionPool().borrow(key, bindDN, this.configuration,
+                    createConnectionFactory(ldapHost, port, loginDN, password, pathToKeys, ssl, context));
+        } catch (LDAPException e) {
+            if (e.getCause() instanceof XWikiLDAPException) {
+                throw (XWikiLDAPException) e.getCause();
+            }
 
-            // bind
-            bind(dn, password);
-        } catch (UnsupportedEncodingException e) {
-            throw new XWikiLDAPException("LDAP bind failed with UnsupportedEncodingException.", e);
+            throw e;
+        }
+
+        this.connection = this.pooledConnection.getConnection();
+        this.boundDN = this.pooledConnection.getBindDN();
+
+        // The constraints (and especially the referral handler) are specific to the current request
+        setConstraints(loginDN, password, context);
+    }
+
+    private void shareConnection(String ldapHost, int port, String loginDN, String password, String pathToKeys,
+                                 boolean ssl, XWikiContext context) throws LDAPException, XWikiLDAPException {
+        String bindDN = loginDN.replaceAll("\\\\", "");
+        String key = LDAPConnectionPool.getKey(ldapHost, port, ssl, bindDN, password);
+
+        try {
+            this.connection = getSharedConnections().get(key, this.configuration,
+                    createConnectionFactory(ldapHost, port, loginDN, password, pathToKeys, ssl, context));
         } catch (LDAPException e) {
-            throw new XWikiLDAPException("LDAP bind failed with LDAPException.", e);
+            if (e.getCause() instanceof XWikiLDAPException) {
+                throw (XWikiLDAPException) e.getCause();
+            }
+
+            throw e;
         }
 
-        return true;
+        this.shared = true;
+        this.boundDN = bindDN;
+
+        // The clone has its own constraints, specific to the current request
+        setConstraints(loginDN, password, context);
+    }
+
+    /**
+     * Replace the shared connection by a dedicated connection to the same server, before changing its identity.
+     */
+    private void detachConnection() throws LDAPException {
+        LDAPConnection clone = this.connection;
+
+        try {
+            this.connection = newLDAPConnection(this.pathToKeys, this.ssl);
+        } catch (XWikiLDAPException e) {
+            throw new LDAPException(e.getMessage(), LDAPException.CONNECT_ERROR, null, e);
+        }
+        this.connection.setConstraints(clone.getSearchConstraints());
+        this.shared = false;
+
+        try {
+            connect(clone.getHost(), clone.getPort());
+        } finally {
+            // Only disassociate the clone, the shared connection stays open
+            clone.disconnect();
+        }
+    }
+
+    private LDAPConnection createConnection(String ldapHost, int port, String loginDN, String password,
+                                            String pathToKeys, boolean ssl, XWikiContext context)
+            throws LDAPException, UnsupportedEncodingException, XWikiLDAPException {
+        this.connection = newLDAPConnection(pathToKeys, ssl);
+
+        // connect
+        connect(ldapHost, port);
+
+        // set referral following
+        setConstraints(loginDN, password, context);
+
+        // bind
+        bind(loginDN, password);
+
+        return this.connection;
     }
 
+    private LDAPConnection newLDAPConnection(String pathToKeys, boolean ssl) throws XWikiLDAPException {
+        if (ssl) {
+            // The socket factory (and the SSL context behind it) is shared between connections using the same
+            // configuration so that TLS sessions can be resumed
+            LDAPSocketFactory ssf =
+                    Utils.getComponent(LDAPSocketFactories.class).getSSLSocketFactory(this.configuration, pathToKeys);
+
+            // Note: the socket factory can also be passed in as a parameter
+            // to the constructor to set it for this connection only.
+            return new LDAPConnection(ssf);
+        } else {
+            return new LDAPConnection();
+        }
+    }
+
+    private void setConstraints(String loginDN, String password, XWikiContext context) {
+        LDAPSearchConstraints constraints = new LDAPSearchConstraints(this.connection.getConstraints());
+        constraints.setTimeLimit(getTimeout(context));
+        constraints.setMaxResults(getMaxResults(context));
+        constraints.setReferralFollowing(true);
+        constraints.setReferralHandler(new LDAPPluginReferralHandler(loginDN, password, context));
+        this.connection.setConstraints(constraints);
+    }
+
+    /**
+     * Resolve the DN to use for the passed login. The result is remembered for the lifetime of this connector so that
+     * a login is resolved only once per authentication.
+     *
+     * @param loginDN the login (a DN containing the uid or a mail)
+     * @return the resolved DN, or the passed login if it could not be resolved
+     */
     public String createLoginDNByUID(String loginDN) {
-        String dn = getDnFromLdap(loginDN);
+        String dn = this.resolvedDNs.get(loginDN);
+
+        if (dn == null) {
+            dn = getDnFromLdap(loginDN);
+
+            this.resolvedDNs.put(loginDN, dn);
+            // Resolving an already resolved DN should not trigger a new search
+            this.resolvedDNs.put(dn, dn);
+        }
+
         return dn;
     }
 
     private String getDnFromLdap(String origLoginDn) {
-        // call ldap anonymously
         if (origLoginDn.contains("uid")){
             LOGGER.debug("AXWIKI:origLoginDN:{}",origLoginDn);
             String withoutEscape = origLoginDn.replaceAll("\\\\", "");
@@ -239,48 +589,202 @@ public class XWikiLDAPConnection {
 
         }
 
-        String ldapHost = this.configuration.getLDAPParam( "ldap_server", "localhost");
-        int ldapPort = this.configuration.getLDAPPort();
+        String cacheKey = this.configuration.getLDAPParam("ldap_server", "localhost") + ':'
+                + this.configuration.getLDAPPort() + '/' + this.configuration.getLDAPParam("ldap_base_DN", "o=ibm.com")
+                + '#' + origLoginDn;
+
+        LDAPLoginDNCache cache = Utils.getComponent(LDAPLoginDNCache.class);
+
+        String dn = cache.get(this.configuration, cacheKey);
+        if (dn != null) {
+            LOGGER.debug("Found DN [{}] for [{}] in cache", dn, origLoginDn);
+            return dn;
+        }
+
+        dn = searchDnFromLdap(origLoginDn);
+
+        if (dn == null) {
+            // The search failed, don't remember anything
+            return origLoginDn;
+        }
+
+        if (dn.equals(origLoginDn)) {
+            cache.setUnresolved(this.configuration, cacheKey, origLoginDn);
+        } else {
+            cache.set(this.configuration, cacheKey, dn);
+        }
+
+        return dn;
+    }
+
+    /**
+     * @param origLoginDn the login input
+     * @return the DN of the entry matching the login input, the login input itself if no entry matched or
+     *         {@code null} if the search failed
+     */
+    private String searchDnFromLdap(String origLoginDn) {
+        LDAPCircuitBreaker circuitBreaker = getCircuitBreaker();
+        LDAPServerSelector selector = getServerSelector();
+        for (LDAPServer server : selector.getServers(this.configuration, false)) {
+            String key = LDAPCircuitBreaker.getKey(server.getHost(), server.getPort());
+
+            try {
+                circuitBreaker.acquire(this.configuration, key);
+            } catch (LDAPException e) {
+                LOGGER.warn("Failed to resolve the DN of [{}]: {}", origLoginDn, e.getMessage());
+
+                continue;
+            }
+
+            try {
+                String dn = searchDnFromLdap(origLoginDn, server.getHost(), server.getPort());
+
+                circuitBreaker.success(this.configuration, key);
+
+                return dn;
+            } catch (LDAPException e) {
+                circuitBreaker.failure(this.configuration, key, e);
+
+                LOGGER.warn("Failed to resolve the DN of [{}] on LDAP server [{}]: {}", origLoginDn, server,
+                        ExceptionUtils.getRootCauseMessage(e));
+
+                if (!isServerUnavailable(e)) {
+                    return null;
+                }
+
+                selector.failed(server);
+            }
+        }
+
+        return null;
+    }
+
+    private String searchDnFromLdap(String origLoginDn, final String ldapHost, final int ldapPort)
+            throws LDAPException {
+        // call ldap anonymously
         String baseDn = this.configuration.getLDAPParam( "ldap_base_DN","o=ibm.com");
-        LDAPConnection lc = new LDAPConnection();
+
+        PooledLDAPConnection pooled = null;
+        LDAPConnection lc = null;
+        LDAPSearchResults searchResults = null;
+        boolean sharedLookup = isSharedTransport();
         try {
-            lc.connect(ldapHost, ldapPort);
-            lc.bind(LDAPConnection.LDAP_V3, "", "".getBytes(StandardCharsets.UTF_8));
+            LDAPConnectionPool.ConnectionFactory factory = new LDAPConnectionPool.ConnectionFactory() {
+                @Override
+                public LDAPConnection createConnection() throws LDAPException {
+                    return createLookupConnection(ldapHost, ldapPort);
+                }
+            };
+            String key = LDAPConnectionPool.getKey(ldapHost, ldapPort, false, "", "");
+
+            if (sharedLookup) {
+                lc = getSharedConnections().get(key, this.configuration, factory);
+            } else if (this.configuration.isConnectionPoolEnabled()) {
+                pooled = getConnectionPool().borrow(key, "", this.configuration, factory);
+                lc = pooled.getConnection();
+            } else {
+                lc = createLookupConnection(ldapHost, ldapPort);
+            }
+
             String[] attrs = {"uid"};
             String filter = getFilter(origLoginDn);
             LOGGER.debug("AXWIKI:new filter for anon:" + filter);
-            LDAPSearchResults searchResults = lc.search(baseDn,
-                    LDAPConnection.SCOPE_SUB, filter, attrs,false);
+            // Measure the search until the first entry (the only one used) is received
+            LDAPMetrics.Timer timer = getMetrics().start(LDAPMetrics.SEARCH, ldapHost + ':' + ldapPort);
+            try {
+                searchResults = lc.search(baseDn,
+                        LDAPConnection.SCOPE_SUB, filter, attrs,false);
 
-            while (searchResults.hasMore()) {
+                while (searchResults.hasMore()) {
 
-                LDAPEntry nextEntry = null;
+                    LDAPEntry nextEntry = null;
 
-                try {
+                    try {
 
-                    nextEntry = searchResults.next();
+                        nextEntry = searchResults.next();
 
-                } catch (LDAPException e) {
+                    } catch (LDAPException e) {
 
-                    System.out.println("Error: " + e.toString());
+                        LOGGER.debug("Failed to get the next entry when resolving [{}]", origLoginDn, e);
 
-                    if (e.getResultCode() == LDAPException.LDAP_TIMEOUT || e.getResultCode() == LDAPException.CONNECT_ERROR)
-                        break;
-                    else
-                        continue;
-                }
+                        if (e.getResultCode() == LDAPException.LDAP_TIMEOUT
+                                || e.getResultCode() == LDAPException.CONNECT_ERROR)
+                            return null;
+                        else
+                            continue;
+                    }
 
+                    timer.entry(nextEntry);
+                    timer.stop();
 
-                String dn = nextEntry.getDN();
-                return dn;
+                    String dn = nextEntry.getDN();
+                    return dn;
+                }
+
+                timer.stop();
+            } finally {
+                timer.fail();
             }
-            lc.disconnect();
-        } catch (LDAPException | InvalidNameException e) {
-            e.printStackTrace();
+        } catch (InvalidNameException e) {
+            LOGGER.warn("Failed to resolve the DN of [{}]: {}", origLoginDn, ExceptionUtils.getRootCauseMessage(e));
+
+            return null;
+        } finally {
+            releaseLookupConnection(pooled, lc, searchResults, sharedLookup);
         }
         return origLoginDn;
     }
 
+    private LDAPConnection createLookupConnection(String ldapHost, int ldapPort) throws LDAPException {
+        LDAPConnection lc = new LDAPConnection();
+        try {
+            lc.connect(ldapHost, ldapPort);
+            lc.bind(LDAPConnection.LDAP_V3, "", "".getBytes(StandardCharsets.UTF_8));
+        } catch (LDAPException e) {
+            if (lc.isConnected()) {
+                lc.disconnect();
+            }
+
+            throw e;
+        }
+
+        return lc;
+    }
+
+    private void releaseLookupConnection(PooledLDAPConnection pooled, LDAPConnection lc,
+                                         LDAPSearchResults searchResults, boolean sharedLookup) {
+        if (sharedLookup && lc != null && searchResults != null) {
+            try {
+                // Don't leave pending results on the shared connection
+                lc.abandon(searchResults);
+            } catch (LDAPException e) {
+                LOGGER.debug("Failed to abandon the DN resolution search", e);
+            }
+        }
+
+        if (pooled != null) {
+            if (searchResults != null) {
+                try {
+                    // Don't leave pending results on a connection which is going to be reused
+                    lc.abandon(searchResults);
+                } catch (LDAPException e) {
+                    LOGGER.debug("Failed to abandon the DN resolution search", e);
+                    getConnectionPool().invalidate(pooled);
+
+                    return;
+                }
+            }
+
+            getConnectionPool().release(pooled);
+        } else if (lc != null) {
+            try {
+                lc.disconnect();
+            } catch (LDAPException e) {
+                LOGGER.debug("Failed to close the DN resolution connection", e);
+            }
+        }
+    }
+
     private String getFilter(String userMail) throws InvalidNameException {
         String filter = String.format("(mail=%s)", userMail);
         return filter;
@@ -297,7 +801,14 @@ public class XWikiLDAPConnection {
         LOGGER.debug("Connection to LDAP server [{}:{}]", ldapHost, port);
 
         // connect to the server
-        this.connection.connect(ldapHost, port);
+        LDAPMetrics.Timer timer = getMetrics().start(LDAPMetrics.CONNECT, ldapHost + ':' + port);
+        try {
+            this.connection.connect(ldapHost, port);
+
+            timer.stop();
+        } finally {
+            timer.fail();
+        }
     }
 
     /**
@@ -312,14 +823,109 @@ public class XWikiLDAPConnection {
         loginDN = loginDN.replaceAll("\\\\", "");
         LOGGER.debug("Binding to LDAP server with credentials: login=[{}]", loginDN);
 
+        if (this.shared) {
+            // Binding a clone would change the identity of all the operations sent on the shared connection
+            detachConnection();
+        }
+
+        // The identity of the connection is unknown until the bind succeed
+        this.boundDN = null;
+
         // authenticate to the server
-        this.connection.bind(LDAPConnection.LDAP_V3, loginDN, password.getBytes("UTF8"));
+        LDAPMetrics.Timer timer = startTimer(LDAPMetrics.BIND);
+        try {
+            this.connection.bind(LDAPConnection.LDAP_V3, loginDN, password.getBytes("UTF8"));
+
+            timer.stop();
+        } finally {
+            timer.fail();
+        }
+
+        this.boundDN = loginDN;
+    }
+
+    /**
+     * Validate the credentials of a user by binding with them.
+     * <p>
+     * When connection pooling is enabled the bind is done on a dedicated connection so that this connection stays
+     * bound with its current identity. Otherwise this connection is bound with the user credentials and then bound
+     * back with the credentials it was opened with.
+     *
+     * @param userDN   the DN of the user.
+     * @param password the password of the user.
+     * @throws UnsupportedEncodingException error when converting provided password to UTF-8 table.
+     * @throws LDAPException                error when trying to bind (including when the credentials are invalid).
+     * @since 9.5.7
+     */
+    public void verifyCredentials(String userDN, String password) throws UnsupportedEncodingException, LDAPException {
+        if (this.pooledConnection == null && !this.shared) {
+            // Validate user credentials
+            bind(userDN, password);
+
+            // Rebind admin user
+            bind(this.loginDN, this.loginPassword);
+
+            return;
+        }
+
+        final String host = this.connection.getHost();
+        final int port = this.connection.getPort();
+
+        // Never mix the connections used to verify credentials with the connections used to search
+        String key = LDAPConnectionPool.getKey(host, port, this.ssl, "", "") + "#credentials";
+
+        LDAPConnectionPool pool = getConnectionPool();
+        PooledLDAPConnection credentialsConnection = pool.borrow(key, "",
+                this.configuration.getCredentialsConnectionPoolMaxSize(), this.configuration,
+                new LDAPConnectionPool.ConnectionFactory() {
+                    @Override
+                    public LDAPConnection createConnection() throws LDAPException {
+                        LDAPConnection lc;
+                        try {
+                            lc = newLDAPConnection(pathToKeys, ssl);
+                        } catch (XWikiLDAPException e) {
+                            throw new LDAPException(e.getMessage(), LDAPException.LOCAL_ERROR, null, e);
+                        }
+                        lc.connect(host, port);
+
+                        return lc;
+                    }
+                });
+
+        LDAPMetrics.Timer timer = getMetrics().start(LDAPMetrics.BIND, LDAPMetrics.getServer(this.connection));
+        try {
+            String dn = userDN.replaceAll("\\\\", "");
+            LOGGER.debug("Verifying LDAP credentials of [{}]", dn);
+
+            pool.verifyCredentials(credentialsConnection, dn, password.getBytes(StandardCharsets.UTF_8));
+
+            timer.stop();
+        } catch (LDAPException e) {
+            timer.fail();
+
+            throw e;
+        }
     }
 
     /**
      * Close LDAP connection.
      */
     public void close() {
+        if (this.serverLease != null) {
+            this.serverLease.release();
+        }
+
+        if (this.pooledConnection != null) {
+            // Only give back to the pool a connection which is still bound with the identity of the pool
+            if (this.pooledConnection.getBindDN().equals(this.boundDN)) {
+                getConnectionPool().release(this.pooledConnection);
+            } else {
+                getConnectionPool().invalidate(this.pooledConnection);
+            }
+
+            return;
+        }
+
         try {
             if (this.connection != null) {
                 this.connection.disconnect();
@@ -349,10 +955,17 @@ public class XWikiLDAPConnection {
      * @return true if the password is valid, false otherwise.
      */
     public boolean checkPassword(String userDN, String password, String passwordField) {
+        LDAPMetrics.Timer timer = startTimer(LDAPMetrics.COMPARE);
         try {
             LDAPAttribute attribute = new LDAPAttribute(passwordField, password);
-            return this.connection.compare(userDN, attribute);
+            boolean result = this.connection.compare(userDN, attribute);
+
+            timer.stop();
+
+            return result;
         } catch (LDAPException e) {
+            timer.fail();
+
             if (e.getResultCode() == LDAPException.NO_SUCH_OBJECT) {
                 LOGGER.debug("Unable to locate user_dn [{}]", userDN, e);
             } else if (e.getResultCode() == LDAPException.NO_SUCH_ATTRIBUTE) {
@@ -365,6 +978,37 @@ public class XWikiLDAPConnection {
         return false;
     }
 
+    /**
+     * Check if the passed entry contains the passed attribute value.
+     *
+     * @param dn        the DN of the entry
+     * @param attribute the attribute value to look for
+     * @return true if the entry contains the value, false if it does not or does not have this attribute at all
+     * @throws LDAPException error when comparing
+     * @since 9.5.7
+     */
+    public boolean compare(String dn, LDAPAttribute attribute) throws LDAPException {
+        LDAPRequest request = startRequest(LDAPMetrics.COMPARE);
+        try {
+            boolean result = this.connection.compare(dn, attribute);
+
+            request.success();
+
+            return result;
+        } catch (LDAPException e) {
+            if (e.getResultCode() == LDAPException.NO_SUCH_ATTRIBUTE
+                    || e.getResultCode() == LDAPException.UNDEFINED_ATTRIBUTE_TYPE) {
+                request.success();
+
+                return false;
+            }
+
+            request.failure(e);
+
+            throw e;
+        }
+    }
+
     /**
      * Execute a LDAP search query and return the first entry.
      *
@@ -420,7 +1064,7 @@ public class XWikiLDAPConnection {
      *                  <li>SCOPE_ONE - searches only entries under the base DN
      *                  <li>SCOPE_SUB - searches the base DN and all entries within its subtree
      *                  </ul>
-     * @return a result stream. LDAPConnection#abandon should be called when it's not needed anymore.
+     * @return a result stream. {@link #abandon(LDAPSearchResults)} should be called when it's not needed anymore.
      * @throws LDAPException error when searching
      * @since 3.3M1
      */
@@ -430,7 +1074,32 @@ public class XWikiLDAPConnection {
                     attr != null ? Arrays.asList(attr) : null, ldapScope);
         }
 
-        return this.connection.search(baseDN, ldapScope, filter, attr, false);
+        LDAPRequest request = startRequest(LDAPMetrics.SEARCH);
+        try {
+            LDAPSearchResults results = this.connection.search(baseDN, ldapScope, filter, attr, false);
+
+            // The search is measured until its results are consumed
+            return new MonitoredLDAPSearchResults(results, request);
+        } catch (LDAPException e) {
+            request.failure(e);
+
+            throw e;
+        }
+    }
+
+    /**
+     * Abandon a search which results are not needed anymore.
+     *
+     * @param results the results returned by {@link #search(String, String, String[], int)}
+     * @throws LDAPException error when abandoning the search
+     * @since 9.5.7
+     */
+    public void abandon(LDAPSearchResults results) throws LDAPException {
+        if (results instanceof MonitoredLDAPSearchResults) {
+            ((MonitoredLDAPSearchResults) results).abandon(this.connection);
+        } else {
+            this.connection.abandon(results);
+        }
     }
 
     /**
@@ -453,9 +1122,61 @@ public class XWikiLDAPConnection {
                                                   boolean typesOnly) throws LDAPException {
         int pageSize = this.configuration.getSearchPageSize();
 
+        // Each page reports its own outcome to the circuit breaker
         return new PagedLDAPSearchResults(this, base, scope, filter, attrs, typesOnly, pageSize);
     }
 
+    /**
+     * Send a search request without waiting for the answer. Several requests can be in flight on the same connection
+     * at the same time.
+     *
+     * @param baseDN    the root DN from where to search.
+     * @param filter    the LDAP filter.
+     * @param attrs     the attributes names of values to return.
+     * @param ldapScope the scope of the entries to search. The following are the valid options:
+     *                  <ul>
+     *                  <li>SCOPE_BASE - searches only the base DN
+     *                  <li>SCOPE_ONE - searches only entries under the base DN
+     *                  <li>SCOPE_SUB - searches the base DN and all entries within its subtree
+     *                  </ul>
+     * @return the pending result of the search
+     * @throws LDAPException error when sending the search request
+     * @since 9.5.7
+     */
+    public LDAPSearchFuture searchAsync(String baseDN, String filter, String[] attrs, int ldapScope)
+            throws LDAPException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("LDAP asynchronous search: baseDN=[{}] query=[{}] attr=[{}] ldapScope=[{}]", baseDN, filter,
+                    attrs != null ? Arrays.asList(attrs) : null, ldapScope);
+        }
+
+        LDAPRequest request = startRequest(LDAPMetrics.SEARCH);
+        try {
+            LDAPSearchQueue queue = this.connection.search(baseDN, ldapScope, filter, attrs, false,
+                    (LDAPSearchQueue) null, this.connection.getSearchConstraints());
+
+            // The outcome is reported once the response is complete
+            return new LDAPSearchFuture(this.connection, queue, request);
+        } catch (LDAPException e) {
+            request.failure(e);
+
+            throw e;
+        }
+    }
+
+    /**
+     * Send a request for the passed entry without waiting for the answer.
+     *
+     * @param dn    the DN of the entry to read.
+     * @param attrs the attributes names of values to return.
+     * @return the pending result of the read, containing the entry if it exists
+     * @throws LDAPException error when sending the request
+     * @since 9.5.7
+     */
+    public LDAPSearchFuture readAsync(String dn, String[] attrs) throws LDAPException {
+        return searchAsync(dn, "(objectClass=*)", attrs, LDAPConnection.SCOPE_BASE);
+    }
+
     /**
      * Fill provided <code>searchAttributeList</code> with provided LDAP attributes.
      *
@@ -467,29 +1188,27 @@ public class XWikiLDAPConnection {
         for (LDAPAttribute attribute : (Set<LDAPAttribute>) attributeSet) {
             String attributeName = attribute.getName();
 
+            // Each jldap accessor copies the values so make sure to call only one of them, once
             if (!isBinaryAttribute(attributeName)) {
-                LOGGER.debug("  - values for attribute [{}]", attributeName);
-
-                Enumeration<String> allValues = attribute.getStringValues();
-
-                if (allValues != null) {
-                    while (allValues.hasMoreElements()) {
-                        String value = allValues.nextElement();
-
-                        LOGGER.debug("    |- [{}]", value);
-
+                if (attribute.size() == 1) {
+                    searchAttributeList.add(new XWikiLDAPSearchAttribute(attributeName, attribute.getStringValue()));
+                } else {
+                    for (String value : attribute.getStringValueArray()) {
                         searchAttributeList.add(new XWikiLDAPSearchAttribute(attributeName, value));
                     }
                 }
-            } else {
-                LOGGER.debug("  - attribute [{}] is binary", attributeName);
-
-                Enumeration<byte[]> allValues = attribute.getByteValues();
 
-                if (allValues != null) {
-                    while (allValues.hasMoreElements()) {
-                        byte[] value = allValues.nextElement();
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("  - values for attribute [{}]: {}", attributeName,
+                            Arrays.toString(attribute.getStringValueArray()));
+                }
+            } else {
+                LOGGER.debug("  - attribute [{}] is binary ([{}] values)", attributeName, attribute.size());
 
+                if (attribute.size() == 1) {
+                    searchAttributeList.add(new XWikiLDAPSearchAttribute(attributeName, attribute.getByteValue()));
+                } else {
+                    for (byte[] value : attribute.getByteValueArray()) {
                         searchAttributeList.add(new XWikiLDAPSearchAttribute(attributeName, value));
                     }
                 }
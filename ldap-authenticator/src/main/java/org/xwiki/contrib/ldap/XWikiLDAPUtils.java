@@ -23,14 +23,23 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.MessageFormat;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Pattern;
 
 import javax.imageio.ImageIO;
@@ -40,6 +49,7 @@ import javax.imageio.stream.ImageInputStream;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.text.StrLookup;
 import org.apache.commons.lang3.text.StrSubstitutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,13 +57,15 @@ import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.config.CacheConfiguration;
 import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.contrib.ldap.internal.LDAPCanonicalDN;
+import org.xwiki.contrib.ldap.internal.LDAPGroupExpansionPools;
+import org.xwiki.contrib.ldap.internal.LDAPGroupMembers;
 import org.xwiki.contrib.ldap.internal.LDAPGroupsCache;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.rendering.syntax.Syntax;
 
 import com.novell.ldap.LDAPAttribute;
 import com.novell.ldap.LDAPConnection;
-import com.novell.ldap.LDAPDN;
 import com.novell.ldap.LDAPEntry;
 import com.novell.ldap.LDAPException;
 import com.novell.ldap.LDAPSearchResults;
@@ -106,6 +118,34 @@ public class XWikiLDAPUtils
      */
     private static final String LDAP_FIELD_DN = "dn";
 
+    /**
+     * The prefix of the subtype indicating the range of values returned for an attribute (Active Directory).
+     */
+    private static final String RANGE_SUBTYPE = "range=";
+
+    /**
+     * The end of the last range of values of an attribute.
+     */
+    private static final String RANGE_LAST = "*";
+
+    /**
+     * The OID of the Active Directory matching rule which walks the chain of ancestry of an entry.
+     */
+    private static final String MATCHING_RULE_IN_CHAIN = "1.2.840.113556.1.4.1941";
+
+    private static final String MEMBERSHIP_CHECK_INCHAIN = "inchain";
+
+    private static final String MEMBERSHIP_CHECK_AUTO = "auto";
+
+    private static final String AD_CHANGE_ATTRIBUTE = "uSNChanged";
+
+    private static final String CHANGE_ATTRIBUTE = "modifyTimestamp";
+
+    /**
+     * The (lower case) member fields containing the uid of the members instead of their DN.
+     */
+    private static final Set<String> UID_MEMBER_FIELDS = Collections.singleton("memberuid");
+
     /**
      * The LDAP connection.
      */
@@ -145,6 +185,160 @@ public class XWikiLDAPUtils
      */
     private boolean resolveSubgroups = true;
 
+    /**
+     * @see #getUserGroups()
+     */
+    private Set<String> userGroups;
+
+    /**
+     * The state of the parallel or tracked expansion of nested groups this instance is used for, {@code null} when
+     * groups are expanded sequentially without tracking their changes.
+     */
+    private GroupExpansion expansion;
+
+    /**
+     * The state of an expansion of nested groups, shared by its tasks when they run in parallel.
+     *
+     * @version $Id$
+     */
+    private static final class GroupExpansion
+    {
+        /**
+         * The groups already expanded or being expanded by a task.
+         */
+        private final Set<String> visited = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        /**
+         * The pool expanding the nested groups in parallel, {@code null} if they are expanded sequentially.
+         */
+        private final ForkJoinPool pool;
+
+        /**
+         * The connection of the instance which started the expansion.
+         */
+        private final XWikiLDAPConnection connection;
+
+        /**
+         * The configuration used by the tasks, which cannot access the wiki configuration since they run without XWiki
+         * context.
+         */
+        private final XWikiLDAPConfig configuration;
+
+        /**
+         * The number of member DNs to read at once.
+         */
+        private final int batchSize;
+
+        /**
+         * The instance used by each thread of the pool, with its own connection.
+         */
+        private final Map<Thread, XWikiLDAPUtils> workers = new ConcurrentHashMap<>();
+
+        /**
+         * The attribute indicating when a group changed, {@code null} if changes are not tracked.
+         */
+        private final String changeAttribute;
+
+        /**
+         * The value of the change attribute of each expanded group.
+         */
+        private final Map<String, String> changes = new ConcurrentHashMap<>();
+
+        /**
+         * True if some members were found in a way which can't be tracked (filter, missing change attribute, etc.).
+         */
+        private volatile boolean untracked;
+
+        /**
+         * True if some members are not listed in their group with their DN (uid, filter, organization unit, etc.).
+         */
+        private volatile boolean indirect;
+
+        GroupExpansion(ForkJoinPool pool, XWikiLDAPConnection connection, XWikiLDAPConfig configuration,
+            int batchSize, String changeAttribute)
+        {
+            this.pool = pool;
+            this.connection = connection;
+            this.configuration = configuration;
+            this.batchSize = batchSize;
+            this.changeAttribute = changeAttribute;
+        }
+
+        boolean isParallel()
+        {
+            return this.pool != null && ForkJoinTask.getPool() == this.pool;
+        }
+
+        boolean isTracked()
+        {
+            return this.changeAttribute != null && !this.untracked;
+        }
+    }
+
+    /**
+     * The subgroups found while expanding a group, with a constant time {@link #contains(Object)} since it's checked
+     * for each member to break loops.
+     *
+     * @version $Id$
+     */
+    private static final class SubgroupList extends AbstractList<String>
+    {
+        private final List<String> list = new ArrayList<>();
+
+        private final Set<String> set = new HashSet<>();
+
+        @Override
+        public String get(int index)
+        {
+            return this.list.get(index);
+        }
+
+        @Override
+        public int size()
+        {
+            return this.list.size();
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            return this.set.contains(o);
+        }
+
+        @Override
+        public void add(int index, String element)
+        {
+            this.list.add(index, element);
+            this.set.add(element);
+        }
+
+        @Override
+        public String set(int index, String element)
+        {
+            String previous = this.list.set(index, element);
+            forget(previous);
+            this.set.add(element);
+
+            return previous;
+        }
+
+        @Override
+        public String remove(int index)
+        {
+            String previous = this.list.remove(index);
+            forget(previous);
+
+            return previous;
+        }
+
+        private void forget(String element)
+        {
+            if (!this.list.contains(element)) {
+                this.set.remove(element);
+            }
+        }
+    }
+
     /**
      * Create an instance of {@link XWikiLDAPUtils}.
      *
@@ -167,6 +361,27 @@ public class XWikiLDAPUtils
         this.configuration = configuration;
     }
 
+    private XWikiLDAPUtils(XWikiLDAPUtils utils, GroupExpansion expansion)
+    {
+        this(utils, expansion, utils.connection, utils.configuration);
+    }
+
+    private XWikiLDAPUtils(XWikiLDAPUtils utils, GroupExpansion expansion, XWikiLDAPConnection connection,
+        XWikiLDAPConfig configuration)
+    {
+        this(connection, configuration);
+
+        this.caches = utils.caches;
+        this.uidAttributeName = utils.uidAttributeName;
+        this.groupClasses = utils.groupClasses;
+        this.groupMemberFields = utils.groupMemberFields;
+        this.baseDN = utils.baseDN;
+        this.userSearchFormatString = utils.userSearchFormatString;
+        this.resolveSubgroups = utils.resolveSubgroups;
+
+        this.expansion = expansion;
+    }
+
     private LDAPGroupsCache getCaches()
     {
         if (this.caches == null) {
@@ -272,6 +487,26 @@ public class XWikiLDAPUtils
         this.resolveSubgroups = resolveSubgroups;
     }
 
+    /**
+     * @return the canonical DNs of the LDAP groups of the user being synchronized (see {@link #getUserGroups(List)}),
+     *         {@code null} to search the user in each mapped group
+     * @since 9.5.7
+     */
+    public Set<String> getUserGroups()
+    {
+        return this.userGroups;
+    }
+
+    /**
+     * @param userGroups the canonical DNs of the LDAP groups of the user being synchronized (see
+     *            {@link #getUserGroups(List)}), {@code null} to search the user in each mapped group
+     * @since 9.5.7
+     */
+    public void setUserGroups(Set<String> userGroups)
+    {
+        this.userGroups = userGroups;
+    }
+
     /**
      * Get the cache with the provided name for a particular LDAP server.
      *
@@ -330,13 +565,9 @@ public class XWikiLDAPUtils
     }
 
     /**
-     * Execute LDAP query to get all group's members.
-     *
-     * @param groupDN the group to retrieve the members of and scan for subgroups.
-     * @return the LDAP search result.
-     * @throws XWikiLDAPException failed to execute LDAP query
+     * @return the attributes needed to resolve the members of a group
      */
-    private PagedLDAPSearchResults searchGroupsMembersByDN(String groupDN) throws LDAPException
+    private String[] getGroupMembersAttributes()
     {
         String[] attrs = new String[2 + getGroupMemberFields().size()];
 
@@ -349,6 +580,25 @@ public class XWikiLDAPUtils
         // in case it's a organization unit get the users ids
         attrs[i] = getUidAttributeName();
 
+        if (this.expansion != null && this.expansion.changeAttribute != null) {
+            attrs = Arrays.copyOf(attrs, attrs.length + 1);
+            attrs[attrs.length - 1] = this.expansion.changeAttribute;
+        }
+
+        return attrs;
+    }
+
+    /**
+     * Execute LDAP query to get all group's members.
+     *
+     * @param groupDN the group to retrieve the members of and scan for subgroups.
+     * @return the LDAP search result.
+     * @throws XWikiLDAPException failed to execute LDAP query
+     */
+    private PagedLDAPSearchResults searchGroupsMembersByDN(String groupDN) throws LDAPException
+    {
+        String[] attrs = getGroupMembersAttributes();
+
         // Using LDAPConnection.SCOPE_SUB here because we want to cover two use case at the same time:
         // * if it's an actual group entry there should be only one result with that entry
         // * if it's a OU there should be several entries with each sub member
@@ -364,16 +614,7 @@ public class XWikiLDAPUtils
      */
     private PagedLDAPSearchResults searchGroupsMembersByFilter(String filter) throws LDAPException
     {
-        String[] attrs = new String[2 + getGroupMemberFields().size()];
-
-        int i = 0;
-        attrs[i++] = LDAP_OBJECTCLASS;
-        for (String groupMember : getGroupMemberFields()) {
-            attrs[i++] = groupMember;
-        }
-
-        // in case it's a organization unit get the users ids
-        attrs[i] = getUidAttributeName();
+        String[] attrs = getGroupMembersAttributes();
 
         return getConnection().searchPaginated(getBaseDN(), LDAPConnection.SCOPE_SUB, filter, attrs, false);
     }
@@ -420,20 +661,269 @@ public class XWikiLDAPUtils
         for (String memberField : getGroupMemberFields()) {
             LDAPAttribute attribute = ldapEntry.getAttribute(memberField);
             if (attribute != null) {
-                Enumeration<String> values = attribute.getStringValues();
-                while (values.hasMoreElements()) {
-                    String member = values.nextElement();
+                getGroupMembersFromAttribute(attribute, memberMap, subgroups, context);
+            } else {
+                // Active Directory only returns a range of the values of big attributes (member;range=0-1499)
+                attribute = getRangeAttribute(ldapEntry, memberField);
+                if (attribute != null) {
+                    getGroupMembersFromRanges(ldapEntry.getDN(), memberField, attribute, memberMap, subgroups,
+                        context);
+                }
+            }
+        }
+    }
+
+    private void getGroupMembersFromAttribute(LDAPAttribute attribute, Map<String, String> memberMap,
+                                              List<String> subgroups, XWikiContext context)
+    {
+        int batchSize;
+        if (this.expansion != null) {
+            batchSize = this.expansion.batchSize;
+        } else {
+            batchSize = isResolveSubgroups() ? getConfiguration().getGroupMembersBatchSize() : 0;
+        }
+        List<String> members = Arrays.asList(attribute.getStringValueArray());
+
+        if (this.expansion != null && this.expansion.isParallel()) {
+            // Resolve the members by chunks concurrently, the subgroups found in each chunk being themselves expanded
+            // in parallel
+            int chunkSize = Math.max(batchSize, 1);
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(members.size() / chunkSize + 1);
+            for (int i = 0; i < members.size(); i += chunkSize) {
+                tasks.add(createMembersTask(members.subList(i, Math.min(members.size(), i + chunkSize)), batchSize,
+                    memberMap, subgroups));
+            }
+
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            getGroupMembers(members, batchSize, memberMap, subgroups, context);
+        }
+    }
+
+    private RecursiveAction createMembersTask(final List<String> members, final int batchSize,
+        final Map<String, String> memberMap, final List<String> subgroups)
+    {
+        return new RecursiveAction()
+        {
+            @Override
+            protected void compute()
+            {
+                // The tasks run without XWiki context
+                getWorker().getGroupMembers(members, batchSize, memberMap, subgroups, null);
+            }
+        };
+    }
+
+    /**
+     * @return the instance to use in the current thread of the expansion pool, with its own connection so that the
+     *         requests of the different threads are not pipelined on the same connection
+     */
+    private XWikiLDAPUtils getWorker()
+    {
+        Thread thread = Thread.currentThread();
+
+        XWikiLDAPUtils worker = this.expansion.workers.get(thread);
+        if (worker == null) {
+            XWikiLDAPConnection workerConnection = null;
+            try {
+                workerConnection = this.expansion.connection.duplicate(this.expansion.configuration);
+            } catch (XWikiLDAPException e) {
+                LOGGER.warn("Failed to open a connection to expand groups, sharing the current one: {}",
+                    e.getMessage());
+                LOGGER.debug("Failed to open a connection to expand groups", e);
+            }
+            if (workerConnection == null) {
+                workerConnection = this.expansion.connection;
+            }
+
+            worker = new XWikiLDAPUtils(this, this.expansion, workerConnection, this.expansion.configuration);
+            this.expansion.workers.put(thread, worker);
+        }
 
-                    if (StringUtils.isNotBlank(member)) {
-                        LOGGER.debug("  |- Member value [{}] found. Trying to resolve it.", member);
+        return worker;
+    }
+
+    private void getGroupMembers(List<String> members, int batchSize, Map<String, String> memberMap,
+                                 List<String> subgroups, XWikiContext context)
+    {
+        List<String> batch = batchSize > 1 ? new ArrayList<String>(batchSize) : null;
+
+        for (String member : members) {
+            if (StringUtils.isNotBlank(member)) {
+                LOGGER.debug("  |- Member value [{}] found. Trying to resolve it.", member);
 
-                        // we check for subgroups recursive call to scan all subgroups and identify members
-                        // and their uid
-                        getGroupMembers(member, memberMap, subgroups, context);
+                if (batch != null && LDAPCanonicalDN.isValid(member)) {
+                    batch.add(member);
+
+                    if (batch.size() >= batchSize) {
+                        getGroupMembersFromDNs(batch, memberMap, subgroups, context);
+                        batch.clear();
                     }
+                } else {
+                    // we check for subgroups recursive call to scan all subgroups and identify members
+                    // and their uid
+                    getGroupMembers(member, memberMap, subgroups, context);
                 }
             }
         }
+
+        if (batch != null && !batch.isEmpty()) {
+            getGroupMembersFromDNs(batch, memberMap, subgroups, context);
+        }
+    }
+
+    private boolean isResolved(String dn, Map<String, String> memberMap, List<String> subgroups)
+    {
+        String canonicalDN = LDAPCanonicalDN.canonicalize(dn);
+
+        return memberMap.containsKey(canonicalDN) || subgroups.contains(canonicalDN);
+    }
+
+    /**
+     * Resolve a batch of member DNs. All the entries are requested before waiting for the first answer so that the
+     * batch costs about one round trip instead of one per member. Members which cannot be resolved that way (not
+     * found, organization units, etc.) are resolved one by one.
+     *
+     * @param dns the DNs of the members to resolve
+     * @param memberMap the result: maps DN to member id.
+     * @param subgroups return all the subgroups identified.
+     * @param context the XWiki context.
+     */
+    private void getGroupMembersFromDNs(List<String> dns, Map<String, String> memberMap, List<String> subgroups,
+                                        XWikiContext context)
+    {
+        String[] attrs = getGroupMembersAttributes();
+
+        List<LDAPSearchFuture> futures = new ArrayList<>(dns.size());
+        for (String dn : dns) {
+            LDAPSearchFuture future = null;
+            if (!isResolved(dn, memberMap, subgroups)) {
+                try {
+                    future = getConnection().readAsync(dn, attrs);
+                } catch (LDAPException e) {
+                    LOGGER.debug("Failed to read [{}]", dn, e);
+                }
+            }
+            futures.add(future);
+        }
+
+        for (int i = 0; i < dns.size(); ++i) {
+            String dn = dns.get(i);
+            LDAPSearchFuture future = futures.get(i);
+
+            // The member might have been resolved in the meantime (as a member of a previous subgroup)
+            if (isResolved(dn, memberMap, subgroups)) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+
+                continue;
+            }
+
+            LDAPEntry entry = null;
+            if (future != null) {
+                try {
+                    List<LDAPEntry> entries = future.getEntries();
+                    if (!entries.isEmpty()) {
+                        entry = entries.get(0);
+                    }
+                } catch (LDAPException e) {
+                    LOGGER.debug("Failed to read [{}]", dn, e);
+                }
+            }
+
+            if (entry != null && (isGroup(entry) || entry.getAttribute(getUidAttributeName()) != null)) {
+                try {
+                    getGroupMembers(memberMap, subgroups, entry, context);
+                } catch (LDAPException e) {
+                    LOGGER.debug("Failed to get group members", e);
+                }
+            } else {
+                // Not found or not a user nor a group (like an organization unit): go through the standard resolution
+                getGroupMembers(dn, memberMap, subgroups, context);
+            }
+        }
+    }
+
+    /**
+     * Resolve the members found in each range of values of the member attribute, asking for the next range until the
+     * last one is received. Each range is resolved before the next one is requested so that only one range of values
+     * is in memory at a time.
+     *
+     * @param groupDN the DN of the group
+     * @param memberField the name of the member attribute
+     * @param firstRange the first range of values, returned with the group entry
+     * @param memberMap the result: maps DN to member id.
+     * @param subgroups return all the subgroups identified.
+     * @param context the XWiki context.
+     */
+    private void getGroupMembersFromRanges(String groupDN, String memberField, LDAPAttribute firstRange,
+                                           Map<String, String> memberMap, List<String> subgroups, XWikiContext context)
+    {
+        LDAPAttribute range = firstRange;
+        while (range != null) {
+            getGroupMembersFromAttribute(range, memberMap, subgroups, context);
+
+            String end = getRangeEnd(range);
+            if (end == null || end.equals(RANGE_LAST)) {
+                break;
+            }
+
+            String nextRange;
+            try {
+                nextRange = memberField + ';' + RANGE_SUBTYPE + (Long.parseLong(end) + 1) + '-' + RANGE_LAST;
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Unexpected range [{}] for attribute [{}] of [{}]", range.getName(), memberField,
+                    groupDN);
+
+                break;
+            }
+
+            LOGGER.debug("Getting values [{}] of group [{}]", nextRange, groupDN);
+
+            try {
+                List<LDAPEntry> entries = getConnection().readAsync(groupDN, new String[] {nextRange}).getEntries();
+
+                range = entries.isEmpty() ? null : getRangeAttribute(entries.get(0), memberField);
+            } catch (LDAPException e) {
+                LOGGER.warn("Failed to get values [{}] of group [{}]: {}", nextRange, groupDN, e.getMessage());
+
+                break;
+            }
+        }
+    }
+
+    private LDAPAttribute getRangeAttribute(LDAPEntry ldapEntry, String attributeName)
+    {
+        for (Object attribute : ldapEntry.getAttributeSet()) {
+            LDAPAttribute ldapAttribute = (LDAPAttribute) attribute;
+
+            if (ldapAttribute.getBaseName().equalsIgnoreCase(attributeName) && getRangeEnd(ldapAttribute) != null) {
+                return ldapAttribute;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param attribute the attribute
+     * @return the end of the range of values contained in the attribute, {@link #RANGE_LAST} for the last range or
+     *         {@code null} if the attribute does not contain a range of values
+     */
+    private String getRangeEnd(LDAPAttribute attribute)
+    {
+        String[] subtypes = attribute.getSubtypes();
+
+        if (subtypes != null) {
+            for (String subtype : subtypes) {
+                if (StringUtils.startsWithIgnoreCase(subtype, RANGE_SUBTYPE)) {
+                    return StringUtils.substringAfter(subtype, "-");
+                }
+            }
+        }
+
+        return null;
     }
 
     /**
@@ -472,15 +962,19 @@ public class XWikiLDAPUtils
                 LOGGER.error("Could not find attribute [{}] for LDAP dn [{}]", getUidAttributeName(), groupDN);
             }
 
-            if (!memberMap.containsKey(groupDN.toLowerCase())) {
-                memberMap.put(groupDN.toLowerCase(), id == null ? "" : id.toLowerCase());
+            String canonicalDN = LDAPCanonicalDN.canonicalize(groupDN);
+            if (!memberMap.containsKey(canonicalDN)) {
+                memberMap.put(canonicalDN, id == null ? "" : id.toLowerCase());
             }
         } else {
             // remember this group
             if (subgroups != null) {
-                subgroups.add(groupDN.toLowerCase());
+                subgroups.add(LDAPCanonicalDN.canonicalize(groupDN));
             }
 
+            // The version of the group is not known
+            untrack();
+
             getGroupMembersFromSearchResult(searchAttributeList, memberMap, subgroups, context);
         }
 
@@ -502,32 +996,30 @@ public class XWikiLDAPUtils
     public boolean getGroupMembers(Map<String, String> memberMap, List<String> subgroups, LDAPEntry ldapEntry,
                                    XWikiContext context) throws LDAPException
     {
-        boolean isGroup = false;
-
         // Check if the entry is a group
+        boolean isGroup = isGroup(ldapEntry);
 
-        LDAPAttribute classAttribute = ldapEntry.getAttribute(LDAP_OBJECTCLASS);
-        if (classAttribute != null) {
-            Enumeration<String> values = classAttribute.getStringValues();
-            Collection<String> groupClasses = getGroupClasses();
-            while (values.hasMoreElements()) {
-                String value = values.nextElement();
-                if (groupClasses.contains(value.toLowerCase())) {
-                    isGroup = true;
-                }
-            }
-        }
+        String canonicalDN = LDAPCanonicalDN.canonicalize(ldapEntry.getDN());
 
         // Get members or user id if it's a user
 
         if (isGroup) {
             LOGGER.debug("[{}] is a group", ldapEntry.getDN());
 
+            // make sure only one task expands this group
+            if (this.expansion != null && !this.expansion.visited.add(canonicalDN)) {
+                LOGGER.debug("[{}] is already being resolved", ldapEntry.getDN());
+
+                return true;
+            }
+
             // remember this group
             if (subgroups != null) {
-                subgroups.add(ldapEntry.getDN().toLowerCase());
+                subgroups.add(canonicalDN);
             }
 
+            recordChange(canonicalDN, ldapEntry);
+
             getGroupMembersFromLDAPEntry(ldapEntry, memberMap, subgroups, context);
         } else {
             LOGGER.debug("[{}] is a user", ldapEntry.getDN());
@@ -537,8 +1029,8 @@ public class XWikiLDAPUtils
             if (uidAttribute != null) {
                 String uid = uidAttribute.getStringValue();
 
-                if (!memberMap.containsKey(ldapEntry.getDN().toLowerCase())) {
-                    memberMap.put(ldapEntry.getDN().toLowerCase(), uid.toLowerCase());
+                if (!memberMap.containsKey(canonicalDN)) {
+                    memberMap.put(canonicalDN, uid.toLowerCase());
                 }
             } else {
                 LOGGER.debug("Probably a organization unit or a search");
@@ -548,6 +1040,65 @@ public class XWikiLDAPUtils
         return isGroup;
     }
 
+    /**
+     * Remember the value of the change attribute of a group, to be able to check later if it changed.
+     *
+     * @param groupDN the canonical DN of the group
+     * @param groupEntry the entry of the group
+     */
+    private void recordChange(String groupDN, LDAPEntry groupEntry)
+    {
+        if (this.expansion != null && this.expansion.changeAttribute != null) {
+            LDAPAttribute attribute = groupEntry.getAttribute(this.expansion.changeAttribute);
+
+            if (attribute != null && attribute.getStringValue() != null) {
+                this.expansion.changes.put(groupDN, attribute.getStringValue());
+            } else {
+                LOGGER.debug("No [{}] attribute for group [{}]", this.expansion.changeAttribute, groupDN);
+
+                untrack();
+            }
+        }
+    }
+
+    /**
+     * Indicate that the changes of the expanded group can't be detected from the change attribute of its groups.
+     */
+    private void untrack()
+    {
+        if (this.expansion != null) {
+            this.expansion.untracked = true;
+        }
+    }
+
+    /**
+     * Indicate that some members of the expanded group are not listed with their DN, so that their membership can't be
+     * checked by comparing their DN with the values of the member fields.
+     */
+    private void indirect()
+    {
+        if (this.expansion != null) {
+            this.expansion.indirect = true;
+        }
+    }
+
+    private boolean isGroup(LDAPEntry ldapEntry)
+    {
+        LDAPAttribute classAttribute = ldapEntry.getAttribute(LDAP_OBJECTCLASS);
+        if (classAttribute != null) {
+            Enumeration<String> values = classAttribute.getStringValues();
+            Collection<String> groupClasses = getGroupClasses();
+            while (values.hasMoreElements()) {
+                String value = values.nextElement();
+                if (groupClasses.contains(value.toLowerCase())) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Get all members of a given group based on the groupDN. If the group contains subgroups get these members as well.
      * Retrieve an identifier for each member.
@@ -570,11 +1121,12 @@ public class XWikiLDAPUtils
         boolean isGroup = false;
 
         int nbMembers = memberMap.size();
-        if (LDAPDN.isValid(userOrGroup)) {
+        LDAPCanonicalDN canonicalDN = LDAPCanonicalDN.valueOf(userOrGroup);
+        if (canonicalDN != null) {
             LOGGER.debug("[{}] is a valid DN, lets try to get corresponding entry.", userOrGroup);
 
             // Stop there if passed used is already a resolved member
-            if (memberMap.containsKey(userOrGroup.toLowerCase())) {
+            if (memberMap.containsKey(canonicalDN.toString())) {
                 LOGGER.debug("[{}] is already resolved", userOrGroup);
 
                 return false;
@@ -584,18 +1136,25 @@ public class XWikiLDAPUtils
             if (!subgroups.isEmpty() && !isResolveSubgroups()) {
                 LOGGER.debug("Group members resolve is disabled to add [{}] as group member directly", userOrGroup);
 
-                memberMap.put(userOrGroup.toLowerCase(), userOrGroup);
+                memberMap.put(canonicalDN.toString(), userOrGroup);
 
                 return false;
             }
 
             isGroup = getGroupMembersFromDN(userOrGroup, memberMap, subgroups, context);
+
+            if (!isGroup && !memberMap.containsKey(canonicalDN.toString())) {
+                // Not found or the members of an organization unit
+                indirect();
+            }
         }
 
         if (!isGroup && nbMembers == memberMap.size()) {
             // Probably not a DN, lets try as filter or id
             LOGGER.debug("Looks like [{}] is not a DN, lets try filter or id", userOrGroup);
 
+            indirect();
+
             try {
                 // Test if it's valid LDAP filter syntax
                 new RfcFilter(userOrGroup);
@@ -611,7 +1170,7 @@ public class XWikiLDAPUtils
                     String dn = searchAttributeList.get(0).value;
 
                     // Stop there if passed used is already a resolved member
-                    if (memberMap.containsKey(dn.toLowerCase())) {
+                    if (memberMap.containsKey(LDAPCanonicalDN.canonicalize(dn))) {
                         LOGGER.debug("[{}] is already resolved", dn);
 
                         return false;
@@ -621,7 +1180,7 @@ public class XWikiLDAPUtils
                     if (!subgroups.isEmpty() && !isResolveSubgroups()) {
                         LOGGER.debug("Group members resolve is disabled to add [{}] as group member directly", dn);
 
-                        memberMap.put(dn.toLowerCase(), dn);
+                        memberMap.put(LDAPCanonicalDN.canonicalize(dn), dn);
 
                         return false;
                     }
@@ -650,7 +1209,7 @@ public class XWikiLDAPUtils
         boolean isGroup = false;
 
         // break out if there is a loop of groups
-        if (subgroups != null && subgroups.contains(userOrGroupDN.toLowerCase())) {
+        if (subgroups != null && subgroups.contains(LDAPCanonicalDN.canonicalize(userOrGroupDN))) {
             LOGGER.debug("[{}] groups already resolved.", userOrGroupDN);
 
             return true;
@@ -695,6 +1254,9 @@ public class XWikiLDAPUtils
     {
         boolean isGroup = false;
 
+        // The entries matching a filter can change without any group being modified
+        untrack();
+
         PagedLDAPSearchResults result;
         try {
             result = searchGroupsMembersByFilter(filter);
@@ -778,107 +1340,475 @@ public class XWikiLDAPUtils
                                                List<String> subgroups, XWikiContext context)
     {
         boolean isGroup = false;
+        boolean empty = true;
+
+        for (LDAPEntry resultEntry : result) {
+            empty = false;
 
-        // For some weird reason result.hasMore() is always true before the first call to next() even if nothing is
-        // found
-        if (result.hasMore()) {
-            LDAPEntry resultEntry = null;
             try {
-                resultEntry = result.next();
+                isGroup |= getGroupMembers(memberMap, subgroups, resultEntry, context);
             } catch (LDAPException e) {
                 LOGGER.debug("Failed to get group members", e);
             }
+        }
+
+        if (empty) {
+            LOGGER.debug("The LDAP request returned no result");
+        }
+
+        return isGroup;
+    }
 
-            if (resultEntry != null) {
-                do {
-                    try {
-                        isGroup |= getGroupMembers(memberMap, subgroups, resultEntry, context);
+    /**
+     * Get group members from cache or update it from LDAP if it is not already cached.
+     *
+     * @param groupDN the name of the group.
+     * @param context the XWiki context.
+     * @return the members of the group (immutable, shared with the cache).
+     * @throws XWikiException error when getting the group cache.
+     */
+    public Map<String, String> getGroupMembers(String groupDN, XWikiContext context) throws XWikiException
+    {
+        Map<String, String> groupMembers = null;
+
+        Cache<Map<String, String>> cache;
+        try {
+            cache = getCaches().getGroupCache(this);
+
+            String cacheKey = getGroupCacheKey(groupDN);
+
+            synchronized (cache) {
+                groupMembers = cache.get(cacheKey);
+
+                if (groupMembers == null) {
+                    groupMembers = getUnchangedGroupMembers(cacheKey);
+
+                    if (groupMembers != null) {
+                        LOGGER.debug("Group [{}] did not change", groupDN);
+
+                        cache.set(cacheKey, groupMembers);
+                        getCaches().indexGroup(this, groupDN, groupMembers);
+                    } else {
+                        groupMembers = loadGroupMembers(groupDN, cacheKey, cache, context);
+                    }
+                } else {
+                    LOGGER.debug("Found cache entry for group [{}]", groupDN);
+                }
+            }
+        } catch (CacheException e) {
+            // rethrow the exception to stop group synchronization
+            // otherwise users will loose all mapped groups if there is a problem with the cache
+            throw new XWikiException("Unknown error with cache", e);
+        }
+
+        LOGGER.debug("Found group [{}] members [{}]", groupDN, groupMembers);
+
+        return groupMembers;
+    }
 
-                        resultEntry = result.hasMore() ? result.next() : null;
-                    } catch (LDAPException e) {
-                        LOGGER.debug("Failed to get group members", e);
+    private Map<String, String> loadGroupMembers(String groupDN, String cacheKey, Cache<Map<String, String>> cache,
+        XWikiContext context)
+    {
+        Map<String, String> groupMembers = null;
+
+        Map<String, String> members = new HashMap<>();
+
+        LOGGER.debug("Retrieving Members of the group [{}]", groupDN);
+
+        List<String> subgroups = new SubgroupList();
+        GroupExpansion groupExpansion = createGroupExpansion(getGroupExpansionPool(), isGroupCacheRefresh());
+        boolean isGroup = expandGroupMembers(groupDN, members, subgroups, groupExpansion, context);
+        Map<String, String> changes = groupExpansion.isTracked() ? groupExpansion.changes : null;
+
+        if (isGroup || !members.isEmpty()) {
+            groupMembers = getCaches().compactGroupMembers(this, members);
+            cache.set(cacheKey, groupMembers);
+            getCaches().indexGroup(this, groupDN, groupMembers);
+
+            if (isGroup && changes != null && !changes.isEmpty()) {
+                // Remember the version of the groups to be able to refresh the cache entry when it expires
+                getCaches().setGroupVersion(this, cacheKey, groupMembers, changes);
+            }
+        }
+
+        if (isGroup && LDAPCanonicalDN.isValid(groupDN)) {
+            // Remember if membership in this group can be checked without getting all its members (by comparing the DN
+            // of the member with the values of the member fields)
+            getCaches().setFlatGroup(this, groupDN, subgroups.size() == 1 && !groupExpansion.indirect);
+        }
+
+        return groupMembers;
+    }
+
+    /**
+     * @return true if the cached groups are checked for changes when they expire (see
+     *         {@link XWikiLDAPConfig#getCacheRefreshInterval()})
+     */
+    private boolean isGroupCacheRefresh()
+    {
+        return getConfiguration().getCacheRefreshInterval() > 0;
+    }
+
+    /**
+     * @return the attribute changed each time a group is modified
+     */
+    private String getGroupChangeAttribute()
+    {
+        String attribute = getConfiguration().getGroupChangeAttribute();
+
+        if (StringUtils.isEmpty(attribute)) {
+            attribute = getConnection().isActiveDirectory() ? AD_CHANGE_ATTRIBUTE : CHANGE_ATTRIBUTE;
+        }
+
+        return attribute;
+    }
+
+    /**
+     * @param cacheKey the key of the group in the cache
+     * @return the members of the group as last expanded if neither the group nor any of its nested groups changed
+     *         since, {@code null} otherwise
+     */
+    private Map<String, String> getUnchangedGroupMembers(String cacheKey)
+    {
+        if (isGroupCacheRefresh()) {
+            LDAPGroupsCache.GroupVersion version = getCaches().getGroupVersion(this, cacheKey);
+
+            if (version != null) {
+                try {
+                    if (isUnchanged(version.getChanges())) {
+                        return version.getMembers();
+                    }
+                } catch (LDAPException e) {
+                    LOGGER.debug("Failed to check if group [{}] changed", cacheKey, e);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Read the change attribute of the passed groups, by batches of pipelined reads.
+     *
+     * @param changes the value of the change attribute of each group when it was expanded
+     * @return true if none of the groups changed
+     * @throws LDAPException when failing to read a group (for example because it was deleted)
+     */
+    boolean isUnchanged(Map<String, String> changes) throws LDAPException
+    {
+        String changeAttribute = getGroupChangeAttribute();
+        String[] attrs = new String[] {changeAttribute};
+        int batchSize = Math.max(getConfiguration().getGroupMembersBatchSize(), 1);
+
+        List<Map.Entry<String, String>> groups = new ArrayList<>(changes.entrySet());
+        for (int i = 0; i < groups.size(); i += batchSize) {
+            List<Map.Entry<String, String>> batch = groups.subList(i, Math.min(groups.size(), i + batchSize));
+
+            List<LDAPSearchFuture> futures = new ArrayList<>(batch.size());
+            try {
+                for (Map.Entry<String, String> group : batch) {
+                    futures.add(getConnection().readAsync(group.getKey(), attrs));
+                }
+
+                for (int j = 0; j < batch.size(); ++j) {
+                    List<LDAPEntry> entries = futures.get(j).getEntries();
+                    LDAPAttribute attribute = entries.isEmpty() ? null : entries.get(0).getAttribute(changeAttribute);
+
+                    if (attribute == null || !batch.get(j).getValue().equals(attribute.getStringValue())) {
+                        LOGGER.debug("Group [{}] changed", batch.get(j).getKey());
+
+                        return false;
+                    }
+                }
+            } finally {
+                // Abandon the reads not needed anymore
+                for (LDAPSearchFuture future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the pool to use to expand the nested groups in parallel when the server allows it (see
+     *         {@code ldap_group_expansion_parallelism}), {@code null} to expand them sequentially
+     */
+    private ForkJoinPool getGroupExpansionPool()
+    {
+        if (isResolveSubgroups()) {
+            // The parallelism is the one of the server actually in use, which is not necessarily the first one listed
+            LDAPConnection ldapConnection = getConnection().getConnection();
+            if (ldapConnection != null) {
+                return getGroupExpansionPools().getPool(getConfiguration(), ldapConnection.getHost(),
+                    ldapConnection.getPort());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param pool the pool to use to expand the nested groups in parallel, {@code null} to expand them sequentially
+     * @param trackChanges true to remember the value of the change attribute of each expanded group
+     * @return the state of a new expansion of nested groups
+     */
+    private GroupExpansion createGroupExpansion(ForkJoinPool pool, boolean trackChanges)
+    {
+        // Read all the settings before forking since the tasks don't have access to the wiki configuration
+        return new GroupExpansion(pool, getConnection(),
+            pool != null ? getConfiguration().snapshot() : getConfiguration(),
+            isResolveSubgroups() ? getConfiguration().getGroupMembersBatchSize() : 0,
+            trackChanges ? getGroupChangeAttribute() : null);
+    }
+
+    /**
+     * @param groupDN the group to retrieve the members of
+     * @param memberMap the result: maps DN to member id.
+     * @param subgroups the result: all the subgroups identified.
+     * @param pool the pool to use to expand the nested groups in parallel, {@code null} to expand them sequentially
+     * @param context the XWiki context.
+     * @return whether the provided DN is actually a group or not.
+     */
+    boolean expandGroupMembers(String groupDN, Map<String, String> memberMap, List<String> subgroups,
+        ForkJoinPool pool, XWikiContext context)
+    {
+        return expandGroupMembers(groupDN, memberMap, subgroups, pool, null, context);
+    }
+
+    /**
+     * @param groupDN the group to retrieve the members of
+     * @param memberMap the result: maps DN to member id.
+     * @param subgroups the result: all the subgroups identified.
+     * @param pool the pool to use to expand the nested groups in parallel, {@code null} to expand them sequentially
+     * @param changes the result: the value of the change attribute of each expanded group, {@code null} to not track
+     *            the changes; left empty if the changes of the group can't be tracked
+     * @param context the XWiki context.
+     * @return whether the provided DN is actually a group or not.
+     */
+    boolean expandGroupMembers(String groupDN, Map<String, String> memberMap, List<String> subgroups,
+        ForkJoinPool pool, Map<String, String> changes, XWikiContext context)
+    {
+        if (pool == null && changes == null) {
+            return getGroupMembers(groupDN, memberMap, subgroups, context);
+        }
+
+        GroupExpansion groupExpansion = createGroupExpansion(pool, changes != null);
+        boolean isGroup = expandGroupMembers(groupDN, memberMap, subgroups, groupExpansion, context);
+
+        if (changes != null && groupExpansion.isTracked()) {
+            changes.putAll(groupExpansion.changes);
+        }
+
+        return isGroup;
+    }
+
+    /**
+     * @param groupDN the group to retrieve the members of
+     * @param memberMap the result: maps DN to member id.
+     * @param subgroups the result: all the subgroups identified.
+     * @param groupExpansion the state of the expansion
+     * @param context the XWiki context.
+     * @return whether the provided DN is actually a group or not.
+     */
+    private boolean expandGroupMembers(final String groupDN, Map<String, String> memberMap, List<String> subgroups,
+        GroupExpansion groupExpansion, XWikiContext context)
+    {
+        final XWikiLDAPUtils utils = new XWikiLDAPUtils(this, groupExpansion);
+
+        boolean isGroup;
+        if (groupExpansion.pool == null) {
+            isGroup = utils.getGroupMembers(groupDN, memberMap, subgroups, context);
+        } else {
+            final Map<String, String> members = new ConcurrentHashMap<>();
+            final List<String> concurrentSubgroups = Collections.synchronizedList(subgroups);
+
+            try {
+                isGroup = groupExpansion.pool.invoke(new RecursiveTask<Boolean>()
+                {
+                    @Override
+                    protected Boolean compute()
+                    {
+                        // The tasks run without XWiki context
+                        return utils.getWorker().getGroupMembers(groupDN, members, concurrentSubgroups, null);
+                    }
+                });
+            } finally {
+                for (XWikiLDAPUtils worker : groupExpansion.workers.values()) {
+                    if (worker.getConnection() != getConnection()) {
+                        worker.getConnection().close();
                     }
-                } while (resultEntry != null);
-            } else {
-                LOGGER.debug(
-                        "The LDAP request returned no result (hasMore() is true but first next() call returned nothing)");
+                }
             }
-        } else {
-            LOGGER.debug("The LDAP request returned no result (hasMore is false)");
+
+            memberMap.putAll(members);
         }
 
         return isGroup;
     }
 
+    private LDAPGroupExpansionPools getGroupExpansionPools()
+    {
+        return Utils.getComponent(LDAPGroupExpansionPools.class);
+    }
+
     /**
-     * Get group members from cache or update it from LDAP if it is not already cached.
+     * @param groupDN the group DN, filter or id
+     * @return the key of the group in the cache, so that DNs with a different case or spacing share the same entry
+     */
+    private String getGroupCacheKey(String groupDN)
+    {
+        LDAPCanonicalDN canonicalDN = LDAPCanonicalDN.valueOf(groupDN);
+
+        return canonicalDN != null ? canonicalDN.toString() : groupDN;
+    }
+
+    /**
+     * Check if provided DN is in provided LDAP group.
      *
-     * @param groupDN the name of the group.
+     * @param memberDN the DN to find in the provided group.
+     * @param groupDN the DN of the group where to search.
      * @param context the XWiki context.
-     * @return the members of the group.
-     * @throws XWikiException error when getting the group cache.
+     * @return true if provided members in the provided group.
+     * @throws XWikiException error when searching for group members.
      */
-    public Map<String, String> getGroupMembers(String groupDN, XWikiContext context) throws XWikiException
+    public boolean isMemberOfGroup(String memberDN, String groupDN, XWikiContext context) throws XWikiException
     {
-        Map<String, String> groupMembers = null;
+        if (isInChainMembershipCheck(groupDN)) {
+            try {
+                boolean member =
+                    searchInChainMember(memberDN, LDAPConnection.SCOPE_BASE, "(objectClass=*)", groupDN) != null;
 
-        Cache<Map<String, String>> cache;
-        try {
-            cache = getCaches().getGroupCache(this);
+                // The members of entries which are not groups (organization units, etc.) are only found by expanding
+                if (member || isGroupEntry(groupDN)) {
+                    return member;
+                }
+            } catch (LDAPException e) {
+                LOGGER.debug("Failed to check if [{}] is a member of [{}] with the in-chain matching rule", memberDN,
+                    groupDN, e);
+            }
+        }
 
-            synchronized (cache) {
-                groupMembers = cache.get(groupDN);
+        if (isFlatGroupNotCached(groupDN)) {
+            try {
+                return isDirectMember(memberDN, groupDN);
+            } catch (LDAPException e) {
+                LOGGER.debug("Failed to compare [{}] with the members of [{}]", memberDN, groupDN, e);
+            }
+        }
 
-                if (groupMembers == null) {
-                    Map<String, String> members = new HashMap<>();
+        Map<String, String> groupMembers = getGroupMembers(groupDN, context);
+
+        return groupMembers != null && groupMembers.containsKey(LDAPCanonicalDN.canonicalize(memberDN));
+    }
 
-                    LOGGER.debug("Retrieving Members of the group [{}]", groupDN);
+    /**
+     * Find the groups containing the provided DN among the provided LDAP groups. The groups already in the cache are
+     * found with a single lookup in the index of their members, the other ones are checked (and cached) one by one.
+     *
+     * @param memberDN the DN to find in the provided groups
+     * @param groupDNs the DNs of the groups where to search
+     * @param context the XWiki context
+     * @return the canonical DNs of the groups containing the member, possibly including other cached groups than the
+     *         provided ones
+     * @throws XWikiException error when searching for group members
+     * @since 9.5.7
+     */
+    public Set<String> getMemberGroups(String memberDN, Collection<String> groupDNs, XWikiContext context)
+        throws XWikiException
+    {
+        Set<String> memberGroups = getCaches().getMemberGroups(this, LDAPCanonicalDN.canonicalize(memberDN));
 
-                    boolean isGroup = getGroupMembers(groupDN, members, new ArrayList<String>(), context);
+        for (String groupDN : groupDNs) {
+            if (!isIndexedGroup(groupDN)) {
+                String canonicalGroupDN = LDAPCanonicalDN.canonicalize(groupDN);
 
-                    if (isGroup || !members.isEmpty()) {
-                        groupMembers = members;
-                        cache.set(groupDN, groupMembers);
-                    }
+                if (isMemberOfGroup(memberDN, groupDN, context)) {
+                    memberGroups.add(canonicalGroupDN);
                 } else {
-                    LOGGER.debug("Found cache entry for group [{}]", groupDN);
+                    memberGroups.remove(canonicalGroupDN);
                 }
             }
+        }
+
+        return memberGroups;
+    }
+
+    /**
+     * @param groupDN the DN of the group
+     * @return true if the members of the group are indexed and still in the cache
+     * @throws XWikiException error when getting the group cache
+     */
+    private boolean isIndexedGroup(String groupDN) throws XWikiException
+    {
+        if (!getCaches().isIndexedGroup(this, groupDN)) {
+            return false;
+        }
+
+        try {
+            // Don't trust the index of an entry which expired but was not removed from the index yet
+            return getCaches().getGroupCache(this).get(getGroupCacheKey(groupDN)) != null;
         } catch (CacheException e) {
-            // rethrow the exception to stop group synchronization
-            // otherwise users will loose all mapped groups if there is a problem with the cache
             throw new XWikiException("Unknown error with cache", e);
         }
+    }
 
-        LOGGER.debug("Found group [{}] members [{}]", groupDN, groupMembers);
+    /**
+     * @param groupDN the DN of the group
+     * @return true if the group is known to not contain any nested group and its members are not already cached
+     */
+    private boolean isFlatGroupNotCached(String groupDN)
+    {
+        try {
+            return getCaches().isFlatGroup(this, groupDN)
+                && getCaches().getGroupCache(this).get(getGroupCacheKey(groupDN)) == null;
+        } catch (CacheException e) {
+            LOGGER.debug("Failed to get the groups cache", e);
 
-        return groupMembers;
+            return false;
+        }
     }
 
     /**
-     * Check if provided DN is in provided LDAP group.
+     * Check if the passed DN is listed in the members of the passed group, using compare operations instead of getting
+     * all the members of the group. Nested groups are not taken into account.
      *
-     * @param memberDN the DN to find in the provided group.
-     * @param groupDN the DN of the group where to search.
-     * @param context the XWiki context.
-     * @return true if provided members in the provided group.
-     * @throws XWikiException error when searching for group members.
+     * @param memberDN the DN of the member
+     * @param groupDN the DN of the group
+     * @return true if the group directly contains the member
+     * @throws LDAPException when failing to compare
      */
-    public boolean isMemberOfGroup(String memberDN, String groupDN, XWikiContext context) throws XWikiException
+    boolean isDirectMember(String memberDN, String groupDN) throws LDAPException
     {
-        Map<String, String> groupMembers = getGroupMembers(groupDN, context);
-
-        if (groupMembers != null) {
-            for (String memberDNEntry : groupMembers.keySet()) {
-                if (memberDNEntry.equals(memberDN.toLowerCase())) {
-                    return true;
-                }
+        for (String memberField : getGroupMemberFields()) {
+            // Some member fields (like memberUid) contain the uid of the members instead of their DN, the groups using
+            // them are never flat since their members are resolved through a search
+            if (!UID_MEMBER_FIELDS.contains(memberField.toLowerCase())
+                && compareMember(groupDN, memberField, memberDN)) {
+                return true;
             }
         }
 
         return false;
     }
 
+    private boolean compareMember(String groupDN, String memberField, String value) throws LDAPException
+    {
+        try {
+            return getConnection().compare(groupDN, new LDAPAttribute(memberField, value));
+        } catch (LDAPException e) {
+            if (e.getResultCode() == LDAPException.INVALID_ATTRIBUTE_SYNTAX) {
+                // The value cannot be a member listed in this field
+                LOGGER.debug("Failed to compare [{}] with the values of [{}] in [{}]", value, memberField, groupDN, e);
+
+                return false;
+            }
+
+            throw e;
+        }
+    }
+
     /**
      * Check if provided DN is in one of the provided LDAP groups.
      *
@@ -946,6 +1876,11 @@ public class XWikiLDAPUtils
      */
     protected String findUidInGroup(String userName, Map<String, String> groupMembers)
     {
+        if (groupMembers instanceof LDAPGroupMembers) {
+            // Cached groups are indexed by uid
+            return ((LDAPGroupMembers) groupMembers).getMemberByUid(userName);
+        }
+
         Pattern ldapuserPattern = Pattern
                 .compile("^" + Pattern.quote(getUidAttributeName()) + "=" + Pattern.quote(userName.toLowerCase()) + " *,");
         LOGGER.debug("AXWIKI-findUidInGroup!:" + userName+ " gm: "  + groupMembers);
@@ -969,7 +1904,7 @@ public class XWikiLDAPUtils
     protected String findDNInGroup(String userDN, Map<String, String> groupMembers)
     {
         LOGGER.debug("AXWIKI-findDNInGroup:" + userDN+ " gm: "  + groupMembers);
-        if (groupMembers.containsKey(userDN.toLowerCase())) {
+        if (groupMembers.containsKey(LDAPCanonicalDN.canonicalize(userDN))) {
             return userDN;
         }
 
@@ -989,15 +1924,28 @@ public class XWikiLDAPUtils
     public String isInGroup(String uid, String dn, String groupDN, XWikiContext context) throws XWikiException
     {
         LOGGER.debug("AXWIKI-isingroup:uid:" + uid+ " dn: "  + dn);
-        dn =  dn.replaceAll("\\\\", "");
         String userDN = null;
 
         if (groupDN.length() > 0) {
+            if (isInChainMembershipCheck(groupDN)) {
+                try {
+                    userDN = isInGroupInChain(uid, dn, groupDN);
+
+                    // The members of entries which are not groups (organization units, etc.) are only found by
+                    // expanding them
+                    if (userDN != null || isGroupEntry(groupDN)) {
+                        return userDN;
+                    }
+                } catch (LDAPException e) {
+                    LOGGER.debug("Failed to check if [{}] is a member of [{}] with the in-chain matching rule",
+                        dn != null ? dn : uid, groupDN, e);
+                }
+            }
+
             Map<String, String> groupMembers = null;
 
             try {
                 groupMembers = getGroupMembers(groupDN, context);
-                System.out.println("AXWIKI-isingroup2:"+ groupMembers);
             } catch (Exception e) {
                 // Ignore exception to allow negative match for exclusion
                 LOGGER.debug("Unable to retrieve group members of group [{}]", groupDN, e);
@@ -1019,6 +1967,107 @@ public class XWikiLDAPUtils
         return userDN;
     }
 
+    /**
+     * @return true if the membership of a user should be checked by asking the server instead of expanding the group
+     */
+    private boolean isInChainMembershipCheck()
+    {
+        // The in-chain matching rule always goes through nested groups
+        if (!isResolveSubgroups()) {
+            return false;
+        }
+
+        String membershipCheck = getConfiguration().getMembershipCheck();
+
+        if (MEMBERSHIP_CHECK_INCHAIN.equals(membershipCheck)) {
+            return true;
+        } else if (MEMBERSHIP_CHECK_AUTO.equals(membershipCheck)) {
+            return getConnection().isActiveDirectory();
+        }
+
+        return false;
+    }
+
+    /**
+     * @param groupDN the group DN, filter or id
+     * @return true if the membership of a user to the passed group should be checked by asking the server instead of
+     *         expanding the group
+     */
+    private boolean isInChainMembershipCheck(String groupDN)
+    {
+        // Only a group DN can be matched with the in-chain matching rule, filters and ids are expanded
+        return LDAPCanonicalDN.isValid(groupDN) && isInChainMembershipCheck();
+    }
+
+    /**
+     * @param groupDN the DN of the entry
+     * @return true if the entry is a group, whose members are all found by the in-chain matching rule
+     * @throws LDAPException when failing to read the entry
+     */
+    private boolean isGroupEntry(String groupDN) throws LDAPException
+    {
+        List<LDAPEntry> entries = getConnection().readAsync(groupDN, new String[] {LDAP_OBJECTCLASS}).getEntries();
+
+        if (!entries.isEmpty()) {
+            LDAPAttribute attribute = entries.get(0).getAttribute(LDAP_OBJECTCLASS);
+
+            if (attribute != null) {
+                for (String objectClass : attribute.getStringValueArray()) {
+                    if (getGroupClasses().contains(objectClass.toLowerCase())) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private String isInGroupInChain(String uid, String dn, String groupDN) throws LDAPException
+    {
+        if (dn != null) {
+            return searchInChainMember(dn, LDAPConnection.SCOPE_BASE, "(objectClass=*)", groupDN) != null ? dn : null;
+        }
+
+        String filter = MessageFormat.format(this.userSearchFormatString,
+            XWikiLDAPConnection.escapeLDAPSearchFilter(this.uidAttributeName),
+            XWikiLDAPConnection.escapeLDAPSearchFilter(uid));
+
+        String userDN = searchInChainMember(getBaseDN(), LDAPConnection.SCOPE_SUB, filter, groupDN);
+
+        return userDN != null ? LDAPCanonicalDN.canonicalize(userDN) : null;
+    }
+
+    /**
+     * Ask the server for the entries matching the passed filter which are members of the passed group, directly or
+     * through nested groups, using the Active Directory {@code LDAP_MATCHING_RULE_IN_CHAIN}.
+     *
+     * @param base the DN from where to search
+     * @param scope the scope of the search
+     * @param filter the filter the members should match
+     * @param groupDN the DN of the group
+     * @return the DN of the first matching member, {@code null} if none matched
+     * @throws LDAPException when the server failed to answer
+     */
+    private String searchInChainMember(String base, int scope, String filter, String groupDN) throws LDAPException
+    {
+        String inChainFilter = "(&" + filter + "(memberOf:" + MATCHING_RULE_IN_CHAIN + ":="
+            + XWikiLDAPConnection.escapeLDAPSearchFilter(groupDN) + "))";
+
+        try {
+            List<LDAPEntry> entries = getConnection()
+                .searchAsync(base, inChainFilter, new String[] {LDAPConnection.NO_ATTRS}, scope).getEntries();
+
+            return entries.isEmpty() ? null : entries.get(0).getDN();
+        } catch (LDAPException e) {
+            if (e.getResultCode() == LDAPException.NO_SUCH_OBJECT) {
+                return null;
+            }
+
+            throw e;
+        }
+    }
+
     /**
      * Check if user is in provided LDAP group and return source DN.
      *
@@ -1172,6 +2221,111 @@ public class XWikiLDAPUtils
      */
     public void syncGroupsMembership(String xwikiUserName, String userDN, Map<String, Set<String>> groupMappings,
                                      XWikiContext context) throws XWikiException
+    {
+        syncGroupsMembership(xwikiUserName, userDN, groupMappings, getUserGroups(), context);
+    }
+
+    /**
+     * Extract the groups of a user from its attributes.
+     *
+     * @param attributes the attributes of the user, as returned by a search for {@link #getAttributeNameTable}
+     * @return the canonical DNs of the groups listed in the attribute configured with
+     *         {@code ldap_user_groups_attribute}, {@code null} if it's not configured or the attributes are unknown
+     * @since 9.5.7
+     */
+    public Set<String> getUserGroups(List<XWikiLDAPSearchAttribute> attributes)
+    {
+        String groupsAttribute = this.configuration.getUserGroupsAttribute();
+
+        if (attributes == null || StringUtils.isEmpty(groupsAttribute)) {
+            return null;
+        }
+
+        Set<String> groups = new HashSet<>();
+        for (XWikiLDAPSearchAttribute attribute : attributes) {
+            if (groupsAttribute.equalsIgnoreCase(attribute.name) && attribute.value != null) {
+                groups.add(LDAPCanonicalDN.canonicalize(attribute.value));
+            }
+        }
+
+        LOGGER.debug("User groups: {}", groups);
+
+        return groups;
+    }
+
+    /**
+     * Check if provided DN is in one of the provided LDAP groups, knowing the groups which directly contain it. Those
+     * groups don't tell if a filter or a uid matches the member or if the member is in a group through a nested group,
+     * so the other groups are searched as usual.
+     *
+     * @param memberDN the DN to find in the provided groups
+     * @param groupDNList the list of DN of the groups where to search
+     * @param userGroups the canonical DNs of the LDAP groups directly containing the member (see
+     *            {@link #getUserGroups(List)})
+     * @param context the XWiki context
+     * @return true if provided members in one of the provided groups
+     * @throws XWikiException error when searching for group members
+     */
+    boolean isMemberOfGroups(String memberDN, Collection<String> groupDNList, Set<String> userGroups,
+        XWikiContext context) throws XWikiException
+    {
+        List<String> otherGroupDNs = new ArrayList<>();
+
+        for (String groupDN : groupDNList) {
+            if (LDAPCanonicalDN.isValid(groupDN)) {
+                if (userGroups.contains(LDAPCanonicalDN.canonicalize(groupDN))) {
+                    return true;
+                }
+
+                // The member can only be in a group with nested groups (or in an organization unit) through them
+                if (getCaches().isFlatGroup(this, groupDN)) {
+                    continue;
+                }
+            }
+
+            otherGroupDNs.add(groupDN);
+        }
+
+        return isMemberOfGroups(memberDN, otherGroupDNs, context);
+    }
+
+    private boolean isMemberOfGroups(Collection<String> groupDNList, Set<String> memberGroups)
+    {
+        for (String groupDN : groupDNList) {
+            if (memberGroups.contains(LDAPCanonicalDN.canonicalize(groupDN))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isMemberOfGroups(String memberDN, Collection<String> groupDNList, Set<String> memberGroups,
+        Set<String> userGroups, XWikiContext context) throws XWikiException
+    {
+        if (memberGroups != null) {
+            return isMemberOfGroups(groupDNList, memberGroups);
+        } else if (userGroups != null) {
+            return isMemberOfGroups(memberDN, groupDNList, userGroups, context);
+        }
+
+        return isMemberOfGroups(memberDN, groupDNList, context);
+    }
+
+    /**
+     * Synchronize user XWiki membership with it's LDAP membership.
+     *
+     * @param xwikiUserName the name of the user.
+     * @param userDN the LDAP DN of the user.
+     * @param groupMappings the mapping between XWiki groups names and LDAP groups names.
+     * @param userGroups the canonical DNs of the LDAP groups of the user (see {@link #getUserGroups(List)}),
+     *            {@code null} to search the user in each mapped group
+     * @param context the XWiki context.
+     * @throws XWikiException error when synchronizing user membership.
+     * @since 9.5.7
+     */
+    public void syncGroupsMembership(String xwikiUserName, String userDN, Map<String, Set<String>> groupMappings,
+        Set<String> userGroups, XWikiContext context) throws XWikiException
     {
         LOGGER.debug("Updating group membership for the user [{}]", xwikiUserName);
 
@@ -1185,17 +2339,28 @@ public class XWikiLDAPUtils
             }
         }
 
+        // The groups containing the user among all the mapped groups
+        Set<String> memberGroups = null;
+        if (userGroups == null && !isInChainMembershipCheck()) {
+            // Locate the user in all the mapped groups at once
+            Set<String> groupDNs = new HashSet<>();
+            for (Set<String> groupDNSet : groupMappings.values()) {
+                groupDNs.addAll(groupDNSet);
+            }
+            memberGroups = getMemberGroups(userDN, groupDNs, context);
+        }
+
         // go through mapped groups to locate the user
         for (Map.Entry<String, Set<String>> entry : groupMappings.entrySet()) {
             String xwikiGroupName = entry.getKey();
             Set<String> groupDNSet = entry.getValue();
 
             if (xwikiUserGroupList.contains(xwikiGroupName)) {
-                if (!this.isMemberOfGroups(userDN, groupDNSet, context)) {
+                if (!this.isMemberOfGroups(userDN, groupDNSet, memberGroups, userGroups, context)) {
                     removeUserFromXWikiGroup(xwikiUserName, xwikiGroupName, context);
                 }
             } else {
-                if (this.isMemberOfGroups(userDN, groupDNSet, context)) {
+                if (this.isMemberOfGroups(userDN, groupDNSet, memberGroups, userGroups, context)) {
                     addUserToXWikiGroup(xwikiUserName, xwikiGroupName, context);
                 }
             }
@@ -1229,6 +2394,16 @@ public class XWikiLDAPUtils
             LOGGER.debug("LDAP avatar photo synchronisation is disabled");
         }
 
+        // Get the groups of the user with the user so that they don't have to be expanded
+        String groupsAttribute = this.configuration.getUserGroupsAttribute();
+        if (StringUtils.isNotEmpty(groupsAttribute)) {
+            if (attributeNameList.isEmpty()) {
+                // Still get all the user attributes
+                attributeNameList.add(LDAPConnection.ALL_USER_ATTRS);
+            }
+            attributeNameList.add(groupsAttribute);
+        }
+
         int lsize = attributeNameList.size();
         if (lsize > 0) {
             attributeNameTable = attributeNameList.toArray(new String[lsize]);
@@ -1258,9 +2433,16 @@ public class XWikiLDAPUtils
 
         Map<String, Object> map = new HashMap<>();
         if (searchAttributes != null) {
+            String previousName = null;
+            String xattr = null;
             for (XWikiLDAPSearchAttribute lattr : searchAttributes) {
                 String lval = lattr.value;
-                String xattr = userMappings.get(lattr.name.toLowerCase());
+
+                // The values of a multi-valued attribute follow each other
+                if (!lattr.name.equals(previousName)) {
+                    previousName = lattr.name;
+                    xattr = userMappings.get(lattr.name.toLowerCase());
+                }
 
                 if (xattr == null) {
                     continue;
@@ -1733,18 +2915,9 @@ public class XWikiLDAPUtils
     {
         String userPageName = getConfiguration().getLDAPParam("ldap_userPageName", "${uid}");
 
-        Map<String, String> valueMap = new HashMap<>(getConfiguration().getMemoryConfiguration());
-        if (attributes != null) {
-            for (XWikiLDAPSearchAttribute attribute : attributes) {
-                putVariable(valueMap, "ldap." + attribute.name, attribute.value);
-                if (attribute.name.equals(this.uidAttributeName)) {
-                    // Override the default uid value with the real one coming from LDAP
-                    putVariable(valueMap, "uid", attribute.value);
-                }
-            }
-        }
-
-        String pageName = StrSubstitutor.replace(userPageName, valueMap);
+        // Only compute the variables actually used in the page name
+        StrSubstitutor substitutor = new StrSubstitutor(new UserPageNameLookup(attributes));
+        String pageName = substitutor.replace(userPageName);
 
         // Do the minimal needed cleanup anyway, even if it is not requested in the userPageName property.
         pageName = cleanXWikiUserPageName(pageName);
@@ -1754,18 +2927,86 @@ public class XWikiLDAPUtils
         return pageName;
     }
 
-    private void putVariable(Map<String, String> map, String key, String value)
+    /**
+     * Resolve the variables of the user page name pattern from the LDAP attributes of the user and the memory
+     * configuration. Each variable can be suffixed with {@code ._clean}, {@code ._lowerCase} and {@code ._upperCase}.
+     *
+     * @version $Id$
+     */
+    private final class UserPageNameLookup extends StrLookup<String>
     {
-        if (value != null) {
-            map.put(key, value);
+        private static final String LOWERCASE_SUFFIX = "._lowerCase";
+
+        private static final String UPPERCASE_SUFFIX = "._upperCase";
+
+        private static final String CLEAN_SUFFIX = "._clean";
+
+        private static final String LDAP_PREFIX = "ldap.";
+
+        private final List<XWikiLDAPSearchAttribute> attributes;
+
+        UserPageNameLookup(List<XWikiLDAPSearchAttribute> attributes)
+        {
+            this.attributes = attributes;
+        }
+
+        @Override
+        public String lookup(String key)
+        {
+            String name = key;
+
+            boolean lowerCase = name.endsWith(LOWERCASE_SUFFIX);
+            boolean upperCase = name.endsWith(UPPERCASE_SUFFIX);
+            if (lowerCase || upperCase) {
+                name = name.substring(0, name.length() - LOWERCASE_SUFFIX.length());
+            }
 
-            map.put(key + "._lowerCase", value.toLowerCase());
-            map.put(key + "._upperCase", value.toUpperCase());
+            boolean clean = name.endsWith(CLEAN_SUFFIX);
+            if (clean) {
+                name = name.substring(0, name.length() - CLEAN_SUFFIX.length());
+            }
+
+            String value = getAttributeValue(name);
+
+            if (value == null) {
+                return getConfiguration().getMemoryConfiguration().get(key);
+            }
+
+            if (clean) {
+                value = clean(value);
+            }
+            if (lowerCase) {
+                value = value.toLowerCase();
+            } else if (upperCase) {
+                value = value.toUpperCase();
+            }
+
+            return value;
+        }
+
+        private String getAttributeValue(String name)
+        {
+            String attributeName;
+            if (name.equals("uid")) {
+                // The real uid coming from LDAP overrides the default uid value
+                attributeName = getUidAttributeName();
+            } else if (name.startsWith(LDAP_PREFIX)) {
+                attributeName = name.substring(LDAP_PREFIX.length());
+            } else {
+                return null;
+            }
+
+            String value = null;
+            if (this.attributes != null) {
+                // The last value wins for multi-valued attributes
+                for (XWikiLDAPSearchAttribute attribute : this.attributes) {
+                    if (attribute.value != null && attribute.name.equals(attributeName)) {
+                        value = attribute.value;
+                    }
+                }
+            }
 
-            String cleanValue = clean(value);
-            map.put(key + "._clean", cleanValue);
-            map.put(key + "._clean._lowerCase", cleanValue.toLowerCase());
-            map.put(key + "._clean._upperCase", cleanValue.toUpperCase());
+            return value;
         }
     }
 
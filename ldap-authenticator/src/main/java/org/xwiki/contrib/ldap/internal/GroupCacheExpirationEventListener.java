@@ -40,7 +40,8 @@ import com.xpn.xwiki.internal.event.XObjectPropertyDeletedEvent;
 import com.xpn.xwiki.internal.event.XObjectPropertyUpdatedEvent;
 
 /**
- * Event listener to reset group cache when the ldap_groupcache_expiration property is updated.
+ * Event listener to reset group cache when the ldap_groupcache_expiration or ldap_groupcache_refresh property is
+ * updated.
  *
  * @version $Id$
  * @since 9.3.7
@@ -69,11 +70,21 @@ public class GroupCacheExpirationEventListener extends AbstractEventListener
     private static final PartialEntityReference PROPERTY_MATCHER =
         new PartialEntityReference("ldap_groupcache_expiration", EntityType.OBJECT_PROPERTY, OBJECT_MATCHER);
 
+    /**
+     * An entity reference to match only the ldap_groupcache_refresh property reference from any
+     * XWiki.XWikiPreferences object (it also impacts the lifespan of the cache entries).
+     */
+    private static final PartialEntityReference REFRESH_PROPERTY_MATCHER =
+        new PartialEntityReference("ldap_groupcache_refresh", EntityType.OBJECT_PROPERTY, OBJECT_MATCHER);
+
     /**
      * The events to listen to in order to trigger the group cache reset.
      */
     private static final List<Event> EVENTS = Arrays.<Event>asList(new XObjectPropertyAddedEvent(PROPERTY_MATCHER),
-        new XObjectPropertyDeletedEvent(PROPERTY_MATCHER), new XObjectPropertyUpdatedEvent(PROPERTY_MATCHER));
+        new XObjectPropertyDeletedEvent(PROPERTY_MATCHER), new XObjectPropertyUpdatedEvent(PROPERTY_MATCHER),
+        new XObjectPropertyAddedEvent(REFRESH_PROPERTY_MATCHER),
+        new XObjectPropertyDeletedEvent(REFRESH_PROPERTY_MATCHER),
+        new XObjectPropertyUpdatedEvent(REFRESH_PROPERTY_MATCHER));
 
     @Inject
     private LDAPGroupsCache caches;
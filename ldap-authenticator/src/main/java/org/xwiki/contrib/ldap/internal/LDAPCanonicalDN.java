@@ -0,0 +1,326 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.novell.ldap.LDAPDN;
+
+/**
+ * A DN in its canonical form: lower cased, without the spaces around the separators, with {@code ,} as RDN separator
+ * and with the same escaping for all the values ({@code \2C} and {@code \,} become {@code \,}, {@code \C3\A9}
+ * becomes {@code é}, etc.). Two DNs designating the same entry with a different case, spacing or escaping have the
+ * same canonical form.
+ * <p>
+ * Parsing and normalizing DNs is costly compared to the lookups they are used for so the result is kept in a bounded
+ * LRU cache, which also makes sure the same canonical DN instance is shared by the structures referencing it.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+public final class LDAPCanonicalDN
+{
+    /**
+     * A part of the cache, evicting its least recently used strings when full.
+     *
+     * @version $Id$
+     */
+    private static final class Segment extends LinkedHashMap<String, LDAPCanonicalDN>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity)
+        {
+            super(16, 0.75f, true);
+
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LDAPCanonicalDN> eldest)
+        {
+            return size() > this.capacity;
+        }
+    }
+
+    /**
+     * The maximum number of strings kept in the cache.
+     */
+    private static final int CACHE_SIZE = 100000;
+
+    /**
+     * The number of independently locked parts of the cache.
+     */
+    private static final int CACHE_SEGMENTS = 16;
+
+    /**
+     * Cache the fact that a string is not a DN.
+     */
+    private static final LDAPCanonicalDN INVALID = new LDAPCanonicalDN(null);
+
+    private static final Segment[] CACHE = new Segment[CACHE_SEGMENTS];
+
+    /**
+     * The characters which are always escaped with a backslash in the canonical form, any other escaped character
+     * being unescaped.
+     */
+    private static final String ESCAPED_CHARACTERS = ",+\"\\<>;=# ";
+
+    static {
+        for (int i = 0; i < CACHE.length; ++i) {
+            CACHE[i] = new Segment(CACHE_SIZE / CACHE_SEGMENTS);
+        }
+    }
+
+    private final String value;
+
+    private LDAPCanonicalDN(String value)
+    {
+        this.value = value;
+    }
+
+    /**
+     * @param dn the DN
+     * @return the canonical DN, {@code null} if the passed string is not a valid DN
+     */
+    public static LDAPCanonicalDN valueOf(String dn)
+    {
+        if (dn == null) {
+            return null;
+        }
+
+        LDAPCanonicalDN canonicalDN = getCached(dn);
+
+        if (canonicalDN == null) {
+            if (LDAPDN.isValid(dn)) {
+                String value = normalize(dn);
+
+                // Share the instance of DNs already in canonical form
+                canonicalDN = value.equals(dn) ? null : getCached(value);
+                if (canonicalDN == null) {
+                    canonicalDN = new LDAPCanonicalDN(value);
+                    cache(value, canonicalDN);
+                }
+            } else {
+                canonicalDN = INVALID;
+            }
+
+            cache(dn, canonicalDN);
+        }
+
+        return canonicalDN != INVALID ? canonicalDN : null;
+    }
+
+    private static Segment getSegment(String dn)
+    {
+        int hash = dn.hashCode();
+
+        return CACHE[(hash ^ (hash >>> 16)) & (CACHE_SEGMENTS - 1)];
+    }
+
+    private static LDAPCanonicalDN getCached(String dn)
+    {
+        Segment segment = getSegment(dn);
+
+        synchronized (segment) {
+            return segment.get(dn);
+        }
+    }
+
+    private static void cache(String dn, LDAPCanonicalDN canonicalDN)
+    {
+        Segment segment = getSegment(dn);
+
+        synchronized (segment) {
+            segment.put(dn, canonicalDN);
+        }
+    }
+
+    /**
+     * @return the number of strings currently in the cache
+     */
+    static int getCacheSize()
+    {
+        int size = 0;
+
+        for (Segment segment : CACHE) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * @param dn the string to check
+     * @return true if the passed string is a valid DN
+     */
+    public static boolean isValid(String dn)
+    {
+        return valueOf(dn) != null;
+    }
+
+    /**
+     * @param dn a DN or any other group or member identifier (uid, filter, etc.)
+     * @return the canonical form of the passed DN, or the passed string lower cased if it's not a DN
+     */
+    public static String canonicalize(String dn)
+    {
+        LDAPCanonicalDN canonicalDN = valueOf(dn);
+
+        return canonicalDN != null ? canonicalDN.value : dn.toLowerCase();
+    }
+
+    /**
+     * Empty the cache.
+     */
+    public static void clearCache()
+    {
+        for (Segment segment : CACHE) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @param dn a valid DN
+     * @return the canonical form of the DN
+     */
+    static String normalize(String dn)
+    {
+        StringBuilder builder = new StringBuilder(dn.length());
+
+        boolean escaped = false;
+        boolean quoted = false;
+        // Spaces are removed at the beginning of each attribute type and value
+        boolean leading = true;
+        // The length to keep when reaching a separator, to remove the trailing spaces
+        int length = 0;
+
+        for (int i = 0; i < dn.length(); ++i) {
+            char c = dn.charAt(i);
+
+            if (escaped) {
+                builder.append(c);
+                length = builder.length();
+                escaped = false;
+            } else if (quoted) {
+                builder.append(c);
+                length = builder.length();
+                escaped = c == '\\';
+                quoted = c != '"';
+            } else if (c == '\\') {
+                i = appendEscaped(dn, i, builder);
+                length = builder.length();
+                leading = false;
+            } else if (c == ',' || c == ';' || c == '+' || c == '=') {
+                builder.setLength(length);
+                builder.append(c == ';' ? ',' : c);
+                length = builder.length();
+                leading = true;
+            } else if (c != ' ' || !leading) {
+                builder.append(c);
+                if (c != ' ') {
+                    length = builder.length();
+                    leading = false;
+                    quoted = c == '"';
+                }
+            }
+        }
+
+        builder.setLength(length);
+
+        return builder.toString().toLowerCase();
+    }
+
+    /**
+     * Append the escaped characters starting at the passed backslash in their canonical form.
+     *
+     * @param dn the DN
+     * @param start the index of the backslash
+     * @param builder the canonical DN being built
+     * @return the index of the last character of the escaped sequence
+     */
+    private static int appendEscaped(String dn, int start, StringBuilder builder)
+    {
+        // Consecutive hex pairs are the UTF-8 bytes of the escaped characters
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int i = start;
+        while (i + 2 < dn.length() && dn.charAt(i) == '\\' && Character.digit(dn.charAt(i + 1), 16) >= 0
+            && Character.digit(dn.charAt(i + 2), 16) >= 0) {
+            bytes.write(Character.digit(dn.charAt(i + 1), 16) << 4 | Character.digit(dn.charAt(i + 2), 16));
+            i += 3;
+        }
+
+        String value;
+        if (bytes.size() > 0) {
+            try {
+                value = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes.toByteArray())).toString();
+            } catch (CharacterCodingException e) {
+                // Not text, keep the hex pairs
+                builder.append(dn, start, i);
+
+                return i - 1;
+            }
+            --i;
+        } else {
+            // A valid DN never ends with a single backslash
+            i = start + 1;
+            value = String.valueOf(dn.charAt(i));
+        }
+
+        for (int j = 0; j < value.length(); ++j) {
+            char c = value.charAt(j);
+            if (ESCAPED_CHARACTERS.indexOf(c) >= 0) {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+
+        return i;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        return obj == this || (obj instanceof LDAPCanonicalDN && this.value.equals(((LDAPCanonicalDN) obj).value));
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.value.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.value;
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import com.novell.ldap.LDAPException;
+
+/**
+ * Stop sending requests to a directory which keeps failing so that the threads don't pile up waiting for timeouts.
+ * <p>
+ * Each server has its own circuit so that a failing server does not prevent using the other servers of the
+ * {@code ldap_server} list.
+ * <p>
+ * The circuit opens when the rate of failures in the last calls exceeds a threshold. While open, all calls fail
+ * immediately. After a delay a few trial calls are allowed (half open): the circuit closes if they all succeed and
+ * opens again as soon as one fails.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+@Component(roles = LDAPCircuitBreaker.class)
+@Singleton
+public class LDAPCircuitBreaker
+{
+    /**
+     * The state of a circuit.
+     *
+     * @version $Id$
+     */
+    public enum State
+    {
+        /**
+         * Calls go through.
+         */
+        CLOSED,
+
+        /**
+         * Calls fail immediately.
+         */
+        OPEN,
+
+        /**
+         * A limited number of trial calls go through.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * The circuit associated to a directory.
+     *
+     * @version $Id$
+     */
+    static final class Circuit
+    {
+        private final String key;
+
+        private State state = State.CLOSED;
+
+        /**
+         * The outcome of the last calls (true for a failure).
+         */
+        private boolean[] window = new boolean[0];
+
+        private int index;
+
+        private int calls;
+
+        private int failures;
+
+        private long openedAt;
+
+        private int trialCalls;
+
+        private int trialSuccesses;
+
+        Circuit(String key)
+        {
+            this.key = key;
+        }
+
+        synchronized State getState()
+        {
+            return this.state;
+        }
+
+        synchronized boolean acquire(XWikiLDAPConfig configuration)
+        {
+            if (this.state == State.OPEN) {
+                if (System.currentTimeMillis() - this.openedAt < configuration.getCircuitBreakerOpenDuration()) {
+                    return false;
+                }
+
+                LOGGER.info("Half opening the circuit breaker of LDAP server [{}]", this.key);
+
+                this.state = State.HALF_OPEN;
+                this.trialCalls = 0;
+                this.trialSuccesses = 0;
+            }
+
+            if (this.state == State.HALF_OPEN) {
+                if (this.trialCalls >= configuration.getCircuitBreakerHalfOpenCalls()) {
+                    return false;
+                }
+
+                this.trialCalls++;
+            }
+
+            return true;
+        }
+
+        synchronized void release()
+        {
+            if (this.state == State.HALF_OPEN && this.trialCalls > 0) {
+                this.trialCalls--;
+            }
+        }
+
+        synchronized void record(boolean failure, XWikiLDAPConfig configuration)
+        {
+            if (this.state == State.HALF_OPEN) {
+                if (failure) {
+                    open();
+                } else if (++this.trialSuccesses >= configuration.getCircuitBreakerHalfOpenCalls()) {
+                    close();
+                }
+            } else if (this.state == State.CLOSED) {
+                int size = configuration.getCircuitBreakerWindowSize();
+                if (this.window.length != size) {
+                    resetWindow(size);
+                }
+
+                if (size > 0) {
+                    if (this.calls == size) {
+                        // Forget the oldest call
+                        if (this.window[this.index]) {
+                            this.failures--;
+                        }
+                    } else {
+                        this.calls++;
+                    }
+                    this.window[this.index] = failure;
+                    if (failure) {
+                        this.failures++;
+                    }
+                    this.index = (this.index + 1) % size;
+
+                    if (this.calls >= configuration.getCircuitBreakerMinimumCalls()
+                        && this.failures * 100 >= configuration.getCircuitBreakerFailureRate() * this.calls) {
+                        open();
+                    }
+                }
+            }
+        }
+
+        private void open()
+        {
+            LOGGER.warn("Opening the circuit breaker of LDAP server [{}]", this.key);
+
+            this.state = State.OPEN;
+            this.openedAt = System.currentTimeMillis();
+        }
+
+        private void close()
+        {
+            LOGGER.info("Closing the circuit breaker of LDAP server [{}]", this.key);
+
+            this.state = State.CLOSED;
+            resetWindow(this.window.length);
+        }
+
+        private void resetWindow(int size)
+        {
+            this.window = new boolean[size];
+            this.index = 0;
+            this.calls = 0;
+            this.failures = 0;
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LDAPCircuitBreaker.class);
+
+    private final Map<String, Circuit> circuits = new HashMap<>();
+
+    /**
+     * @param host the host of the LDAP server
+     * @param port the port of the LDAP server
+     * @return the identifier of the circuit of the server
+     */
+    public static String getKey(String host, int port)
+    {
+        return host + ':' + port;
+    }
+
+    /**
+     * @param exception the error returned by the directory
+     * @return true if the error indicates a problem with the directory (and not with the request)
+     */
+    public static boolean isFailure(LDAPException exception)
+    {
+        switch (exception.getResultCode()) {
+            case LDAPException.CONNECT_ERROR:
+            case LDAPException.SERVER_DOWN:
+            case LDAPException.LDAP_TIMEOUT:
+            case LDAPException.BUSY:
+            case LDAPException.UNAVAILABLE:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    private Circuit getCircuit(String server)
+    {
+        synchronized (this.circuits) {
+            Circuit circuit = this.circuits.get(server);
+
+            if (circuit == null) {
+                circuit = new Circuit(server);
+                this.circuits.put(server, circuit);
+            }
+
+            return circuit;
+        }
+    }
+
+    /**
+     * Check if a call to the server is allowed.
+     *
+     * @param configuration the current LDAP configuration
+     * @param server the identifier of the server, see {@link #getKey(String, int)}
+     * @throws LDAPException when the circuit is open
+     */
+    public void acquire(XWikiLDAPConfig configuration, String server) throws LDAPException
+    {
+        if (configuration.isCircuitBreakerEnabled() && !getCircuit(server).acquire(configuration)) {
+            throw new LDAPException("The LDAP server [" + server + "] is considered unavailable, failing fast",
+                LDAPException.UNAVAILABLE, null);
+        }
+    }
+
+    /**
+     * Indicate that a call to the server succeeded.
+     *
+     * @param configuration the current LDAP configuration
+     * @param server the identifier of the server, see {@link #getKey(String, int)}
+     */
+    public void success(XWikiLDAPConfig configuration, String server)
+    {
+        if (configuration.isCircuitBreakerEnabled()) {
+            getCircuit(server).record(false, configuration);
+        }
+    }
+
+    /**
+     * Indicate that a call to the server failed.
+     *
+     * @param configuration the current LDAP configuration
+     * @param server the identifier of the server, see {@link #getKey(String, int)}
+     * @param error the error, anything else than a {@link LDAPException} (including {@code null}) is considered a
+     *            failure of the server
+     */
+    public void failure(XWikiLDAPConfig configuration, String server, Throwable error)
+    {
+        if (configuration.isCircuitBreakerEnabled()) {
+            boolean failure = !(error instanceof LDAPException) || isFailure((LDAPException) error);
+
+            getCircuit(server).record(failure, configuration);
+        }
+    }
+
+    /**
+     * Indicate that a call to the server was abandoned before knowing its outcome.
+     *
+     * @param configuration the current LDAP configuration
+     * @param server the identifier of the server, see {@link #getKey(String, int)}
+     */
+    public void release(XWikiLDAPConfig configuration, String server)
+    {
+        if (configuration.isCircuitBreakerEnabled()) {
+            getCircuit(server).release();
+        }
+    }
+
+    /**
+     * @param server the identifier of the server, see {@link #getKey(String, int)}
+     * @return the state of the circuit associated to the server
+     */
+    public State getState(String server)
+    {
+        return getCircuit(server).getState();
+    }
+
+    /**
+     * @return the state of all the known circuits, indexed by server
+     */
+    public Map<String, State> getStates()
+    {
+        Map<String, State> states = new LinkedHashMap<>();
+
+        synchronized (this.circuits) {
+            for (Circuit circuit : this.circuits.values()) {
+                states.put(circuit.key, circuit.getState());
+            }
+        }
+
+        return states;
+    }
+
+    /**
+     * Close all the circuits.
+     */
+    public void reset()
+    {
+        synchronized (this.circuits) {
+            this.circuits.clear();
+        }
+    }
+}
@@ -0,0 +1,550 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPSearchConstraints;
+
+/**
+ * Keep already connected and bound LDAP connections to reuse them between authentications instead of paying the
+ * connect, TLS handshake and bind cost each time.
+ * <p>
+ * Connections are grouped in partitions identified by the server and the bind identity (DN and password) so that a
+ * connection is only ever handed out to someone able to bind it with the same credentials. Only connections bound
+ * with the configured service credentials should be pooled: a connection bound with the credentials of a user would be
+ * handed out to the next authentication of the same user without going through the server again.
+ * <p>
+ * A background task regularly closes the connections which stayed idle too long and forgets the partitions which don't
+ * have any connection left.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+@Component(roles = LDAPConnectionPool.class)
+@Singleton
+public class LDAPConnectionPool implements Disposable
+{
+    /**
+     * Create a new connected and bound LDAP connection when the pool does not have any available.
+     *
+     * @version $Id$
+     */
+    public interface ConnectionFactory
+    {
+        /**
+         * @return a new connected and bound connection
+         * @throws LDAPException when failing to connect or bind
+         */
+        LDAPConnection createConnection() throws LDAPException;
+    }
+
+    /**
+     * The connections associated to a server and a bind identity.
+     *
+     * @version $Id$
+     */
+    static final class Partition
+    {
+        private final String key;
+
+        private final Deque<PooledLDAPConnection> idle = new ArrayDeque<>();
+
+        /**
+         * The number of connections (idle or borrowed) currently associated to this partition.
+         */
+        private int size;
+
+        private boolean closed;
+
+        /**
+         * The idle timeout configured when the partition was last used.
+         */
+        private long idleTimeout;
+
+        Partition(String key)
+        {
+            this.key = key;
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LDAPConnectionPool.class);
+
+    private static final String KEY_SEPARATOR = "#";
+
+    private final Map<String, Partition> partitions = new HashMap<>();
+
+    private ScheduledExecutorService evictor;
+
+    private volatile boolean evictorStarted;
+
+    /**
+     * @param host the host of the LDAP server
+     * @param port the port of the LDAP server
+     * @param ssl true if the connection use SSL
+     * @param bindDN the DN used to bind the connection
+     * @param bindPassword the password used to bind the connection
+     * @return the identifier of the pool partition associated to the passed server and identity
+     */
+    public static String getKey(String host, int port, boolean ssl, String bindDN, String bindPassword)
+    {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append(ssl ? "ldaps://" : "ldap://").append(host).append(':').append(port);
+        builder.append(KEY_SEPARATOR).append(bindDN);
+        builder.append(KEY_SEPARATOR).append(digest(bindPassword));
+
+        return builder.toString();
+    }
+
+    private static String digest(String password)
+    {
+        if (password == null) {
+            return "";
+        }
+
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder builder = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                builder.append(String.format("%02x", b));
+            }
+
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Should never happen, SHA-256 is mandatory in all JVMs
+            throw new IllegalStateException("Failed to hash the bind password", e);
+        }
+    }
+
+    /**
+     * @param name the name of the thread
+     * @param interval the number of milliseconds between two executions, 0 or less to never execute the task
+     * @param task the task to execute regularly
+     * @return the executor running the task, {@code null} if the task is never executed
+     */
+    static ScheduledExecutorService schedule(final String name, long interval, Runnable task)
+    {
+        if (interval <= 0) {
+            return null;
+        }
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        executor.scheduleWithFixedDelay(task, interval, interval, TimeUnit.MILLISECONDS);
+
+        return executor;
+    }
+
+    private void startEvictor(XWikiLDAPConfig configuration)
+    {
+        if (this.evictorStarted) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!this.evictorStarted) {
+                this.evictor = schedule("XWiki LDAP connection pool evictor",
+                    configuration.getConnectionPoolEvictionInterval(), new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            evict();
+                        }
+                    });
+
+                this.evictorStarted = true;
+            }
+        }
+    }
+
+    private Partition getPartition(String key)
+    {
+        synchronized (this.partitions) {
+            Partition partition = this.partitions.get(key);
+
+            if (partition == null) {
+                partition = new Partition(key);
+                this.partitions.put(key, partition);
+            }
+
+            return partition;
+        }
+    }
+
+    /**
+     * Get an idle connection from the pool or create a new one if none is available and the pool is not full.
+     *
+     * @param key the identifier of the partition, see {@link #getKey(String, int, boolean, String, String)}
+     * @param bindDN the DN used to bind the connection
+     * @param configuration the configuration of the pool (size, timeouts, etc.)
+     * @param factory used to create a new connection when needed
+     * @return a connected and bound connection
+     * @throws LDAPException when failing to create a new connection or when waiting for an available connection
+     *             timed out
+     */
+    public PooledLDAPConnection borrow(String key, String bindDN, XWikiLDAPConfig configuration,
+        ConnectionFactory factory) throws LDAPException
+    {
+        return borrow(key, bindDN, configuration.getConnectionPoolMaxSize(), configuration, factory);
+    }
+
+    /**
+     * Get an idle connection from the pool or create a new one if none is available and the pool is not full.
+     *
+     * @param key the identifier of the partition, see {@link #getKey(String, int, boolean, String, String)}
+     * @param bindDN the DN used to bind the connection
+     * @param maxSize the maximum number of connections in the partition
+     * @param configuration the configuration of the pool (timeouts, etc.)
+     * @param factory used to create a new connection when needed
+     * @return a connected and bound connection
+     * @throws LDAPException when failing to create a new connection or when waiting for an available connection
+     *             timed out
+     */
+    public PooledLDAPConnection borrow(String key, String bindDN, int maxSize, XWikiLDAPConfig configuration,
+        ConnectionFactory factory) throws LDAPException
+    {
+        startEvictor(configuration);
+
+        Partition partition = getPartition(key);
+
+        long idleTimeout = configuration.getConnectionPoolIdleTimeout();
+        long deadline = System.currentTimeMillis() + configuration.getConnectionPoolMaxWait();
+
+        while (true) {
+            PooledLDAPConnection candidate;
+            List<PooledLDAPConnection> expired;
+
+            synchronized (partition) {
+                if (partition.closed) {
+                    // Forgotten by the evictor or a reset in the meantime
+                    partition = getPartition(key);
+
+                    continue;
+                }
+
+                partition.idleTimeout = idleTimeout;
+
+                expired = evictExpired(partition, idleTimeout);
+
+                candidate = partition.idle.pollFirst();
+
+                if (candidate == null) {
+                    if (partition.size < maxSize) {
+                        partition.size++;
+                    } else {
+                        long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new LDAPException("Timed out waiting for an available LDAP connection",
+                                LDAPException.CONNECT_ERROR, null);
+                        }
+
+                        waitForConnection(partition, remaining);
+
+                        continue;
+                    }
+                }
+            }
+
+            disconnect(expired);
+
+            if (candidate != null) {
+                // Validation on borrow
+                if (candidate.getConnection().isConnectionAlive()) {
+                    candidate.borrow();
+
+                    LOGGER.debug("Reusing pooled LDAP connection [{}]", partition.key);
+
+                    return candidate;
+                }
+
+                LOGGER.debug("Discarding dead pooled LDAP connection [{}]", partition.key);
+
+                remove(partition);
+                disconnect(candidate.getConnection());
+            } else {
+                return create(partition, bindDN, factory);
+            }
+        }
+    }
+
+    private PooledLDAPConnection create(Partition partition, String bindDN, ConnectionFactory factory)
+        throws LDAPException
+    {
+        LOGGER.debug("Creating new pooled LDAP connection [{}]", partition.key);
+
+        try {
+            PooledLDAPConnection connection =
+                new PooledLDAPConnection(partition, factory.createConnection(), bindDN);
+            connection.borrow();
+
+            return connection;
+        } catch (LDAPException | RuntimeException e) {
+            remove(partition);
+
+            throw e;
+        }
+    }
+
+    private void waitForConnection(Partition partition, long timeout) throws LDAPException
+    {
+        try {
+            partition.wait(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new LDAPException("Interrupted while waiting for an available LDAP connection",
+                LDAPException.CONNECT_ERROR, null);
+        }
+    }
+
+    private List<PooledLDAPConnection> evictExpired(Partition partition, long idleTimeout)
+    {
+        List<PooledLDAPConnection> expired = new ArrayList<>();
+
+        long limit = System.currentTimeMillis() - idleTimeout;
+
+        // Most recently used connections are at the beginning of the deque
+        for (Iterator<PooledLDAPConnection> it = partition.idle.descendingIterator(); it.hasNext();) {
+            PooledLDAPConnection connection = it.next();
+
+            if (connection.getLastUsed() > limit) {
+                break;
+            }
+
+            it.remove();
+            partition.size--;
+            expired.add(connection);
+        }
+
+        if (!expired.isEmpty()) {
+            LOGGER.debug("Evicting [{}] idle LDAP connections from [{}]", expired.size(), partition.key);
+
+            partition.notifyAll();
+        }
+
+        return expired;
+    }
+
+    /**
+     * Close the connections which stayed idle too long and forget the partitions which don't have any connection left.
+     */
+    void evict()
+    {
+        List<PooledLDAPConnection> expired = new ArrayList<>();
+
+        synchronized (this.partitions) {
+            for (Iterator<Partition> it = this.partitions.values().iterator(); it.hasNext();) {
+                Partition partition = it.next();
+
+                synchronized (partition) {
+                    expired.addAll(evictExpired(partition, partition.idleTimeout));
+
+                    if (partition.size <= 0) {
+                        partition.closed = true;
+                        it.remove();
+                    }
+                }
+            }
+        }
+
+        disconnect(expired);
+    }
+
+    /**
+     * @return the number of partitions currently known by the pool
+     */
+    int getPartitionCount()
+    {
+        synchronized (this.partitions) {
+            return this.partitions.size();
+        }
+    }
+
+    /**
+     * Give back a connection to the pool so that it can be reused by someone else.
+     *
+     * @param connection the connection to give back
+     */
+    public void release(PooledLDAPConnection connection)
+    {
+        if (!connection.giveBack()) {
+            return;
+        }
+
+        Partition partition = connection.getPartition();
+
+        if (connection.getConnection().isConnected()) {
+            // Don't keep the constraints of the previous borrower (and the request its referral handler refers to)
+            connection.getConnection().setConstraints(new LDAPSearchConstraints());
+
+            synchronized (partition) {
+                if (!partition.closed) {
+                    partition.idle.addFirst(connection);
+                    partition.notifyAll();
+
+                    return;
+                }
+            }
+        }
+
+        remove(partition);
+        disconnect(connection.getConnection());
+    }
+
+    /**
+     * Close a borrowed connection and forget about it (typically because its state is not reliable anymore).
+     *
+     * @param connection the connection to invalidate
+     */
+    public void invalidate(PooledLDAPConnection connection)
+    {
+        if (connection.giveBack()) {
+            remove(connection.getPartition());
+            disconnect(connection.getConnection());
+        }
+    }
+
+    /**
+     * Check credentials by binding a borrowed connection with them, then give the connection back.
+     * <p>
+     * The identity of the connection does not matter when it's only used to bind, so it goes back to the pool when the
+     * bind succeeded or when the credentials were rejected. Any other error leaves the connection in an unknown state
+     * and it is invalidated.
+     *
+     * @param connection the borrowed connection to bind
+     * @param dn the DN to bind with
+     * @param password the password to bind with
+     * @throws LDAPException when the bind failed (including when the credentials are invalid)
+     */
+    public void verifyCredentials(PooledLDAPConnection connection, String dn, byte[] password) throws LDAPException
+    {
+        boolean reusable = true;
+        try {
+            connection.getConnection().bind(LDAPConnection.LDAP_V3, dn, password);
+        } catch (LDAPException e) {
+            reusable = e.getResultCode() == LDAPException.INVALID_CREDENTIALS;
+
+            throw e;
+        } finally {
+            if (reusable) {
+                release(connection);
+            } else {
+                invalidate(connection);
+            }
+        }
+    }
+
+    private void remove(Partition partition)
+    {
+        synchronized (partition) {
+            partition.size--;
+            partition.notifyAll();
+        }
+    }
+
+    private void disconnect(List<PooledLDAPConnection> connections)
+    {
+        for (PooledLDAPConnection connection : connections) {
+            disconnect(connection.getConnection());
+        }
+    }
+
+    private void disconnect(LDAPConnection connection)
+    {
+        try {
+            connection.disconnect();
+        } catch (LDAPException e) {
+            LOGGER.debug("Failed to close pooled LDAP connection", e);
+        }
+    }
+
+    /**
+     * Close all idle connections and forget about the borrowed ones (they will be closed when given back).
+     */
+    public void reset()
+    {
+        List<PooledLDAPConnection> idle = new ArrayList<>();
+
+        synchronized (this.partitions) {
+            for (Partition partition : this.partitions.values()) {
+                synchronized (partition) {
+                    partition.closed = true;
+                    partition.size -= partition.idle.size();
+                    idle.addAll(partition.idle);
+                    partition.idle.clear();
+                    partition.notifyAll();
+                }
+            }
+
+            this.partitions.clear();
+        }
+
+        disconnect(idle);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        synchronized (this) {
+            if (this.evictor != null) {
+                this.evictor.shutdownNow();
+            }
+        }
+
+        reset();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+/**
+ * Keep the thread pools used to expand nested groups in parallel, one per LDAP server so that the number of concurrent
+ * requests sent to each server is limited by its own {@code ldap_group_expansion_parallelism.<host>}.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+@Component(roles = LDAPGroupExpansionPools.class)
+@Singleton
+public class LDAPGroupExpansionPools implements Disposable
+{
+    private final Map<String, ForkJoinPool> pools = new HashMap<>();
+
+    /**
+     * @param configuration the current LDAP configuration
+     * @param host the host of the LDAP server the groups are expanded from (which is not necessarily the first one
+     *            listed in {@code ldap_server})
+     * @param port the port of the LDAP server the groups are expanded from
+     * @return the pool to use to expand the groups from the passed server, {@code null} if the groups should be
+     *         expanded sequentially
+     */
+    public ForkJoinPool getPool(XWikiLDAPConfig configuration, String host, int port)
+    {
+        int parallelism = configuration.getGroupExpansionParallelism(host);
+
+        if (parallelism <= 1) {
+            return null;
+        }
+
+        String key = LDAPCircuitBreaker.getKey(host, port);
+
+        synchronized (this.pools) {
+            ForkJoinPool pool = this.pools.get(key);
+
+            if (pool == null || pool.getParallelism() != parallelism) {
+                if (pool != null) {
+                    // Let the running expansions finish
+                    pool.shutdown();
+                }
+
+                pool = new ForkJoinPool(parallelism);
+                this.pools.put(key, pool);
+            }
+
+            return pool;
+        }
+    }
+
+    /**
+     * Stop all the pools.
+     */
+    public void reset()
+    {
+        synchronized (this.pools) {
+            for (ForkJoinPool pool : this.pools.values()) {
+                pool.shutdown();
+            }
+            this.pools.clear();
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        reset();
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The members of a group as stored in the groups cache: an immutable map from member DN to member uid where the
+ * strings are kept in a dictionary shared by all the groups and each member is stored as a pair of identifiers.
+ * <p>
+ * The members can also be found by uid, either from the uid value or from the first RDN of the DN.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+public final class LDAPGroupMembers extends AbstractMap<String, String>
+{
+    private static final long INT_MASK = 0xFFFFFFFFL;
+
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * The lower cased values of a secondary key of the members and the index of the corresponding member, sorted by
+     * key.
+     *
+     * @version $Id$
+     */
+    private static final class SecondaryIndex
+    {
+        private final int[] keys;
+
+        private final int[] members;
+
+        SecondaryIndex(int[] memberKeys)
+        {
+            int count = 0;
+            for (int key : memberKeys) {
+                if (key >= 0) {
+                    count++;
+                }
+            }
+
+            long[] pairs = new long[count];
+            int index = 0;
+            for (int i = 0; i < memberKeys.length; ++i) {
+                if (memberKeys[i] >= 0) {
+                    pairs[index++] = ((long) memberKeys[i] << 32) | i;
+                }
+            }
+            Arrays.sort(pairs);
+
+            this.keys = count > 0 ? new int[count] : EMPTY;
+            this.members = count > 0 ? new int[count] : EMPTY;
+            for (int i = 0; i < count; ++i) {
+                this.keys[i] = (int) (pairs[i] >>> 32);
+                this.members[i] = (int) pairs[i];
+            }
+        }
+
+        int find(int key)
+        {
+            int index = Arrays.binarySearch(this.keys, key);
+
+            return index >= 0 ? this.members[index] : -1;
+        }
+    }
+
+    private final LDAPStringDictionary dictionary;
+
+    /**
+     * The identifiers of the members DNs, sorted.
+     */
+    private final int[] dns;
+
+    /**
+     * The identifiers of the members uids, in the same order as {@link #dns} (-1 for {@code null}).
+     */
+    private final int[] uids;
+
+    private final SecondaryIndex uidIndex;
+
+    private final SecondaryIndex rdnIndex;
+
+    /**
+     * @param members the members of the group
+     * @param uidAttributeName the name of the LDAP attribute containing the uid
+     * @param dictionary the dictionary where to store the DNs and uids
+     */
+    LDAPGroupMembers(Map<String, String> members, String uidAttributeName, LDAPStringDictionary dictionary)
+    {
+        this.dictionary = dictionary;
+
+        // Sort the members by DN identifier, keeping the uid identifier in the lower bits
+        long[] pairs = new long[members.size()];
+        int index = 0;
+        for (Map.Entry<String, String> entry : members.entrySet()) {
+            long dn = dictionary.getId(entry.getKey());
+            int uid = entry.getValue() != null ? dictionary.getId(entry.getValue()) : -1;
+            pairs[index++] = (dn << 32) | (uid & INT_MASK);
+        }
+        Arrays.sort(pairs);
+
+        this.dns = new int[pairs.length];
+        this.uids = new int[pairs.length];
+        for (int i = 0; i < pairs.length; ++i) {
+            this.dns[i] = (int) (pairs[i] >>> 32);
+            this.uids[i] = (int) pairs[i];
+        }
+
+        int[] uidKeys = new int[this.dns.length];
+        int[] rdnKeys = new int[this.dns.length];
+        for (int i = 0; i < this.dns.length; ++i) {
+            String uid = getUid(i);
+            uidKeys[i] = uid != null ? dictionary.getId(uid.toLowerCase()) : -1;
+            String rdnValue = getRDNValue(dictionary.get(this.dns[i]), uidAttributeName);
+            rdnKeys[i] = rdnValue != null ? dictionary.getId(rdnValue.toLowerCase()) : -1;
+        }
+        this.uidIndex = new SecondaryIndex(uidKeys);
+        this.rdnIndex = new SecondaryIndex(rdnKeys);
+    }
+
+    /**
+     * @param dn the DN
+     * @param attributeName the name of the attribute
+     * @return the value of the first RDN of the DN if it's the passed attribute, {@code null} otherwise
+     */
+    private static String getRDNValue(String dn, String attributeName)
+    {
+        if (dn.length() > attributeName.length() && dn.charAt(attributeName.length()) == '='
+            && dn.regionMatches(true, 0, attributeName, 0, attributeName.length())) {
+            int end = dn.indexOf(',', attributeName.length());
+
+            if (end > 0) {
+                // Spaces before the separator are not part of the value
+                return dn.substring(attributeName.length() + 1, end).trim();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Find a member by uid, ignoring the case: either the uid of the member or the value of the first RDN of its DN
+     * when it's the uid attribute.
+     *
+     * @param uid the uid of the member
+     * @return the DN of the member, {@code null} if the group does not contain it
+     */
+    public String getMemberByUid(String uid)
+    {
+        int id = this.dictionary.findId(uid.toLowerCase());
+
+        if (id >= 0) {
+            int index = this.uidIndex.find(id);
+            if (index < 0) {
+                index = this.rdnIndex.find(id);
+            }
+
+            if (index >= 0) {
+                return this.dictionary.get(this.dns[index]);
+            }
+        }
+
+        return null;
+    }
+
+    private int indexOf(Object key)
+    {
+        if (key instanceof String) {
+            int id = this.dictionary.findId((String) key);
+
+            if (id >= 0) {
+                return Arrays.binarySearch(this.dns, id);
+            }
+        }
+
+        return -1;
+    }
+
+    private String getUid(int index)
+    {
+        return this.uids[index] >= 0 ? this.dictionary.get(this.uids[index]) : null;
+    }
+
+    @Override
+    public int size()
+    {
+        return this.dns.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key)
+    {
+        int index = indexOf(key);
+
+        return index >= 0 ? getUid(index) : null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<String, String>>()
+        {
+            @Override
+            public int size()
+            {
+                return dns.length;
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator()
+            {
+                return new Iterator<Map.Entry<String, String>>()
+                {
+                    private int index;
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return this.index < dns.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next()
+                    {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+
+                        int current = this.index++;
+
+                        return new SimpleImmutableEntry<>(dictionary.get(dns[current]), getUid(current));
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+}
@@ -19,8 +19,16 @@
  */
 package org.xwiki.contrib.ldap.internal;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -29,6 +37,8 @@ import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheException;
 import org.xwiki.cache.CacheManager;
 import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLifecycleException;
 import org.xwiki.component.phase.Disposable;
@@ -50,6 +60,250 @@ public class LDAPGroupsCache implements Disposable
      */
     private static final String CACHE_NAME_GROUPS = "ldap.groups";
 
+    /**
+     * The members of a group as expanded from the directory, with what is needed to check if they changed since.
+     *
+     * @version $Id$
+     * @since 9.5.7
+     */
+    public static final class GroupVersion
+    {
+        private final Map<String, String> members;
+
+        private final Map<String, String> changes;
+
+        private final long date = System.currentTimeMillis();
+
+        /**
+         * The last time the members were stored in the cache.
+         */
+        private volatile long cached = this.date;
+
+        private GroupVersion(Map<String, String> members, Map<String, String> changes)
+        {
+            this.members = members;
+            this.changes = Collections.unmodifiableMap(new HashMap<>(changes));
+        }
+
+        /**
+         * @return the members of the group (including the members of its nested groups) indexed by DN
+         */
+        public Map<String, String> getMembers()
+        {
+            return this.members;
+        }
+
+        /**
+         * @return the value of the change attribute of the group and each of its nested groups, indexed by DN
+         */
+        public Map<String, String> getChanges()
+        {
+            return this.changes;
+        }
+    }
+
+    /**
+     * The groups of each member, built from the cached groups members.
+     *
+     * @version $Id$
+     */
+    static final class MembershipIndex implements CacheEntryListener<Map<String, String>>
+    {
+        private static final int[] EMPTY = new int[0];
+
+        /**
+         * The DNs and uids shared by the groups cached since {@link #dictionaryDate}.
+         */
+        private LDAPStringDictionary dictionary = new LDAPStringDictionary();
+
+        private long dictionaryDate = System.currentTimeMillis();
+
+        /**
+         * The identifiers of the indexed groups.
+         */
+        private final LDAPStringDictionary groupIds = new LDAPStringDictionary();
+
+        /**
+         * The members indexed for each group.
+         */
+        private final Map<String, Map<String, String>> groups = new HashMap<>();
+
+        /**
+         * The sorted identifiers of the groups of each member.
+         */
+        private final Map<String, int[]> memberGroups = new HashMap<>();
+
+        /**
+         * @param lifespan the maximum time in milliseconds during which the members of a group can be kept
+         * @return the dictionary where to store the members of a new cache entry
+         */
+        synchronized LDAPStringDictionary getDictionary(long lifespan)
+        {
+            long now = System.currentTimeMillis();
+
+            if (now - this.dictionaryDate >= lifespan) {
+                // Start a new dictionary so that the strings which are not used anymore are eventually released: the
+                // previous one is garbage collected when the last group members referencing it expire
+                this.dictionary = new LDAPStringDictionary();
+                this.dictionaryDate = now;
+            }
+
+            return this.dictionary;
+        }
+
+        synchronized void index(String groupDN, Map<String, String> members)
+        {
+            Map<String, String> previous = this.groups.put(groupDN, members);
+            if (previous != null) {
+                unindex(groupDN, previous);
+            }
+
+            int groupId = this.groupIds.getId(groupDN);
+            for (String memberDN : members.keySet()) {
+                int[] groupIds = this.memberGroups.get(memberDN);
+                if (groupIds == null) {
+                    groupIds = EMPTY;
+                }
+
+                int index = Arrays.binarySearch(groupIds, groupId);
+                if (index < 0) {
+                    index = -index - 1;
+                    int[] newGroupIds = new int[groupIds.length + 1];
+                    System.arraycopy(groupIds, 0, newGroupIds, 0, index);
+                    newGroupIds[index] = groupId;
+                    System.arraycopy(groupIds, index, newGroupIds, index + 1, groupIds.length - index);
+                    this.memberGroups.put(memberDN, newGroupIds);
+                }
+            }
+        }
+
+        synchronized void remove(String groupDN, Map<String, String> members)
+        {
+            // The group might have been indexed again with its new members in the meantime
+            if (members == null || this.groups.get(groupDN) == members) {
+                Map<String, String> previous = this.groups.remove(groupDN);
+                if (previous != null) {
+                    unindex(groupDN, previous);
+                }
+            }
+        }
+
+        private void unindex(String groupDN, Map<String, String> members)
+        {
+            int groupId = this.groupIds.getId(groupDN);
+            for (String memberDN : members.keySet()) {
+                int[] groupIds = this.memberGroups.get(memberDN);
+                if (groupIds != null) {
+                    int index = Arrays.binarySearch(groupIds, groupId);
+                    if (index >= 0) {
+                        if (groupIds.length == 1) {
+                            this.memberGroups.remove(memberDN);
+                        } else {
+                            int[] newGroupIds = new int[groupIds.length - 1];
+                            System.arraycopy(groupIds, 0, newGroupIds, 0, index);
+                            System.arraycopy(groupIds, index + 1, newGroupIds, index, newGroupIds.length - index);
+                            this.memberGroups.put(memberDN, newGroupIds);
+                        }
+                    }
+                }
+            }
+        }
+
+        synchronized boolean isIndexed(String groupDN)
+        {
+            return this.groups.containsKey(groupDN);
+        }
+
+        synchronized Set<String> getGroups(String memberDN)
+        {
+            Set<String> groupDNs = new HashSet<>();
+
+            int[] groupIds = this.memberGroups.get(memberDN);
+            if (groupIds != null) {
+                for (int groupId : groupIds) {
+                    groupDNs.add(this.groupIds.get(groupId));
+                }
+            }
+
+            return groupDNs;
+        }
+
+        @Override
+        public void cacheEntryAdded(CacheEntryEvent<Map<String, String>> event)
+        {
+            // Indexed explicitly when the group is loaded
+        }
+
+        @Override
+        public void cacheEntryModified(CacheEntryEvent<Map<String, String>> event)
+        {
+            // Indexed explicitly when the group is loaded
+        }
+
+        @Override
+        public void cacheEntryRemoved(CacheEntryEvent<Map<String, String>> event)
+        {
+            // Removed, evicted or expired
+            remove(LDAPCanonicalDN.canonicalize(event.getEntry().getKey()), event.getEntry().getValue());
+        }
+    }
+
+    /**
+     * Forget the last expansion of the groups evicted from the cache (or explicitly removed from it) before their
+     * lifespan: only the expansion of the groups which expired is kept to be able to refresh them.
+     *
+     * @version $Id$
+     */
+    final class VersionsListener implements CacheEntryListener<Map<String, String>>
+    {
+        private final String cacheKey;
+
+        private final long lifespan;
+
+        /**
+         * @param cacheKey the identifier of the LDAP server
+         * @param lifespan the lifespan of the cache entries in milliseconds
+         */
+        VersionsListener(String cacheKey, long lifespan)
+        {
+            this.cacheKey = cacheKey;
+            this.lifespan = lifespan;
+        }
+
+        private GroupVersion getVersion(CacheEntryEvent<Map<String, String>> event)
+        {
+            GroupVersion version = versions.get(this.cacheKey + '/' + event.getEntry().getKey());
+
+            // The group might have been expanded again in the meantime
+            return version != null && version.members == event.getEntry().getValue() ? version : null;
+        }
+
+        @Override
+        public void cacheEntryAdded(CacheEntryEvent<Map<String, String>> event)
+        {
+            GroupVersion version = getVersion(event);
+            if (version != null) {
+                // Refreshed
+                version.cached = System.currentTimeMillis();
+            }
+        }
+
+        @Override
+        public void cacheEntryModified(CacheEntryEvent<Map<String, String>> event)
+        {
+            cacheEntryAdded(event);
+        }
+
+        @Override
+        public void cacheEntryRemoved(CacheEntryEvent<Map<String, String>> event)
+        {
+            GroupVersion version = getVersion(event);
+            if (version != null && System.currentTimeMillis() - version.cached < this.lifespan) {
+                versions.remove(this.cacheKey + '/' + event.getEntry().getKey(), version);
+            }
+        }
+    }
+
     @Inject
     private CacheManager cacheManager;
 
@@ -58,6 +312,34 @@ public class LDAPGroupsCache implements Disposable
      */
     private Map<String, Map<String, Cache<Map<String, String>>>> cachePool = new HashMap<>();
 
+    /**
+     * The date at which each group was last found to not contain any nested group. Like the members, it's trusted until
+     * the cache expiration so that the nested groups added in the meantime are eventually taken into account.
+     */
+    private final ConcurrentMap<String, Long> flatGroups = new ConcurrentHashMap<>();
+
+    /**
+     * The last expansion of each group, kept after the cache entry expires to be able to refresh it incrementally. It's
+     * forgotten when the cache entry is evicted and at the latest after the cache expiration.
+     */
+    private final ConcurrentMap<String, GroupVersion> versions = new ConcurrentHashMap<>();
+
+    /**
+     * The last time the versions older than the cache expiration were removed.
+     */
+    private final AtomicLong versionsSweep = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * The groups of each member for each LDAP host:port.
+     */
+    private final Map<String, MembershipIndex> indexes = new ConcurrentHashMap<>();
+
+    private String getCacheKey(XWikiLDAPUtils utils)
+    {
+        return utils.getUidAttributeName() + "." + utils.getConnection().getConnection().getHost() + ":"
+            + utils.getConnection().getConnection().getPort();
+    }
+
     /**
      * Get the cache with the provided name for a particular LDAP server.
      * 
@@ -69,8 +351,7 @@ public class LDAPGroupsCache implements Disposable
     {
         Cache<Map<String, String>> cache;
 
-        String cacheKey = utils.getUidAttributeName() + "." + utils.getConnection().getConnection().getHost() + ":"
-            + utils.getConnection().getConnection().getPort();
+        String cacheKey = getCacheKey(utils);
 
         synchronized (cachePool) {
             Map<String, Cache<Map<String, String>>> cacheMap;
@@ -88,6 +369,9 @@ public class LDAPGroupsCache implements Disposable
 
             if (cache == null) {
                 cache = this.cacheManager.createNewCache(cacheConfiguration);
+                cache.addCacheEntryListener(getIndex(cacheKey));
+                cache.addCacheEntryListener(
+                    new VersionsListener(cacheKey, getCacheLifespan(utils.getConfiguration()) * 1000L));
                 cacheMap.put(cacheConfiguration.getConfigurationId(), cache);
             }
         }
@@ -95,6 +379,171 @@ public class LDAPGroupsCache implements Disposable
         return cache;
     }
 
+    /**
+     * @param utils the LDAP tools
+     * @param groupDN the DN of the group
+     * @return true if the group was found to have no nested group less than the cache expiration ago
+     * @since 9.5.7
+     */
+    public boolean isFlatGroup(XWikiLDAPUtils utils, String groupDN)
+    {
+        String key = getCacheKey(utils) + '/' + LDAPCanonicalDN.canonicalize(groupDN);
+
+        Long date = this.flatGroups.get(key);
+
+        if (date != null
+            && System.currentTimeMillis() - date >= utils.getConfiguration().getCacheExpiration() * 1000L) {
+            // Time to expand the group again
+            this.flatGroups.remove(key, date);
+
+            return false;
+        }
+
+        return date != null;
+    }
+
+    /**
+     * @param utils the LDAP tools
+     * @param groupDN the DN of the group
+     * @param flat true if the group does not have any nested group
+     * @since 9.5.7
+     */
+    public void setFlatGroup(XWikiLDAPUtils utils, String groupDN, boolean flat)
+    {
+        String key = getCacheKey(utils) + '/' + LDAPCanonicalDN.canonicalize(groupDN);
+
+        if (flat) {
+            this.flatGroups.put(key, System.currentTimeMillis());
+        } else {
+            this.flatGroups.remove(key);
+        }
+    }
+
+    private MembershipIndex getIndex(String cacheKey)
+    {
+        synchronized (this.indexes) {
+            MembershipIndex index = this.indexes.get(cacheKey);
+
+            if (index == null) {
+                index = new MembershipIndex();
+                this.indexes.put(cacheKey, index);
+            }
+
+            return index;
+        }
+    }
+
+    /**
+     * Remember the members of a group and the state of the group and its nested groups when they were expanded.
+     *
+     * @param utils the LDAP tools
+     * @param groupDN the DN of the group, as used in the cache
+     * @param members the members of the group (including the members of its nested groups) indexed by DN
+     * @param changes the value of the change attribute of the group and each of its nested groups, indexed by DN
+     * @since 9.5.7
+     */
+    public void setGroupVersion(XWikiLDAPUtils utils, String groupDN, Map<String, String> members,
+        Map<String, String> changes)
+    {
+        this.versions.put(getCacheKey(utils) + '/' + groupDN, new GroupVersion(members, changes));
+
+        sweepVersions(utils.getConfiguration().getCacheExpiration() * 1000L);
+    }
+
+    /**
+     * Regularly remove the versions of the groups which expired and were not needed since.
+     *
+     * @param expiration the cache expiration in milliseconds
+     */
+    private void sweepVersions(long expiration)
+    {
+        long now = System.currentTimeMillis();
+        long last = this.versionsSweep.get();
+
+        if (now - last >= expiration && this.versionsSweep.compareAndSet(last, now)) {
+            for (Iterator<GroupVersion> it = this.versions.values().iterator(); it.hasNext();) {
+                if (now - it.next().date >= expiration) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param utils the LDAP tools
+     * @param groupDN the DN of the group, as used in the cache
+     * @return the last expansion of the group, {@code null} if unknown or older than the cache expiration
+     * @since 9.5.7
+     */
+    public GroupVersion getGroupVersion(XWikiLDAPUtils utils, String groupDN)
+    {
+        String key = getCacheKey(utils) + '/' + groupDN;
+
+        GroupVersion version = this.versions.get(key);
+
+        if (version != null
+            && System.currentTimeMillis() - version.date >= utils.getConfiguration().getCacheExpiration() * 1000L) {
+            // Time to expand the group again
+            this.versions.remove(key, version);
+
+            return null;
+        }
+
+        return version;
+    }
+
+    /**
+     * Convert the members of a group to the compact representation stored in the cache, where the DNs and uids are
+     * shared with the other groups of the same server cached during the same expiration period.
+     *
+     * @param utils the LDAP tools
+     * @param members the members of the group (including the members of its nested groups) indexed by DN
+     * @return the immutable members to store in the cache
+     * @since 9.5.7
+     */
+    public Map<String, String> compactGroupMembers(XWikiLDAPUtils utils, Map<String, String> members)
+    {
+        // The members are kept at most until the cache expiration (including when refreshed)
+        return new LDAPGroupMembers(members, utils.getUidAttributeName(),
+            getIndex(getCacheKey(utils)).getDictionary(utils.getConfiguration().getCacheExpiration() * 1000L));
+    }
+
+    /**
+     * Index the members of a group which was just stored in the cache, replacing the members previously indexed for
+     * this group. The group is removed from the index when it's removed from the cache.
+     *
+     * @param utils the LDAP tools
+     * @param groupDN the DN of the group
+     * @param members the members of the group (including the members of its nested groups) indexed by DN
+     * @since 9.5.7
+     */
+    public void indexGroup(XWikiLDAPUtils utils, String groupDN, Map<String, String> members)
+    {
+        getIndex(getCacheKey(utils)).index(LDAPCanonicalDN.canonicalize(groupDN), members);
+    }
+
+    /**
+     * @param utils the LDAP tools
+     * @param groupDN the DN of the group
+     * @return true if the members of the group are currently indexed
+     * @since 9.5.7
+     */
+    public boolean isIndexedGroup(XWikiLDAPUtils utils, String groupDN)
+    {
+        return getIndex(getCacheKey(utils)).isIndexed(LDAPCanonicalDN.canonicalize(groupDN));
+    }
+
+    /**
+     * @param utils the LDAP tools
+     * @param memberDN the DN of the member, as found in the cached groups
+     * @return the canonical DNs of the indexed groups containing the member
+     * @since 9.5.7
+     */
+    public Set<String> getMemberGroups(XWikiLDAPUtils utils, String memberDN)
+    {
+        return getIndex(getCacheKey(utils)).getGroups(memberDN);
+    }
+
     /**
      * Only used by the (also deprecated) {@link XWikiLDAPUtils#getGroupCacheConfiguration}.
      * @param config the current LDAP configuration
@@ -116,11 +565,26 @@ public class LDAPGroupsCache implements Disposable
     {
         LRUCacheConfiguration cacheConfiguration = new LRUCacheConfiguration(
             (cacheKeySuffix == null) ? CACHE_NAME_GROUPS : CACHE_NAME_GROUPS + '.' + cacheKeySuffix);
-        cacheConfiguration.getLRUEvictionConfiguration().setLifespan(config.getCacheExpiration());
+        cacheConfiguration.getLRUEvictionConfiguration().setLifespan(getCacheLifespan(config));
 
         return cacheConfiguration;
     }
 
+    /**
+     * @param config the current LDAP configuration
+     * @return the time in seconds after which a cache entry expires
+     */
+    private int getCacheLifespan(XWikiLDAPConfig config)
+    {
+        int lifespan = config.getCacheExpiration();
+        if (config.getCacheRefreshInterval() > 0) {
+            // Expired entries are refreshed if they did not change
+            lifespan = Math.min(lifespan, config.getCacheRefreshInterval());
+        }
+
+        return lifespan;
+    }
+
     /**
      * Force to empty the group cache.
      */
@@ -135,6 +599,10 @@ public class LDAPGroupsCache implements Disposable
         }
 
         this.cachePool.clear();
+        this.flatGroups.clear();
+        this.indexes.clear();
+        this.versions.clear();
+        LDAPCanonicalDN.clearCache();
     }
 
     @Override
@@ -0,0 +1,180 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+/**
+ * The cache of the DNs resolved from login inputs (mail, uid, etc.).
+ * <p>
+ * Inputs which could not be resolved are also cached (with their own, usually shorter, lifespan) so that unknown
+ * logins don't trigger a directory search each time.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+@Component(roles = LDAPLoginDNCache.class)
+@Singleton
+public class LDAPLoginDNCache implements Disposable
+{
+    /**
+     * The name of the cache of resolved DNs.
+     */
+    private static final String CACHE_NAME_RESOLVED = "ldap.logindn";
+
+    /**
+     * The name of the cache of inputs which could not be resolved.
+     */
+    private static final String CACHE_NAME_UNRESOLVED = "ldap.logindn.unresolved";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LDAPLoginDNCache.class);
+
+    @Inject
+    private CacheManager cacheManager;
+
+    /**
+     * Contains the caches for each configuration (name, lifespan and size).
+     */
+    private Map<String, Cache<String>> caches = new HashMap<>();
+
+    /**
+     * @param configuration the current LDAP configuration
+     * @param key the identifier of the login input (including the server and base DN it was resolved against)
+     * @return the DN to use for the passed login input (which is the input itself when it's known that it cannot be
+     *         resolved) or {@code null} if the cache does not know about this input
+     */
+    public String get(XWikiLDAPConfig configuration, String key)
+    {
+        Cache<String> resolved = getCache(configuration, false);
+        if (resolved != null) {
+            String dn = resolved.get(key);
+            if (dn != null) {
+                return dn;
+            }
+        }
+
+        Cache<String> unresolved = getCache(configuration, true);
+        if (unresolved != null) {
+            return unresolved.get(key);
+        }
+
+        return null;
+    }
+
+    /**
+     * @param configuration the current LDAP configuration
+     * @param key the identifier of the login input (including the server and base DN it was resolved against)
+     * @param dn the DN resolved for the login input
+     */
+    public void set(XWikiLDAPConfig configuration, String key, String dn)
+    {
+        Cache<String> cache = getCache(configuration, false);
+        if (cache != null) {
+            cache.set(key, dn);
+        }
+    }
+
+    /**
+     * Remember that the login input could not be resolved and should be used as is.
+     *
+     * @param configuration the current LDAP configuration
+     * @param key the identifier of the login input (including the server and base DN it was resolved against)
+     * @param input the login input
+     */
+    public void setUnresolved(XWikiLDAPConfig configuration, String key, String input)
+    {
+        Cache<String> cache = getCache(configuration, true);
+        if (cache != null) {
+            cache.set(key, input);
+        }
+    }
+
+    private Cache<String> getCache(XWikiLDAPConfig configuration, boolean unresolved)
+    {
+        int lifespan = unresolved ? configuration.getLoginDNCacheUnresolvedExpiration()
+            : configuration.getLoginDNCacheExpiration();
+
+        if (lifespan <= 0) {
+            // Cache disabled
+            return null;
+        }
+
+        int size = configuration.getLoginDNCacheSize();
+
+        String name = unresolved ? CACHE_NAME_UNRESOLVED : CACHE_NAME_RESOLVED;
+        String id = name + '.' + lifespan + '.' + size;
+
+        synchronized (this.caches) {
+            Cache<String> cache = this.caches.get(id);
+
+            if (cache == null) {
+                LRUCacheConfiguration cacheConfiguration = new LRUCacheConfiguration(name, size);
+                cacheConfiguration.getLRUEvictionConfiguration().setLifespan(lifespan);
+
+                try {
+                    cache = this.cacheManager.createNewCache(cacheConfiguration);
+                } catch (CacheException e) {
+                    LOGGER.error("Failed to create the LDAP login DN cache [{}]", id, e);
+
+                    return null;
+                }
+
+                this.caches.put(id, cache);
+            }
+
+            return cache;
+        }
+    }
+
+    /**
+     * Force to empty the login DN cache.
+     */
+    public void reset()
+    {
+        synchronized (this.caches) {
+            for (Cache<String> cache : this.caches.values()) {
+                cache.dispose();
+            }
+
+            this.caches.clear();
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        reset();
+    }
+}
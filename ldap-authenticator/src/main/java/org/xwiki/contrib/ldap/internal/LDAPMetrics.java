@@ -0,0 +1,413 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+
+/**
+ * Count and time the operations sent to the LDAP servers.
+ * <p>
+ * Durations are recorded in a histogram with fixed buckets so that percentiles can be estimated without keeping the
+ * individual samples.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+@Component(roles = LDAPMetrics.class)
+@Singleton
+public class LDAPMetrics implements LDAPMetricsMXBean, Initializable, Disposable
+{
+    /**
+     * Connection to a server.
+     */
+    public static final String CONNECT = "connect";
+
+    /**
+     * Authentication of a connection.
+     */
+    public static final String BIND = "bind";
+
+    /**
+     * Search request.
+     */
+    public static final String SEARCH = "search";
+
+    /**
+     * Fetch of a page of a paginated search.
+     */
+    public static final String PAGE = "page";
+
+    /**
+     * Comparison of an attribute value.
+     */
+    public static final String COMPARE = "compare";
+
+    /**
+     * The name under which the metrics are exposed through JMX.
+     */
+    public static final String OBJECT_NAME = "org.xwiki:type=LDAP,name=Metrics";
+
+    /**
+     * The upper bounds (in milliseconds) of the histogram buckets. The last bucket has no upper bound.
+     */
+    private static final long[] BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000};
+
+    /**
+     * The operations answered by the server itself, whose duration tells how fast the server is.
+     */
+    private static final String[] SERVER_OPERATIONS = {BIND, SEARCH, PAGE, COMPARE};
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LDAPMetrics.class);
+
+    /**
+     * The statistics of an operation type on a given server.
+     *
+     * @version $Id$
+     */
+    static final class Operation
+    {
+        private final String name;
+
+        private final String server;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong errors = new AtomicLong();
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        private final AtomicLong total = new AtomicLong();
+
+        private final AtomicLong max = new AtomicLong();
+
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS.length + 1);
+
+        private final AtomicLong entries = new AtomicLong();
+
+        private final AtomicLong bytes = new AtomicLong();
+
+        /**
+         * Exponentially weighted moving average of the recent durations in microseconds, -1 until the first one.
+         */
+        private final AtomicLong latency = new AtomicLong(-1);
+
+        Operation(String name, String server)
+        {
+            this.name = name;
+            this.server = server;
+        }
+
+        void record(long duration, boolean failed)
+        {
+            this.count.incrementAndGet();
+            if (failed) {
+                this.errors.incrementAndGet();
+            }
+
+            this.total.addAndGet(duration);
+
+            long currentMax = this.max.get();
+            while (duration > currentMax && !this.max.compareAndSet(currentMax, duration)) {
+                currentMax = this.max.get();
+            }
+
+            int bucket = 0;
+            while (bucket < BUCKETS.length && duration > BUCKETS[bucket]) {
+                bucket++;
+            }
+            this.histogram.incrementAndGet(bucket);
+        }
+
+        void latency(long duration)
+        {
+            long current;
+            long next;
+            do {
+                current = this.latency.get();
+                next = current < 0 ? duration : current + (duration - current) / 8;
+            } while (!this.latency.compareAndSet(current, next));
+        }
+
+        long getLatency()
+        {
+            return this.latency.get();
+        }
+
+        LDAPOperationStatistics getStatistics()
+        {
+            long currentCount = this.count.get();
+            long currentMax = this.max.get();
+
+            return new LDAPOperationStatistics(this.name, this.server, currentCount, this.errors.get(),
+                this.inFlight.get(), currentCount > 0 ? this.total.get() / currentCount : 0,
+                getPercentile(0.50, currentMax), getPercentile(0.95, currentMax), getPercentile(0.99, currentMax),
+                currentMax, this.entries.get(), this.bytes.get());
+        }
+
+        private long getPercentile(double percentile, long currentMax)
+        {
+            long[] counts = new long[this.histogram.length()];
+            long sum = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                counts[i] = this.histogram.get(i);
+                sum += counts[i];
+            }
+
+            if (sum == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(percentile * sum);
+            long cumulated = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                cumulated += counts[i];
+                if (cumulated >= rank) {
+                    // The upper bound of the bucket, but never more than what was actually measured
+                    return i < BUCKETS.length ? Math.min(BUCKETS[i], currentMax) : currentMax;
+                }
+            }
+
+            return currentMax;
+        }
+    }
+
+    /**
+     * A running operation.
+     *
+     * @version $Id$
+     */
+    public static final class Timer
+    {
+        private final Operation operation;
+
+        private final boolean byteCounting;
+
+        private final long start = System.nanoTime();
+
+        private boolean stopped;
+
+        private Timer(Operation operation, boolean byteCounting)
+        {
+            this.operation = operation;
+            this.byteCounting = byteCounting;
+            this.operation.inFlight.incrementAndGet();
+        }
+
+        /**
+         * Indicate that the operation succeeded.
+         */
+        public void stop()
+        {
+            stop(false);
+        }
+
+        /**
+         * Indicate that the operation failed. Does nothing if the timer was already stopped so that it can safely be
+         * called from a {@code finally} block.
+         */
+        public void fail()
+        {
+            stop(true);
+        }
+
+        private void stop(boolean failed)
+        {
+            if (!this.stopped) {
+                this.stopped = true;
+                this.operation.inFlight.decrementAndGet();
+                long duration = System.nanoTime() - this.start;
+                this.operation.record(duration / 1000000, failed);
+                this.operation.latency(duration / 1000);
+            }
+        }
+
+        /**
+         * @param entry an entry returned by the operation
+         */
+        public void entry(LDAPEntry entry)
+        {
+            this.operation.entries.incrementAndGet();
+            if (this.byteCounting) {
+                this.operation.bytes.addAndGet(size(entry));
+            }
+        }
+    }
+
+    private final ConcurrentMap<String, Operation> operations = new ConcurrentHashMap<>();
+
+    private ObjectName objectName;
+
+    private volatile boolean byteCounting;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                this.objectName = name;
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Failed to expose the LDAP metrics through JMX", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (JMException e) {
+                LOGGER.debug("Failed to unregister the LDAP metrics MBean", e);
+            }
+        }
+    }
+
+    /**
+     * @param connection the connection
+     * @return the server of the passed connection in the form host:port
+     */
+    public static String getServer(LDAPConnection connection)
+    {
+        return connection != null ? connection.getHost() + ':' + connection.getPort() : "";
+    }
+
+    private static long size(LDAPEntry entry)
+    {
+        long size = entry.getDN() != null ? entry.getDN().length() : 0;
+
+        Iterator<?> iterator = entry.getAttributeSet().iterator();
+        while (iterator.hasNext()) {
+            LDAPAttribute attribute = (LDAPAttribute) iterator.next();
+
+            size += attribute.getName().length();
+
+            byte[][] values = attribute.getByteValueArray();
+            if (values != null) {
+                for (byte[] value : values) {
+                    size += value != null ? value.length : 0;
+                }
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Start timing an operation.
+     *
+     * @param operation the operation type
+     * @param server the server (host:port)
+     * @return the running operation, to stop when the operation is finished
+     */
+    public Timer start(String operation, String server)
+    {
+        String key = operation + '@' + server;
+
+        Operation stats = this.operations.get(key);
+        if (stats == null) {
+            stats = new Operation(operation, server);
+            Operation existing = this.operations.putIfAbsent(key, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+
+        return new Timer(stats, this.byteCounting);
+    }
+
+    /**
+     * @param server the server (host:port)
+     * @return the recent average duration in microseconds of the operations answered by the passed server, -1 if no
+     *         operation was recorded for this server yet
+     */
+    public long getLatency(String server)
+    {
+        long total = 0;
+        int count = 0;
+        for (String operation : SERVER_OPERATIONS) {
+            Operation stats = this.operations.get(operation + '@' + server);
+            if (stats != null && stats.getLatency() >= 0) {
+                total += stats.getLatency();
+                count++;
+            }
+        }
+
+        return count > 0 ? total / count : -1;
+    }
+
+    @Override
+    public List<LDAPOperationStatistics> getStatistics()
+    {
+        List<LDAPOperationStatistics> statistics = new ArrayList<>(this.operations.size());
+
+        for (Operation operation : this.operations.values()) {
+            statistics.add(operation.getStatistics());
+        }
+
+        return statistics;
+    }
+
+    @Override
+    public void reset()
+    {
+        this.operations.clear();
+    }
+
+    @Override
+    public boolean isByteCounting()
+    {
+        return this.byteCounting;
+    }
+
+    @Override
+    public void setByteCounting(boolean byteCounting)
+    {
+        this.byteCounting = byteCounting;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.List;
+
+/**
+ * Expose the LDAP operations statistics through JMX.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+public interface LDAPMetricsMXBean
+{
+    /**
+     * @return the statistics of each operation type and server
+     */
+    List<LDAPOperationStatistics> getStatistics();
+
+    /**
+     * Forget all the statistics collected so far.
+     */
+    void reset();
+
+    /**
+     * @return true if the size of the returned entries is measured
+     */
+    boolean isByteCounting();
+
+    /**
+     * Measuring the size of the returned entries copies all their values so it's disabled by default.
+     *
+     * @param byteCounting true to measure the size of the returned entries
+     */
+    void setByteCounting(boolean byteCounting);
+}
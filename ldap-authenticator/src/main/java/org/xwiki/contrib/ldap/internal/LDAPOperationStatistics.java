@@ -0,0 +1,193 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A snapshot of the statistics of an LDAP operation on a given server.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+public class LDAPOperationStatistics
+{
+    private final String operation;
+
+    private final String server;
+
+    private final long count;
+
+    private final long errors;
+
+    private final int inFlight;
+
+    private final long mean;
+
+    private final long p50;
+
+    private final long p95;
+
+    private final long p99;
+
+    private final long max;
+
+    private final long entries;
+
+    private final long bytes;
+
+    /**
+     * @param operation the operation type
+     * @param server the server (host:port)
+     * @param count the number of finished operations
+     * @param errors the number of failed operations
+     * @param inFlight the number of operations currently running
+     * @param mean the mean duration in milliseconds
+     * @param p50 the median duration in milliseconds
+     * @param p95 the 95th percentile of the duration in milliseconds
+     * @param p99 the 99th percentile of the duration in milliseconds
+     * @param max the maximum duration in milliseconds
+     * @param entries the number of entries returned
+     * @param bytes the estimated size of the returned entries values
+     */
+    @ConstructorProperties({ "operation", "server", "count", "errors", "inFlight", "mean", "p50", "p95", "p99", "max",
+        "entries", "bytes" })
+    public LDAPOperationStatistics(String operation, String server, long count, long errors, int inFlight, long mean,
+        long p50, long p95, long p99, long max, long entries, long bytes)
+    {
+        this.operation = operation;
+        this.server = server;
+        this.count = count;
+        this.errors = errors;
+        this.inFlight = inFlight;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.max = max;
+        this.entries = entries;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return the operation type
+     */
+    public String getOperation()
+    {
+        return this.operation;
+    }
+
+    /**
+     * @return the server (host:port)
+     */
+    public String getServer()
+    {
+        return this.server;
+    }
+
+    /**
+     * @return the number of finished operations
+     */
+    public long getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * @return the number of failed operations
+     */
+    public long getErrors()
+    {
+        return this.errors;
+    }
+
+    /**
+     * @return the number of operations currently running
+     */
+    public int getInFlight()
+    {
+        return this.inFlight;
+    }
+
+    /**
+     * @return the mean duration in milliseconds
+     */
+    public long getMean()
+    {
+        return this.mean;
+    }
+
+    /**
+     * @return the median duration in milliseconds
+     */
+    public long getP50()
+    {
+        return this.p50;
+    }
+
+    /**
+     * @return the 95th percentile of the duration in milliseconds
+     */
+    public long getP95()
+    {
+        return this.p95;
+    }
+
+    /**
+     * @return the 99th percentile of the duration in milliseconds
+     */
+    public long getP99()
+    {
+        return this.p99;
+    }
+
+    /**
+     * @return the maximum duration in milliseconds
+     */
+    public long getMax()
+    {
+        return this.max;
+    }
+
+    /**
+     * @return the number of entries returned
+     */
+    public long getEntries()
+    {
+        return this.entries;
+    }
+
+    /**
+     * @return the estimated size in bytes of the returned entries values, 0 unless byte counting is enabled (see
+     *         {@link LDAPMetricsMXBean#setByteCounting(boolean)})
+     */
+    public long getBytes()
+    {
+        return this.bytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.operation + '@' + this.server + " count=" + this.count + " errors=" + this.errors + " inFlight="
+            + this.inFlight + " mean=" + this.mean + "ms p50=" + this.p50 + "ms p95=" + this.p95 + "ms p99="
+            + this.p99 + "ms max=" + this.max + "ms entries=" + this.entries + " bytes=" + this.bytes;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One of the configured LDAP servers and what is known about its current state.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+public class LDAPServer
+{
+    /**
+     * Represent the use of a server by a connection. Released only once even if shared between several copies of the
+     * same connection.
+     *
+     * @version $Id$
+     */
+    public final class Lease
+    {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease()
+        {
+            LDAPServer.this.outstanding.incrementAndGet();
+        }
+
+        /**
+         * @return the server
+         */
+        public LDAPServer getServer()
+        {
+            return LDAPServer.this;
+        }
+
+        /**
+         * Indicate that the connection is not used anymore.
+         */
+        public void release()
+        {
+            if (this.released.compareAndSet(false, true)) {
+                LDAPServer.this.outstanding.decrementAndGet();
+            }
+        }
+    }
+
+    private final String host;
+
+    private final int port;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /**
+     * Exponentially weighted moving average of the time needed to get a connection to the server in milliseconds. Only
+     * an estimate of the server latency until operations were actually sent to it, see {@link LDAPMetrics}.
+     */
+    private volatile long latency;
+
+    /**
+     * The date of the last failure or 0 if the server is considered available.
+     */
+    private volatile long downSince;
+
+    /**
+     * @param host the host of the server
+     * @param port the port of the server
+     */
+    public LDAPServer(String host, int port)
+    {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @return the host of the server
+     */
+    public String getHost()
+    {
+        return this.host;
+    }
+
+    /**
+     * @return the port of the server
+     */
+    public int getPort()
+    {
+        return this.port;
+    }
+
+    /**
+     * @return the number of connections currently using this server
+     */
+    public int getOutstanding()
+    {
+        return this.outstanding.get();
+    }
+
+    /**
+     * @return the average time needed to get a connection to the server in milliseconds
+     */
+    public long getLatency()
+    {
+        return this.latency;
+    }
+
+    /**
+     * @return the date of the last failure or 0 if the server is considered available
+     */
+    public long getDownSince()
+    {
+        return this.downSince;
+    }
+
+    /**
+     * @return true if the server is considered available
+     */
+    public boolean isUp()
+    {
+        return this.downSince == 0;
+    }
+
+    Lease acquire()
+    {
+        return new Lease();
+    }
+
+    void up(long sample)
+    {
+        this.downSince = 0;
+
+        long current = this.latency;
+        this.latency = current == 0 ? sample : (current * 7 + sample) / 8;
+    }
+
+    void down()
+    {
+        if (this.downSince == 0) {
+            this.downSince = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.host + ':' + this.port;
+    }
+}
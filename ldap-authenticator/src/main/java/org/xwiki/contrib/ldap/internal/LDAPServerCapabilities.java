@@ -0,0 +1,183 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.annotation.Component;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+
+/**
+ * Remember the controls and capabilities supported by each LDAP server, as advertised in the {@code supportedControl}
+ * and {@code supportedCapabilities} attributes of its root DSE.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+@Component(roles = LDAPServerCapabilities.class)
+@Singleton
+public class LDAPServerCapabilities
+{
+    /**
+     * The OID of the Simple Paged Results control (RFC 2696).
+     */
+    public static final String PAGED_RESULTS = "1.2.840.113556.1.4.319";
+
+    /**
+     * The OID of the capability advertised by Active Directory servers.
+     */
+    public static final String ACTIVE_DIRECTORY = "1.2.840.113556.1.4.800";
+
+    private static final String SUPPORTED_CONTROL = "supportedControl";
+
+    private static final String SUPPORTED_CAPABILITIES = "supportedCapabilities";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LDAPServerCapabilities.class);
+
+    /**
+     * What a server advertises in its root DSE.
+     *
+     * @version $Id$
+     */
+    private static final class RootDSE
+    {
+        private final Set<String> controls = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        private final Set<String> capabilities = new HashSet<>();
+    }
+
+    private final ConcurrentMap<String, RootDSE> rootDSEs = new ConcurrentHashMap<>();
+
+    private RootDSE getRootDSE(LDAPConnection connection)
+    {
+        String server = LDAPMetrics.getServer(connection);
+
+        RootDSE rootDSE = this.rootDSEs.get(server);
+
+        if (rootDSE == null) {
+            rootDSE = readRootDSE(connection, server);
+
+            if (rootDSE == null) {
+                // Try again next time
+                return new RootDSE();
+            }
+
+            RootDSE existing = this.rootDSEs.putIfAbsent(server, rootDSE);
+            if (existing != null) {
+                rootDSE = existing;
+            }
+        }
+
+        return rootDSE;
+    }
+
+    private RootDSE readRootDSE(LDAPConnection connection, String server)
+    {
+        try {
+            LDAPEntry entry = connection.read("", new String[] {SUPPORTED_CONTROL, SUPPORTED_CAPABILITIES});
+
+            RootDSE rootDSE = new RootDSE();
+
+            LDAPAttribute attribute = entry.getAttribute(SUPPORTED_CONTROL);
+            if (attribute != null) {
+                rootDSE.controls.addAll(Arrays.asList(attribute.getStringValueArray()));
+            }
+
+            attribute = entry.getAttribute(SUPPORTED_CAPABILITIES);
+            if (attribute != null) {
+                rootDSE.capabilities.addAll(Arrays.asList(attribute.getStringValueArray()));
+            }
+
+            LOGGER.debug("LDAP server [{}] supports controls {} and capabilities {}", server, rootDSE.controls,
+                rootDSE.capabilities);
+
+            return rootDSE;
+        } catch (LDAPException e) {
+            LOGGER.warn("Failed to read the root DSE of LDAP server [{}]: {}", server, e.getMessage());
+
+            return null;
+        }
+    }
+
+    /**
+     * @param connection a connection to the server
+     * @return the OIDs of the controls supported by the server, empty if they could not be read
+     */
+    public Set<String> getSupportedControls(LDAPConnection connection)
+    {
+        return getRootDSE(connection).controls;
+    }
+
+    /**
+     * @param connection a connection to the server
+     * @param oid the OID of the control
+     * @return true if the server advertises support for the control
+     */
+    public boolean isControlSupported(LDAPConnection connection, String oid)
+    {
+        return getSupportedControls(connection).contains(oid);
+    }
+
+    /**
+     * @param connection a connection to the server
+     * @param oid the OID of the capability
+     * @return true if the server advertises the capability
+     */
+    public boolean isCapabilitySupported(LDAPConnection connection, String oid)
+    {
+        return getRootDSE(connection).capabilities.contains(oid);
+    }
+
+    /**
+     * Indicate that the server rejected a control it advertised so that it's not used anymore with this server.
+     *
+     * @param connection a connection to the server
+     * @param oid the OID of the control
+     */
+    public void setUnsupported(LDAPConnection connection, String oid)
+    {
+        RootDSE rootDSE = this.rootDSEs.get(LDAPMetrics.getServer(connection));
+
+        if (rootDSE != null) {
+            rootDSE.controls.remove(oid);
+        }
+    }
+
+    /**
+     * Forget the capabilities of all servers.
+     */
+    public void reset()
+    {
+        this.rootDSEs.clear();
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import com.novell.ldap.LDAPConnection;
+
+/**
+ * Decide in which order the configured LDAP servers should be tried and keep track of their health.
+ * <p>
+ * Servers which failed are taken out of rotation until a background probe (or, when probes are disabled, a retry
+ * delay) indicates that they are reachable again.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+@Component(roles = LDAPServerSelector.class)
+@Singleton
+public class LDAPServerSelector implements Disposable
+{
+    /**
+     * Go through the servers one after the other.
+     */
+    public static final String STRATEGY_ROUNDROBIN = "roundrobin";
+
+    /**
+     * Prefer the server with the lowest number of connections in use.
+     */
+    public static final String STRATEGY_LEASTOUTSTANDING = "leastoutstanding";
+
+    /**
+     * Prefer the fastest servers, proportionally to the time they take to answer operations.
+     */
+    public static final String STRATEGY_LATENCY = "latency";
+
+    /**
+     * The delay in milliseconds after which a failed server is retried when health probes are disabled.
+     */
+    private static final long RETRY_DELAY = 30000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LDAPServerSelector.class);
+
+    private static final Comparator<LDAPServer> OUTSTANDING_COMPARATOR = new Comparator<LDAPServer>()
+    {
+        @Override
+        public int compare(LDAPServer server1, LDAPServer server2)
+        {
+            return Integer.compare(server1.getOutstanding(), server2.getOutstanding());
+        }
+    };
+
+    private static final Comparator<LDAPServer> DOWN_COMPARATOR = new Comparator<LDAPServer>()
+    {
+        @Override
+        public int compare(LDAPServer server1, LDAPServer server2)
+        {
+            return Long.compare(server1.getDownSince(), server2.getDownSince());
+        }
+    };
+
+    @Inject
+    private LDAPMetrics metrics;
+
+    private final ConcurrentMap<String, LDAPServer> servers = new ConcurrentHashMap<>();
+
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    private ScheduledExecutorService prober;
+
+    private volatile boolean probesStarted;
+
+    private volatile boolean probing;
+
+    /**
+     * @param configuration the current LDAP configuration
+     * @param ssl true if the connection use SSL (used to find the default port)
+     * @return the configured servers in the order they should be tried
+     */
+    public List<LDAPServer> getServers(XWikiLDAPConfig configuration, boolean ssl)
+    {
+        List<String> configuredServers = configuration.getLDAPServers();
+
+        int defaultPort = configuration.getLDAPPort();
+        if (defaultPort <= 0) {
+            defaultPort = ssl ? LDAPConnection.DEFAULT_SSL_PORT : LDAPConnection.DEFAULT_PORT;
+        }
+
+        List<LDAPServer> available = new ArrayList<>(configuredServers.size());
+        List<LDAPServer> unavailable = new ArrayList<>();
+
+        for (String configuredServer : configuredServers) {
+            LDAPServer server = getServer(configuredServer, defaultPort);
+
+            if (isAvailable(server)) {
+                available.add(server);
+            } else {
+                unavailable.add(server);
+            }
+        }
+
+        if (configuredServers.size() > 1) {
+            startProbes(configuration);
+
+            sort(available, configuration.getLDAPServerStrategy());
+
+            // Still try the unavailable servers as a last resort, starting with the one which failed first
+            Collections.sort(unavailable, DOWN_COMPARATOR);
+        }
+
+        available.addAll(unavailable);
+
+        return available;
+    }
+
+    private LDAPServer getServer(String configuredServer, int defaultPort)
+    {
+        String host = configuredServer;
+        int port = defaultPort;
+
+        int index = configuredServer.lastIndexOf(':');
+        // Ignore IPv6 addresses without port
+        if (index > 0 && configuredServer.indexOf(':') == index) {
+            try {
+                port = Integer.parseInt(configuredServer.substring(index + 1));
+                host = configuredServer.substring(0, index);
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Invalid port in LDAP server [{}]", configuredServer);
+            }
+        }
+
+        String key = host + ':' + port;
+
+        LDAPServer server = this.servers.get(key);
+        if (server == null) {
+            server = new LDAPServer(host, port);
+            LDAPServer existing = this.servers.putIfAbsent(key, server);
+            if (existing != null) {
+                server = existing;
+            }
+        }
+
+        return server;
+    }
+
+    private boolean isAvailable(LDAPServer server)
+    {
+        if (server.isUp()) {
+            return true;
+        }
+
+        // When probes are enabled they take care of putting the server back in rotation
+        return !this.probing && System.currentTimeMillis() - server.getDownSince() > RETRY_DELAY;
+    }
+
+    private void sort(List<LDAPServer> available, String strategy)
+    {
+        if (available.size() < 2) {
+            return;
+        }
+
+        if (STRATEGY_LEASTOUTSTANDING.equals(strategy)) {
+            Collections.sort(available, OUTSTANDING_COMPARATOR);
+        } else if (STRATEGY_LATENCY.equals(strategy)) {
+            final Map<LDAPServer, Long> latencies = new HashMap<>();
+            for (LDAPServer server : available) {
+                latencies.put(server, getLatency(server));
+            }
+
+            Collections.sort(available, new Comparator<LDAPServer>()
+            {
+                @Override
+                public int compare(LDAPServer server1, LDAPServer server2)
+                {
+                    return Long.compare(latencies.get(server1), latencies.get(server2));
+                }
+            });
+
+            // Pick the first server randomly, proportionally to the inverse of its latency
+            double total = 0;
+            for (LDAPServer server : available) {
+                total += weight(latencies.get(server));
+            }
+            double random = ThreadLocalRandom.current().nextDouble(total);
+            for (int i = 0; i < available.size(); ++i) {
+                random -= weight(latencies.get(available.get(i)));
+                if (random < 0) {
+                    available.add(0, available.remove(i));
+                    break;
+                }
+            }
+        } else {
+            int distance = (this.roundRobin.getAndIncrement() & Integer.MAX_VALUE) % available.size();
+            Collections.rotate(available, -distance);
+        }
+    }
+
+    /**
+     * @return the latency of the passed server in microseconds
+     */
+    private long getLatency(LDAPServer server)
+    {
+        // Getting a connection can be as fast as a pool borrow so the time to connect is only used until the server
+        // answered some operations
+        long latency = this.metrics.getLatency(server.toString());
+
+        return latency >= 0 ? latency : server.getLatency() * 1000;
+    }
+
+    private double weight(long latency)
+    {
+        return 1.0 / Math.max(latency, 1);
+    }
+
+    /**
+     * Indicate that a connection to the passed server was successfully established.
+     *
+     * @param server the server
+     * @param latency the time it took to get the connection in milliseconds
+     * @return the lease to release when the connection is not used anymore
+     */
+    public LDAPServer.Lease connected(LDAPServer server, long latency)
+    {
+        server.up(Math.max(latency, 1));
+
+        return server.acquire();
+    }
+
+    /**
+     * Indicate that the passed server could not be reached.
+     *
+     * @param server the server
+     */
+    public void failed(LDAPServer server)
+    {
+        if (server.isUp()) {
+            LOGGER.warn("Taking LDAP server [{}] out of rotation", server);
+        }
+
+        server.down();
+    }
+
+    /**
+     * @return the known servers
+     */
+    public Collection<LDAPServer> getServers()
+    {
+        return Collections.unmodifiableCollection(this.servers.values());
+    }
+
+    private void startProbes(XWikiLDAPConfig configuration)
+    {
+        if (this.probesStarted) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!this.probesStarted) {
+                long interval = configuration.getLDAPServerProbeInterval();
+                final int timeout = configuration.getLDAPTimeout();
+
+                if (interval > 0) {
+                    this.prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                    {
+                        @Override
+                        public Thread newThread(Runnable runnable)
+                        {
+                            Thread thread = new Thread(runnable, "XWiki LDAP servers health check");
+                            thread.setDaemon(true);
+
+                            return thread;
+                        }
+                    });
+
+                    this.prober.scheduleWithFixedDelay(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            probe(timeout);
+                        }
+                    }, interval, interval, TimeUnit.MILLISECONDS);
+
+                    this.probing = true;
+                }
+
+                this.probesStarted = true;
+            }
+        }
+    }
+
+    private void probe(int timeout)
+    {
+        for (LDAPServer server : this.servers.values()) {
+            long start = System.currentTimeMillis();
+
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress(server.getHost(), server.getPort()), timeout);
+
+                if (!server.isUp()) {
+                    LOGGER.info("LDAP server [{}] is reachable again", server);
+                }
+
+                server.up(Math.max(System.currentTimeMillis() - start, 1));
+            } catch (IOException | RuntimeException e) {
+                LOGGER.debug("LDAP server [{}] health check failed", server, e);
+
+                failed(server);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        synchronized (this) {
+            if (this.prober != null) {
+                this.prober.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+
+/**
+ * Multiplex the operations of many users of the same server and bind identity over a few LDAP connections.
+ * <p>
+ * Each {@link LDAPConnection} comes with its own socket and reader thread. Instead of opening one per authentication,
+ * a few connections are kept for each server and bind identity and each user gets a clone of one of them: clones share
+ * the socket and the reader thread but have their own constraints and their own pending operations (identified by
+ * their message id). Disconnecting a clone does not close the shared connection.
+ * <p>
+ * A clone must never be bound again since that would change the identity of all the operations sent on the shared
+ * connection. For the same reason only connections bound with the configured service credentials should be shared, and
+ * the bind identity includes the password so that a configuration with a wrong password never gets a clone of a
+ * connection bound by another one.
+ * <p>
+ * A background task regularly closes the shared connections which were not used for longer than the pool idle timeout
+ * and forgets the servers and identities which don't have any connection left.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+@Component(roles = LDAPSharedConnections.class)
+@Singleton
+public class LDAPSharedConnections implements Disposable
+{
+    /**
+     * A shared connection.
+     *
+     * @version $Id$
+     */
+    static final class Slot
+    {
+        private LDAPConnection connection;
+
+        private long lastUsed;
+    }
+
+    /**
+     * The shared connections associated to a server and a bind identity.
+     *
+     * @version $Id$
+     */
+    static final class Group
+    {
+        private final String key;
+
+        private final Slot[] slots;
+
+        private final AtomicInteger next = new AtomicInteger();
+
+        /**
+         * True when the evictor is about to forget this group.
+         */
+        private volatile boolean closed;
+
+        /**
+         * The idle timeout configured when the group was last used.
+         */
+        private volatile long idleTimeout;
+
+        Group(String key, int size)
+        {
+            this.key = key;
+            this.slots = new Slot[Math.max(size, 1)];
+            for (int i = 0; i < this.slots.length; ++i) {
+                this.slots[i] = new Slot();
+            }
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LDAPSharedConnections.class);
+
+    private final Map<String, Group> groups = new HashMap<>();
+
+    private ScheduledExecutorService evictor;
+
+    private volatile boolean evictorStarted;
+
+    private void startEvictor(XWikiLDAPConfig configuration)
+    {
+        if (this.evictorStarted) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!this.evictorStarted) {
+                this.evictor = LDAPConnectionPool.schedule("XWiki LDAP shared connections evictor",
+                    configuration.getConnectionPoolEvictionInterval(), new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            evict();
+                        }
+                    });
+
+                this.evictorStarted = true;
+            }
+        }
+    }
+
+    private Group getGroup(String key, XWikiLDAPConfig configuration)
+    {
+        synchronized (this.groups) {
+            Group group = this.groups.get(key);
+
+            if (group == null) {
+                group = new Group(key, configuration.getSharedConnectionsCount());
+                this.groups.put(key, group);
+            }
+
+            return group;
+        }
+    }
+
+    /**
+     * Get a clone of one of the connections associated to the passed server and bind identity, creating the shared
+     * connection if needed.
+     *
+     * @param key the identifier of the server and bind identity, see
+     *            {@link LDAPConnectionPool#getKey(String, int, boolean, String, String)}
+     * @param configuration the current LDAP configuration
+     * @param factory used to create a new connection when needed
+     * @return a clone of a connected and bound connection, to disconnect when not needed anymore
+     * @throws LDAPException when failing to create a new connection
+     */
+    public LDAPConnection get(String key, XWikiLDAPConfig configuration, LDAPConnectionPool.ConnectionFactory factory)
+        throws LDAPException
+    {
+        startEvictor(configuration);
+
+        long idleTimeout = configuration.getConnectionPoolIdleTimeout();
+
+        while (true) {
+            Group group = getGroup(key, configuration);
+            group.idleTimeout = idleTimeout;
+
+            Slot slot = group.slots[(group.next.getAndIncrement() & Integer.MAX_VALUE) % group.slots.length];
+
+            LDAPConnection dead = null;
+
+            try {
+                synchronized (slot) {
+                    if (group.closed) {
+                        // Forgotten (or about to be) by the evictor in the meantime
+                        continue;
+                    }
+
+                    if (slot.connection != null && !slot.connection.isConnectionAlive()) {
+                        LOGGER.debug("Discarding dead shared LDAP connection [{}]", group.key);
+
+                        dead = slot.connection;
+                        slot.connection = null;
+                    }
+
+                    if (slot.connection == null) {
+                        LOGGER.debug("Creating new shared LDAP connection [{}]", group.key);
+
+                        slot.connection = factory.createConnection();
+                    }
+
+                    slot.lastUsed = System.currentTimeMillis();
+
+                    return (LDAPConnection) slot.connection.clone();
+                }
+            } finally {
+                if (dead != null) {
+                    disconnect(dead);
+                }
+            }
+        }
+    }
+
+    private void disconnect(LDAPConnection connection)
+    {
+        try {
+            connection.disconnect();
+        } catch (LDAPException e) {
+            LOGGER.debug("Failed to close shared LDAP connection", e);
+        }
+    }
+
+    /**
+     * Close the shared connections which were not used for longer than the idle timeout and forget the groups which
+     * don't have any connection left. The clones still in use keep working until they are disconnected.
+     */
+    void evict()
+    {
+        List<LDAPConnection> expired = new ArrayList<>();
+
+        synchronized (this.groups) {
+            for (Iterator<Group> it = this.groups.values().iterator(); it.hasNext();) {
+                Group group = it.next();
+
+                // Stop handing out connections of this group while checking its slots
+                group.closed = true;
+
+                boolean used = false;
+                long limit = System.currentTimeMillis() - group.idleTimeout;
+                for (Slot slot : group.slots) {
+                    synchronized (slot) {
+                        if (slot.connection != null && slot.lastUsed <= limit) {
+                            LOGGER.debug("Closing idle shared LDAP connection [{}]", group.key);
+
+                            expired.add(slot.connection);
+                            slot.connection = null;
+                        }
+
+                        used |= slot.connection != null;
+                    }
+                }
+
+                if (used) {
+                    group.closed = false;
+                } else {
+                    it.remove();
+                }
+            }
+        }
+
+        for (LDAPConnection connection : expired) {
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * @return the number of groups currently known
+     */
+    int getGroupCount()
+    {
+        synchronized (this.groups) {
+            return this.groups.size();
+        }
+    }
+
+    /**
+     * Close all the shared connections. The clones still in use keep working until they are disconnected.
+     */
+    public void reset()
+    {
+        List<LDAPConnection> connections = new ArrayList<>();
+
+        synchronized (this.groups) {
+            for (Group group : this.groups.values()) {
+                group.closed = true;
+
+                for (Slot slot : group.slots) {
+                    synchronized (slot) {
+                        if (slot.connection != null) {
+                            connections.add(slot.connection);
+                            slot.connection = null;
+                        }
+                    }
+                }
+            }
+
+            this.groups.clear();
+        }
+
+        for (LDAPConnection connection : connections) {
+            disconnect(connection);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        synchronized (this) {
+            if (this.evictor != null) {
+                this.evictor.shutdownNow();
+            }
+        }
+
+        reset();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Singleton;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPException;
+
+import com.novell.ldap.LDAPJSSESecureSocketFactory;
+import com.novell.ldap.LDAPSocketFactory;
+
+/**
+ * Keep the SSL socket factories used to create LDAP connections, so that the security provider, the trust store and
+ * the {@link SSLContext} (including its TLS sessions cache) are set up once instead of for each connection.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+@Component(roles = LDAPSocketFactories.class)
+@Singleton
+public class LDAPSocketFactories
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(LDAPSocketFactories.class);
+
+    private final Map<String, LDAPSocketFactory> factories = new ConcurrentHashMap<>();
+
+    /**
+     * The class names of the security providers already registered.
+     */
+    private final Map<String, Provider> providers = new ConcurrentHashMap<>();
+
+    /**
+     * @param configuration the current LDAP configuration
+     * @param pathToKeys the path to the trust store to use, empty or {@code null} to use the default trust store
+     * @return the SSL socket factory to use to create LDAP connections
+     * @throws XWikiLDAPException when failing to create the socket factory
+     */
+    public LDAPSocketFactory getSSLSocketFactory(XWikiLDAPConfig configuration, String pathToKeys)
+        throws XWikiLDAPException
+    {
+        String providerClass = configuration.getLDAPParam("ldap_ssl.secure_provider", "");
+
+        File trustStore = StringUtils.isEmpty(pathToKeys) ? null : new File(pathToKeys);
+
+        // Take into account modifications of the trust store
+        String key =
+            providerClass + '#' + (trustStore != null ? trustStore.getPath() + '#' + trustStore.lastModified() : "");
+
+        LDAPSocketFactory factory = this.factories.get(key);
+
+        if (factory == null) {
+            synchronized (this) {
+                factory = this.factories.get(key);
+
+                if (factory == null) {
+                    registerProvider(configuration, providerClass);
+
+                    factory = new LDAPJSSESecureSocketFactory(createSSLContext(trustStore).getSocketFactory());
+
+                    this.factories.put(key, factory);
+                }
+            }
+        }
+
+        return factory;
+    }
+
+    private void registerProvider(XWikiLDAPConfig configuration, String providerClass) throws XWikiLDAPException
+    {
+        if (!this.providers.containsKey(providerClass)) {
+            // Dynamically set JSSE as a security provider
+            Provider provider = configuration.getSecureProvider();
+
+            if (Security.getProvider(provider.getName()) == null) {
+                Security.addProvider(provider);
+            }
+
+            this.providers.put(providerClass, provider);
+        }
+    }
+
+    private SSLContext createSSLContext(File trustStore) throws XWikiLDAPException
+    {
+        try {
+            TrustManager[] trustManagers = null;
+
+            if (trustStore != null) {
+                LOGGER.debug("Loading LDAP SSL trust store [{}]", trustStore);
+
+                KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+                try (InputStream stream = new FileInputStream(trustStore)) {
+                    keyStore.load(stream, null);
+                }
+
+                TrustManagerFactory trustManagerFactory =
+                    TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                trustManagerFactory.init(keyStore);
+                trustManagers = trustManagerFactory.getTrustManagers();
+            }
+
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trustManagers, null);
+
+            return context;
+        } catch (Exception e) {
+            throw new XWikiLDAPException("Failed to initialize the SSL context for trust store [" + trustStore + "]",
+                e);
+        }
+    }
+
+    /**
+     * Forget all the socket factories (and the TLS sessions they keep).
+     */
+    public void reset()
+    {
+        this.factories.clear();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Associate a unique int identifier to each string so that the strings shared by many structures are stored only once
+ * and referenced by their identifier.
+ * <p>
+ * Identifiers are never released: the dictionary is expected to be replaced as a whole and garbage collected with the
+ * last structure referencing it.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+final class LDAPStringDictionary
+{
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private volatile String[] values = new String[INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * @param value the string
+     * @return the identifier of the string, a new one if it's not yet in the dictionary
+     */
+    int getId(String value)
+    {
+        Integer id = this.ids.get(value);
+
+        if (id == null) {
+            synchronized (this) {
+                id = this.ids.get(value);
+
+                if (id == null) {
+                    String[] array = this.values;
+                    if (this.size == array.length) {
+                        array = Arrays.copyOf(array, array.length * 2);
+                    }
+                    array[this.size] = value;
+                    this.values = array;
+
+                    id = this.size++;
+                    this.ids.put(value, id);
+                }
+            }
+        }
+
+        return id;
+    }
+
+    /**
+     * @param value the string
+     * @return the identifier of the string, -1 if it's not in the dictionary
+     */
+    int findId(String value)
+    {
+        Integer id = this.ids.get(value);
+
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @param id the identifier of a string
+     * @return the string
+     */
+    String get(int id)
+    {
+        return this.values[id];
+    }
+
+    /**
+     * @return the number of strings in the dictionary
+     */
+    int size()
+    {
+        return this.ids.size();
+    }
+}
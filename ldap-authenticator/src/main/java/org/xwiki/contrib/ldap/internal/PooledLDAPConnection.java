@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import com.novell.ldap.LDAPConnection;
+
+/**
+ * An already connected and bound {@link LDAPConnection} handed out by {@link LDAPConnectionPool}.
+ *
+ * @version $Id$
+ * @since 9.5.7
+ */
+public class PooledLDAPConnection
+{
+    private final LDAPConnectionPool.Partition partition;
+
+    private final LDAPConnection connection;
+
+    private final String bindDN;
+
+    private long lastUsed;
+
+    private boolean borrowed;
+
+    /**
+     * @param partition the pool partition this connection belongs to
+     * @param connection the connected and bound LDAP connection
+     * @param bindDN the DN the connection is bound with
+     */
+    PooledLDAPConnection(LDAPConnectionPool.Partition partition, LDAPConnection connection, String bindDN)
+    {
+        this.partition = partition;
+        this.connection = connection;
+        this.bindDN = bindDN;
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    LDAPConnectionPool.Partition getPartition()
+    {
+        return this.partition;
+    }
+
+    /**
+     * @return the LDAP connection
+     */
+    public LDAPConnection getConnection()
+    {
+        return this.connection;
+    }
+
+    /**
+     * @return the DN the connection was bound with when it entered the pool
+     */
+    public String getBindDN()
+    {
+        return this.bindDN;
+    }
+
+    long getLastUsed()
+    {
+        return this.lastUsed;
+    }
+
+    synchronized void borrow()
+    {
+        this.borrowed = true;
+    }
+
+    /**
+     * @return true if the connection was borrowed and is now given back, false if it was already given back
+     */
+    synchronized boolean giveBack()
+    {
+        if (!this.borrowed) {
+            return false;
+        }
+
+        this.borrowed = false;
+        this.lastUsed = System.currentTimeMillis();
+
+        return true;
+    }
+}
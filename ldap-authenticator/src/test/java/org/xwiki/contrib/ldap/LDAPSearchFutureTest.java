@@ -0,0 +1,301 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.contrib.ldap.internal.LDAPCircuitBreaker;
+import org.xwiki.contrib.ldap.internal.LDAPMetrics;
+
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPResponse;
+import com.novell.ldap.LDAPSearchQueue;
+import com.novell.ldap.LDAPSearchResult;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPSearchFuture}.
+ * 
+ * @version $Id$
+ */
+public class LDAPSearchFutureTest
+{
+    private LDAPConnection connection;
+
+    private LDAPSearchQueue queue;
+
+    @Before
+    public void before()
+    {
+        this.connection = mock(LDAPConnection.class);
+        this.queue = mock(LDAPSearchQueue.class);
+        when(this.queue.getMessageIDs()).thenReturn(new int[] {42});
+    }
+
+    private LDAPSearchResult result(String dn)
+    {
+        return new LDAPSearchResult(new LDAPEntry(dn, new LDAPAttributeSet()), null);
+    }
+
+    private LDAPResponse response(int resultCode)
+    {
+        return new LDAPResponse(LDAPMessage.SEARCH_RESULT, resultCode, null, null, null, null);
+    }
+
+    /**
+     * Simulate a server which never answers: like jldap, waiting for the response ignores interruptions and only
+     * returns when the search is abandoned.
+     */
+    private void mockNoAnswer() throws LDAPException
+    {
+        final CountDownLatch abandoned = new CountDownLatch(1);
+        when(this.queue.getResponse(42)).thenAnswer(new Answer<LDAPMessage>()
+        {
+            @Override
+            public LDAPMessage answer(InvocationOnMock invocation)
+            {
+                while (abandoned.getCount() > 0) {
+                    try {
+                        abandoned.await();
+                    } catch (InterruptedException e) {
+                        // Ignored, like jldap
+                    }
+                }
+
+                return null;
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                abandoned.countDown();
+
+                return null;
+            }
+        }).when(this.connection).abandon(42);
+    }
+
+    @Test
+    public void get() throws Exception
+    {
+        when(this.queue.getResponse(42)).thenReturn(result("cn=a"), result("cn=b"),
+            response(LDAPException.SUCCESS));
+
+        LDAPSearchFuture future = new LDAPSearchFuture(this.connection, this.queue);
+
+        List<LDAPEntry> entries = future.get();
+
+        assertEquals(2, entries.size());
+        assertEquals("cn=a", entries.get(0).getDN());
+        assertEquals("cn=b", entries.get(1).getDN());
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+    }
+
+    @Test
+    public void getWithError() throws Exception
+    {
+        when(this.queue.getResponse(42)).thenReturn(result("cn=a"),
+            response(LDAPException.NO_SUCH_OBJECT));
+
+        LDAPSearchFuture future = new LDAPSearchFuture(this.connection, this.queue);
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(LDAPException.NO_SUCH_OBJECT, ((LDAPException) e.getCause()).getResultCode());
+        }
+
+        try {
+            future.getEntries();
+            fail();
+        } catch (LDAPException e) {
+            assertEquals(LDAPException.NO_SUCH_OBJECT, e.getResultCode());
+        }
+    }
+
+    @Test
+    public void cancel() throws Exception
+    {
+        LDAPSearchFuture future = new LDAPSearchFuture(this.connection, this.queue);
+
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+        assertFalse(future.cancel(true));
+
+        verify(this.connection).abandon(42);
+    }
+
+    @Test
+    public void getWithTimeout() throws Exception
+    {
+        mockNoAnswer();
+
+        LDAPSearchFuture future = new LDAPSearchFuture(this.connection, this.queue);
+
+        try {
+            future.get(10, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException e) {
+            // Expected
+        }
+
+        assertFalse(future.isDone());
+
+        future.cancel(true);
+    }
+
+    @Test(timeout = 10000)
+    public void cancelWhileWaiting() throws Exception
+    {
+        mockNoAnswer();
+
+        final LDAPSearchFuture future = new LDAPSearchFuture(this.connection, this.queue);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final Exception[] failure = new Exception[1];
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+                try {
+                    future.getEntries();
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        thread.start();
+
+        started.await();
+        Thread.sleep(50);
+
+        // Not blocked by the thread waiting for the responses
+        assertTrue(future.cancel(true));
+
+        thread.join();
+
+        assertEquals(LDAPException.USER_CANCELLED, ((LDAPException) failure[0]).getResultCode());
+
+        try {
+            future.get();
+            fail();
+        } catch (CancellationException e) {
+            // Expected
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void getInterrupted() throws Exception
+    {
+        mockNoAnswer();
+
+        final LDAPSearchFuture future = new LDAPSearchFuture(this.connection, this.queue);
+
+        final Exception[] failure = new Exception[1];
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        thread.start();
+
+        Thread.sleep(50);
+        thread.interrupt();
+        thread.join();
+
+        assertTrue(failure[0] instanceof InterruptedException);
+
+        future.cancel(true);
+    }
+
+    @Test
+    public void reportOutcomeWhenComplete() throws Exception
+    {
+        when(this.queue.getResponse(42)).thenReturn(result("cn=a"), response(LDAPException.BUSY));
+
+        XWikiLDAPConfig configuration = mock(XWikiLDAPConfig.class);
+        LDAPCircuitBreaker circuitBreaker = mock(LDAPCircuitBreaker.class);
+        LDAPRequest request = new LDAPRequest(configuration, circuitBreaker, "ldap:389",
+            new LDAPMetrics().start(LDAPMetrics.SEARCH, "ldap:389"));
+
+        LDAPSearchFuture future = new LDAPSearchFuture(this.connection, this.queue, request);
+
+        // Nothing is known about the server until the response is complete
+        verify(circuitBreaker, never()).success(configuration, "ldap:389");
+
+        try {
+            future.getEntries();
+            fail();
+        } catch (LDAPException e) {
+            verify(circuitBreaker).failure(configuration, "ldap:389", e);
+        }
+
+        verify(circuitBreaker, never()).success(configuration, "ldap:389");
+    }
+
+    @Test
+    public void releaseWhenCancelled() throws Exception
+    {
+        XWikiLDAPConfig configuration = mock(XWikiLDAPConfig.class);
+        LDAPCircuitBreaker circuitBreaker = mock(LDAPCircuitBreaker.class);
+        LDAPRequest request = new LDAPRequest(configuration, circuitBreaker, "ldap:389",
+            new LDAPMetrics().start(LDAPMetrics.SEARCH, "ldap:389"));
+
+        new LDAPSearchFuture(this.connection, this.queue, request).cancel(true);
+
+        verify(circuitBreaker).release(configuration, "ldap:389");
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.contrib.ldap.internal.LDAPCircuitBreaker;
+import org.xwiki.contrib.ldap.internal.LDAPMetrics;
+import org.xwiki.contrib.ldap.internal.LDAPOperationStatistics;
+
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPSearchResults;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link MonitoredLDAPSearchResults}.
+ *
+ * @version $Id$
+ */
+public class MonitoredLDAPSearchResultsTest
+{
+    private static final String SERVER = "ldap:389";
+
+    private XWikiLDAPConfig configuration;
+
+    private LDAPCircuitBreaker circuitBreaker;
+
+    private LDAPMetrics metrics;
+
+    private LDAPSearchResults results;
+
+    private MonitoredLDAPSearchResults monitoredResults;
+
+    @Before
+    public void before()
+    {
+        this.configuration = mock(XWikiLDAPConfig.class);
+        this.circuitBreaker = mock(LDAPCircuitBreaker.class);
+        this.metrics = new LDAPMetrics();
+        this.results = mock(LDAPSearchResults.class);
+
+        LDAPRequest request = new LDAPRequest(this.configuration, this.circuitBreaker, SERVER,
+            this.metrics.start(LDAPMetrics.SEARCH, SERVER));
+
+        this.monitoredResults = new MonitoredLDAPSearchResults(this.results, request);
+    }
+
+    private LDAPOperationStatistics getStatistics()
+    {
+        return this.metrics.getStatistics().get(0);
+    }
+
+    @Test
+    public void consume() throws LDAPException
+    {
+        LDAPEntry entry = new LDAPEntry("cn=a", new LDAPAttributeSet());
+        when(this.results.hasMore()).thenReturn(true, false);
+        when(this.results.next()).thenReturn(entry);
+
+        assertTrue(this.monitoredResults.hasMore());
+        assertSame(entry, this.monitoredResults.next());
+
+        // Still in flight until all the results have been consumed
+        assertEquals(0, getStatistics().getCount());
+        verify(this.circuitBreaker, never()).success(this.configuration, SERVER);
+
+        assertFalse(this.monitoredResults.hasMore());
+
+        assertEquals(1, getStatistics().getCount());
+        assertEquals(1, getStatistics().getEntries());
+        verify(this.circuitBreaker).success(this.configuration, SERVER);
+    }
+
+    @Test
+    public void failure() throws LDAPException
+    {
+        LDAPException error = new LDAPException("busy", LDAPException.BUSY, null);
+        when(this.results.hasMore()).thenReturn(true);
+        when(this.results.next()).thenThrow(error);
+
+        try {
+            this.monitoredResults.next();
+            fail();
+        } catch (LDAPException e) {
+            assertSame(error, e);
+        }
+
+        assertEquals(1, getStatistics().getErrors());
+        verify(this.circuitBreaker).failure(this.configuration, SERVER, error);
+    }
+
+    @Test
+    public void abandon() throws LDAPException
+    {
+        LDAPConnection connection = mock(LDAPConnection.class);
+
+        this.monitoredResults.abandon(connection);
+
+        verify(connection).abandon(this.results);
+        verify(this.circuitBreaker).release(this.configuration, SERVER);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPControl;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPMessage;
+import com.novell.ldap.LDAPResponse;
+import com.novell.ldap.LDAPSearchConstraints;
+import com.novell.ldap.LDAPSearchQueue;
+import com.novell.ldap.LDAPSearchResult;
+import com.novell.ldap.controls.LDAPPagedResultsControl;
+import com.novell.ldap.controls.LDAPPagedResultsResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link PagedLDAPSearchResults}.
+ * 
+ * @version $Id$
+ */
+public class PagedLDAPSearchResultsTest
+{
+    private XWikiLDAPConnection connection;
+
+    private LDAPConnection ldapConnection;
+
+    private XWikiLDAPConfig configuration;
+
+    @Before
+    public void before()
+    {
+        // Make sure the paged results response control is registered
+        new LDAPPagedResultsControl(1, false);
+
+        this.ldapConnection = mock(LDAPConnection.class);
+
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.getSearchReadAhead()).thenReturn(2);
+        when(this.configuration.getSearchReadAheadThreshold()).thenReturn(50);
+
+        this.connection = mock(XWikiLDAPConnection.class);
+        when(this.connection.getConnection()).thenReturn(this.ldapConnection);
+        when(this.connection.getConfiguration()).thenReturn(this.configuration);
+        when(this.connection.isPagedResultsEnabled()).thenReturn(true);
+    }
+
+    private LDAPSearchResult result(String dn)
+    {
+        return new LDAPSearchResult(new LDAPEntry(dn, new LDAPAttributeSet()), null);
+    }
+
+    private LDAPResponse response(byte[] cookie) throws Exception
+    {
+        // SEQUENCE { INTEGER 0, OCTET STRING cookie }
+        byte[] value = new byte[cookie.length + 7];
+        value[0] = 0x30;
+        value[1] = (byte) (cookie.length + 5);
+        value[2] = 0x02;
+        value[3] = 0x01;
+        value[4] = 0x00;
+        value[5] = 0x04;
+        value[6] = (byte) cookie.length;
+        System.arraycopy(cookie, 0, value, 7, cookie.length);
+
+        LDAPControl control = new LDAPPagedResultsResponse("1.2.840.113556.1.4.319", false, value);
+
+        LDAPResponse response = mock(LDAPResponse.class);
+        when(response.getControls()).thenReturn(new LDAPControl[] {control});
+
+        return response;
+    }
+
+    private LDAPSearchQueue queue(int messageID, LDAPMessage first, LDAPMessage... others) throws LDAPException
+    {
+        LDAPSearchQueue queue = mock(LDAPSearchQueue.class);
+        when(queue.getMessageIDs()).thenReturn(new int[] {messageID});
+        when(queue.isComplete(messageID)).thenReturn(true);
+        when(queue.getResponse(messageID)).thenReturn(first, others);
+
+        return queue;
+    }
+
+    private PagedLDAPSearchResults searchThreePages() throws Exception
+    {
+        LDAPSearchQueue page1 = queue(1, result("cn=a"), result("cn=b"), response(new byte[] {1}));
+        LDAPSearchQueue page2 = queue(2, result("cn=c"), result("cn=d"), response(new byte[] {2}));
+        LDAPSearchQueue page3 = queue(3, result("cn=e"), response(new byte[0]));
+
+        when(this.ldapConnection.search(anyString(), anyInt(), anyString(), any(String[].class), anyBoolean(),
+            any(LDAPSearchQueue.class), any(LDAPSearchConstraints.class))).thenReturn(page1, page2, page3);
+
+        return new PagedLDAPSearchResults(this.connection, "o=base", LDAPConnection.SCOPE_SUB, "(cn=*)", null, false,
+            2);
+    }
+
+    private List<String> getDNs(Iterable<LDAPEntry> entries)
+    {
+        List<String> dns = new ArrayList<>();
+        for (LDAPEntry entry : entries) {
+            dns.add(entry.getDN());
+        }
+
+        return dns;
+    }
+
+    @Test
+    public void readAhead() throws Exception
+    {
+        PagedLDAPSearchResults results = searchThreePages();
+
+        assertTrue(results.hasMore());
+        assertEquals("cn=a", results.next().getDN());
+
+        // The first page was received and its first half consumed: the next two pages are already requested
+        verify(this.ldapConnection, times(3)).search(anyString(), anyInt(), anyString(), any(String[].class),
+            anyBoolean(), any(LDAPSearchQueue.class), any(LDAPSearchConstraints.class));
+
+        assertEquals("cn=b", results.next().getDN());
+        assertEquals("cn=c", results.next().getDN());
+        assertEquals("cn=d", results.next().getDN());
+        assertEquals("cn=e", results.next().getDN());
+        assertFalse(results.hasMore());
+
+        // The empty cookie of the last page stopped the search
+        verify(this.ldapConnection, times(3)).search(anyString(), anyInt(), anyString(), any(String[].class),
+            anyBoolean(), any(LDAPSearchQueue.class), any(LDAPSearchConstraints.class));
+    }
+
+    @Test
+    public void nextPage() throws Exception
+    {
+        PagedLDAPSearchResults results = searchThreePages();
+
+        assertEquals("cn=a", results.next().getDN());
+        assertEquals(Arrays.asList("cn=b"), getDNs(results.nextPage()));
+        assertEquals(Arrays.asList("cn=c", "cn=d"), getDNs(results.nextPage()));
+        assertEquals(Arrays.asList("cn=e"), getDNs(results.nextPage()));
+        assertTrue(results.nextPage().isEmpty());
+    }
+
+    @Test
+    public void iterator() throws Exception
+    {
+        PagedLDAPSearchResults results = searchThreePages();
+
+        assertEquals(Arrays.asList("cn=a", "cn=b", "cn=c", "cn=d", "cn=e"), getDNs(results));
+
+        // The search was closed once all the entries were returned
+        assertFalse(results.hasMore());
+    }
+}
@@ -37,6 +37,7 @@ import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.web.Utils;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
@@ -397,4 +398,30 @@ public class XWikiLDAPConfigTest
         assertEquals("password2", config.getMemoryConfiguration().get("ldap_bind_pass"));
         assertEquals("xgroup21=lgroup21|xgroup22=lgroup22", config.getMemoryConfiguration().get("ldap_group_mapping"));
     }
+
+    @Test
+    public void isServiceBindIdentity()
+    {
+        // By default the user credentials are used to bind
+        assertFalse(this.config.isServiceBindIdentity());
+
+        setCfgPreference("xwiki.authentication.ldap.bind_DN", "cn=bind,dc=my,dc=domain,dc=com");
+        assertFalse(this.config.isServiceBindIdentity());
+
+        setCfgPreference("xwiki.authentication.ldap.bind_pass", "password");
+        assertTrue(this.config.isServiceBindIdentity());
+
+        setCfgPreference("xwiki.authentication.ldap.bind_DN", "uid={0},dc=my,dc=domain,dc=com");
+        assertFalse(this.config.isServiceBindIdentity());
+    }
+
+    @Test
+    public void isConnectionPoolEnabled()
+    {
+        // Existing setups keep opening a connection per authentication
+        assertFalse(this.config.isConnectionPoolEnabled());
+
+        setWikiPreference("ldap_pool", "1");
+        assertTrue(this.config.isConnectionPoolEnabled());
+    }
 }
@@ -0,0 +1,152 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.contrib.ldap.internal.LDAPCircuitBreaker;
+import org.xwiki.contrib.ldap.internal.LDAPConnectionPool;
+import org.xwiki.contrib.ldap.internal.LDAPLoginDNCache;
+import org.xwiki.contrib.ldap.internal.LDAPMetrics;
+import org.xwiki.contrib.ldap.internal.LDAPServer;
+import org.xwiki.contrib.ldap.internal.LDAPServerSelector;
+import org.xwiki.contrib.ldap.internal.PooledLDAPConnection;
+import org.xwiki.test.mockito.MockitoComponentManagerRule;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPSearchResults;
+import com.xpn.xwiki.web.Utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link XWikiLDAPConnection}.
+ *
+ * @version $Id$
+ */
+public class XWikiLDAPConnectionTest
+{
+    private static final String LOOKUP_KEY = LDAPConnectionPool.getKey("localhost", 389, false, "", "");
+
+    @Rule
+    public MockitoComponentManagerRule mocker = new MockitoComponentManagerRule();
+
+    private XWikiLDAPConfig configuration;
+
+    private LDAPConnectionPool pool;
+
+    private PooledLDAPConnection pooledLookupConnection;
+
+    private LDAPConnection lookupConnection;
+
+    @Before
+    public void before() throws Exception
+    {
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.isConnectionPoolEnabled()).thenReturn(true);
+
+        LDAPServerSelector selector = this.mocker.registerMockComponent(LDAPServerSelector.class);
+        when(selector.getServers(this.configuration, false))
+            .thenReturn(Arrays.asList(new LDAPServer("localhost", 389)));
+
+        this.mocker.registerMockComponent(LDAPCircuitBreaker.class);
+        this.mocker.registerMockComponent(LDAPLoginDNCache.class);
+
+        LDAPMetrics metrics = this.mocker.registerMockComponent(LDAPMetrics.class);
+        final LDAPMetrics realMetrics = new LDAPMetrics();
+        when(metrics.start(anyString(), anyString())).thenAnswer(new Answer<LDAPMetrics.Timer>()
+        {
+            @Override
+            public LDAPMetrics.Timer answer(InvocationOnMock invocation)
+            {
+                return realMetrics.start((String) invocation.getArguments()[0],
+                    (String) invocation.getArguments()[1]);
+            }
+        });
+
+        this.lookupConnection = mock(LDAPConnection.class);
+        this.pooledLookupConnection = mock(PooledLDAPConnection.class);
+        when(this.pooledLookupConnection.getConnection()).thenReturn(this.lookupConnection);
+
+        this.pool = this.mocker.registerMockComponent(LDAPConnectionPool.class);
+        when(this.pool.borrow(eq(LOOKUP_KEY), eq(""), eq(this.configuration),
+            any(LDAPConnectionPool.ConnectionFactory.class))).thenReturn(this.pooledLookupConnection);
+
+        Utils.setComponentManager(this.mocker);
+    }
+
+    private void mockMailSearch(String mail, String dn) throws LDAPException
+    {
+        LDAPEntry entry = mock(LDAPEntry.class);
+        when(entry.getDN()).thenReturn(dn);
+        LDAPSearchResults results = mock(LDAPSearchResults.class);
+        when(results.hasMore()).thenReturn(true);
+        when(results.next()).thenReturn(entry);
+
+        when(this.lookupConnection.search(anyString(), anyInt(), eq("(mail=" + mail + ")"), any(String[].class),
+            anyBoolean())).thenReturn(results);
+    }
+
+    @Test
+    public void createLoginDNByUIDWithMail() throws LDAPException
+    {
+        mockMailSearch("john@example.org", "uid=john,dc=example,dc=org");
+        mockMailSearch("jane@example.org", "uid=jane,dc=example,dc=org");
+
+        XWikiLDAPConnection connection = new XWikiLDAPConnection(this.configuration);
+
+        assertEquals("uid=john,dc=example,dc=org", connection.createLoginDNByUID("john@example.org"));
+
+        // The authentication, open() and searchLDAP() all resolve the same login, only the first one searches
+        assertEquals("uid=john,dc=example,dc=org", connection.createLoginDNByUID("john@example.org"));
+        assertEquals("uid=john,dc=example,dc=org", connection.createLoginDNByUID("uid=john,dc=example,dc=org"));
+
+        verify(this.lookupConnection).search(anyString(), anyInt(), eq("(mail=john@example.org)"),
+            any(String[].class), anyBoolean());
+        verify(this.pool).release(this.pooledLookupConnection);
+
+        // The next authentication reuses the pooled lookup connection instead of closing it
+        XWikiLDAPConnection otherConnection = new XWikiLDAPConnection(this.configuration);
+
+        assertEquals("uid=jane,dc=example,dc=org", otherConnection.createLoginDNByUID("jane@example.org"));
+
+        verify(this.pool, times(2)).borrow(eq(LOOKUP_KEY), eq(""), eq(this.configuration),
+            any(LDAPConnectionPool.ConnectionFactory.class));
+        verify(this.pool, times(2)).release(this.pooledLookupConnection);
+        verify(this.lookupConnection, never()).disconnect();
+    }
+}
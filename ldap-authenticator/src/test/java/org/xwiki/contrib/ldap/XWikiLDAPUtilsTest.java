@@ -0,0 +1,542 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+import org.xwiki.cache.Cache;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.contrib.ldap.internal.LDAPGroupsCache;
+import org.mockito.ArgumentMatcher;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Test {@link XWikiLDAPUtils}.
+ * 
+ * @version $Id$
+ */
+public class XWikiLDAPUtilsTest
+{
+    private XWikiLDAPConfig configuration;
+
+    private XWikiLDAPConnection connection;
+
+    private XWikiLDAPUtils utils;
+
+    private Map<String, String> memoryConfiguration = new HashMap<>();
+
+    @Before
+    public void before()
+    {
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.getMemoryConfiguration()).thenReturn(this.memoryConfiguration);
+
+        this.connection = mock(XWikiLDAPConnection.class);
+
+        this.utils = new XWikiLDAPUtils(this.connection, this.configuration);
+        this.utils.setUidAttributeName("sAMAccountName");
+    }
+
+    private String getUserPageName(String pattern, XWikiLDAPSearchAttribute... attributes)
+    {
+        when(this.configuration.getLDAPParam("ldap_userPageName", "${uid}")).thenReturn(pattern);
+
+        return this.utils.getUserPageName(Arrays.asList(attributes), null);
+    }
+
+    @Test
+    public void getUserPageName()
+    {
+        this.memoryConfiguration.put("uid", "input");
+
+        assertEquals("input", getUserPageName("${uid}"));
+        assertEquals("Jdoe", getUserPageName("${uid}", new XWikiLDAPSearchAttribute("sAMAccountName", "Jdoe")));
+        assertEquals("jdoe-JOHN@DOE", getUserPageName("${uid._lowerCase}-${ldap.cn._upperCase}",
+            new XWikiLDAPSearchAttribute("sAMAccountName", "Jdoe"), new XWikiLDAPSearchAttribute("cn", "John@Doe")));
+        assertEquals("johndoe", getUserPageName("${ldap.cn._clean._lowerCase}",
+            new XWikiLDAPSearchAttribute("cn", "John Doe"), new XWikiLDAPSearchAttribute("photo", new byte[0])));
+        // Unknown variables are left as is (but cleaned)
+        assertEquals("${ldapmail}", getUserPageName("${ldap.mail}", new XWikiLDAPSearchAttribute("cn", "John")));
+    }
+
+    private LDAPAttribute attribute(String name, String... values)
+    {
+        return new LDAPAttribute(name, values);
+    }
+
+    private LDAPEntry entry(String dn, LDAPAttribute... attributes)
+    {
+        LDAPAttributeSet attributeSet = new LDAPAttributeSet();
+        Collections.addAll(attributeSet, attributes);
+
+        return new LDAPEntry(dn, attributeSet);
+    }
+
+    private void mockRead(String dn, String attribute, LDAPEntry result) throws LDAPException
+    {
+        LDAPSearchFuture future = future(result);
+        when(this.connection.readAsync(eq(dn), aryEq(new String[] {attribute}))).thenReturn(future);
+    }
+
+    private LDAPSearchFuture future(LDAPEntry result) throws LDAPException
+    {
+        LDAPSearchFuture future = mock(LDAPSearchFuture.class);
+        when(future.getEntries()).thenReturn(Arrays.asList(result));
+
+        return future;
+    }
+
+    @Test
+    public void getGroupMembersWithRanges() throws LDAPException
+    {
+        this.utils.setGroupClasses(Arrays.asList("group"));
+        this.utils.setGroupMemberFields(Arrays.asList("member"));
+        this.utils.setResolveSubgroups(false);
+
+        String group = "cn=group,dc=xwiki,dc=org";
+
+        mockRead(group, "member;range=2-*",
+            entry(group, attribute("member;range=2-3", "cn=user2,dc=xwiki,dc=org", "cn=user3,dc=xwiki,dc=org")));
+        mockRead(group, "member;range=4-*", entry(group, attribute("member;range=4-*", "cn=user4,dc=xwiki,dc=org")));
+
+        Map<String, String> members = new HashMap<>();
+        List<String> subgroups = new ArrayList<>();
+        assertTrue(this.utils.getGroupMembers(members, subgroups, entry(group, attribute("objectClass", "group"),
+            attribute("member;range=0-1", "cn=user0,dc=xwiki,dc=org", "cn=user1,dc=xwiki,dc=org")), null));
+
+        assertEquals(Arrays.asList(group), subgroups);
+        assertEquals(5, members.size());
+        for (int i = 0; i < 5; ++i) {
+            assertTrue(members.containsKey("cn=user" + i + ",dc=xwiki,dc=org"));
+        }
+    }
+
+    @Test
+    public void getGroupMembersByBatch() throws LDAPException
+    {
+        when(this.configuration.getGroupMembersBatchSize()).thenReturn(3);
+        this.utils.setGroupClasses(Arrays.asList("group"));
+        this.utils.setGroupMemberFields(Arrays.asList("member"));
+        this.utils.setResolveSubgroups(true);
+
+        String group = "cn=group,dc=xwiki,dc=org";
+        String subgroup = "cn=subgroup,dc=xwiki,dc=org";
+        String user1 = "cn=user1,dc=xwiki,dc=org";
+        String user2 = "cn=user2,dc=xwiki,dc=org";
+
+        LDAPSearchFuture subgroupFuture = future(
+            entry(subgroup, attribute("objectClass", "group"), attribute("member", user2, group)));
+        LDAPSearchFuture user1Future = future(entry(user1, attribute("sAMAccountName", "User1")));
+        LDAPSearchFuture user2Future = future(entry(user2, attribute("sAMAccountName", "User2")));
+        when(this.connection.readAsync(eq(subgroup), any(String[].class))).thenReturn(subgroupFuture);
+        when(this.connection.readAsync(eq(user1), any(String[].class))).thenReturn(user1Future);
+        when(this.connection.readAsync(eq(user2), any(String[].class))).thenReturn(user2Future);
+
+        Map<String, String> members = new HashMap<>();
+        List<String> subgroups = new ArrayList<>();
+        assertTrue(this.utils.getGroupMembers(members, subgroups,
+            entry(group, attribute("objectClass", "group"), attribute("member", subgroup, user1, user2)), null));
+
+        assertEquals(Arrays.asList(group, subgroup), subgroups);
+        assertEquals(2, members.size());
+        assertEquals("user1", members.get(user1));
+        assertEquals("user2", members.get(user2));
+
+        // Members already resolved through the subgroup are not resolved again
+        verify(user2Future).cancel(true);
+        verify(this.connection, never()).searchPaginated(anyString(), anyInt(), anyString(), any(String[].class),
+            anyBoolean());
+    }
+
+    @Test
+    public void expandGroupMembersInParallel() throws Exception
+    {
+        when(this.configuration.getGroupMembersBatchSize()).thenReturn(2);
+        when(this.configuration.snapshot()).thenReturn(this.configuration);
+
+        // Each thread of the pool gets its own connection to the server
+        XWikiLDAPConnection workerConnection =
+            mock(XWikiLDAPConnection.class, AdditionalAnswers.delegatesTo(this.connection));
+        doNothing().when(workerConnection).close();
+        when(this.connection.duplicate(this.configuration)).thenReturn(workerConnection);
+        this.utils.setGroupClasses(Arrays.asList("group"));
+        this.utils.setGroupMemberFields(Arrays.asList("member"));
+        this.utils.setResolveSubgroups(true);
+
+        String group = "cn=group,dc=xwiki,dc=org";
+        List<String> groupMembers = new ArrayList<>();
+        Map<String, String> expected = new HashMap<>();
+        for (int i = 0; i < 4; ++i) {
+            String subgroup = "cn=subgroup" + i + ",dc=xwiki,dc=org";
+            groupMembers.add(subgroup);
+
+            List<String> subgroupMembers = new ArrayList<>();
+            for (int j = 0; j < 3; ++j) {
+                String user = "cn=user" + i + j + ",dc=xwiki,dc=org";
+                subgroupMembers.add(user);
+                expected.put(user, "user" + i + j);
+
+                LDAPSearchFuture userFuture = future(entry(user, attribute("sAMAccountName", "User" + i + j)));
+                when(this.connection.readAsync(eq(user), any(String[].class))).thenReturn(userFuture);
+            }
+            // Cycle
+            subgroupMembers.add(group);
+
+            LDAPSearchFuture subgroupFuture = future(entry(subgroup, attribute("objectClass", "group"),
+                attribute("member", subgroupMembers.toArray(new String[0]))));
+            when(this.connection.readAsync(eq(subgroup), any(String[].class))).thenReturn(subgroupFuture);
+        }
+
+        LDAPEntry groupEntry =
+            entry(group, attribute("objectClass", "group"), attribute("member", groupMembers.toArray(new String[0])));
+        PagedLDAPSearchResults result = mock(PagedLDAPSearchResults.class);
+        when(result.iterator()).thenReturn(Arrays.asList(groupEntry).iterator());
+        when(this.connection.searchPaginated(group, LDAPConnection.SCOPE_SUB, null, new String[] {"objectClass",
+            "member", "sAMAccountName"}, false)).thenReturn(result);
+
+        Map<String, String> members = new HashMap<>();
+        List<String> subgroups = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertTrue(this.utils.expandGroupMembers(group, members, subgroups, pool, null));
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(expected, members);
+        assertEquals(5, subgroups.size());
+
+        // The settings are read before forking
+        verify(this.configuration).snapshot();
+        verify(this.connection, atLeastOnce()).duplicate(this.configuration);
+        verify(workerConnection, atLeastOnce()).close();
+        verify(this.connection, never()).close();
+    }
+
+    @Test
+    public void expandGroupMembersTrackingChanges() throws LDAPException
+    {
+        when(this.configuration.getGroupMembersBatchSize()).thenReturn(2);
+        this.utils.setGroupClasses(Arrays.asList("group"));
+        this.utils.setGroupMemberFields(Arrays.asList("member"));
+        this.utils.setResolveSubgroups(true);
+
+        String group = "cn=group,dc=xwiki,dc=org";
+        String subgroup = "cn=subgroup,dc=xwiki,dc=org";
+        String user = "cn=user,dc=xwiki,dc=org";
+
+        LDAPSearchFuture subgroupFuture = future(entry(subgroup, attribute("objectClass", "group"),
+            attribute("member", user), attribute("modifyTimestamp", "20201010101010Z")));
+        LDAPSearchFuture userFuture = future(entry(user, attribute("sAMAccountName", "User")));
+        when(this.connection.readAsync(eq(subgroup), any(String[].class))).thenReturn(subgroupFuture);
+        when(this.connection.readAsync(eq(user), any(String[].class))).thenReturn(userFuture);
+
+        LDAPEntry groupEntry = entry(group, attribute("objectClass", "group"), attribute("member", subgroup),
+            attribute("modifyTimestamp", "20200101000000Z"));
+        PagedLDAPSearchResults result = mock(PagedLDAPSearchResults.class);
+        when(result.iterator()).thenReturn(Arrays.asList(groupEntry).iterator());
+        when(this.connection.searchPaginated(group, LDAPConnection.SCOPE_SUB, null, new String[] {"objectClass",
+            "member", "sAMAccountName", "modifyTimestamp"}, false)).thenReturn(result);
+
+        Map<String, String> members = new HashMap<>();
+        Map<String, String> changes = new HashMap<>();
+        assertTrue(this.utils.expandGroupMembers(group, members, new ArrayList<String>(), null, changes, null));
+
+        assertEquals(Collections.singletonMap(user, "user"), members);
+        Map<String, String> expected = new HashMap<>();
+        expected.put(group, "20200101000000Z");
+        expected.put(subgroup, "20201010101010Z");
+        assertEquals(expected, changes);
+
+        mockRead(group, "modifyTimestamp", entry(group, attribute("modifyTimestamp", "20200101000000Z")));
+        mockRead(subgroup, "modifyTimestamp", entry(subgroup, attribute("modifyTimestamp", "20201010101010Z")));
+
+        assertTrue(this.utils.isUnchanged(changes));
+
+        mockRead(subgroup, "modifyTimestamp", entry(subgroup, attribute("modifyTimestamp", "20201111111111Z")));
+
+        assertFalse(this.utils.isUnchanged(changes));
+    }
+
+    @Test
+    public void isMemberOfGroupInChain() throws Exception
+    {
+        when(this.configuration.getMembershipCheck()).thenReturn("inchain");
+        this.utils.setBaseDN("dc=xwiki,dc=org");
+
+        String group = "cn=group,dc=xwiki,dc=org";
+        String user = "cn=user,dc=xwiki,dc=org";
+        String filter = "(memberOf:1.2.840.113556.1.4.1941:=cn=group,dc=xwiki,dc=org)";
+
+        LDAPSearchFuture member = future(entry(user));
+        when(this.connection.searchAsync(user, "(&(objectClass=*)" + filter + ")", new String[] {"1.1"},
+            LDAPConnection.SCOPE_BASE)).thenReturn(member);
+        LDAPSearchFuture memberByUid = future(entry(user));
+        when(this.connection.searchAsync("dc=xwiki,dc=org", "(&(sAMAccountName=user)" + filter + ")",
+            new String[] {"1.1"}, LDAPConnection.SCOPE_SUB)).thenReturn(memberByUid);
+
+        String other = "cn=other,dc=xwiki,dc=org";
+        LDAPSearchFuture notMember = mock(LDAPSearchFuture.class);
+        when(notMember.getEntries()).thenReturn(Collections.<LDAPEntry>emptyList());
+        when(this.connection.searchAsync(other, "(&(objectClass=*)" + filter + ")", new String[] {"1.1"},
+            LDAPConnection.SCOPE_BASE)).thenReturn(notMember);
+        mockRead(group, "objectClass", entry(group, attribute("objectClass", "top", "group")));
+
+        assertTrue(this.utils.isMemberOfGroup(user, group, null));
+        assertEquals(user, this.utils.isDNInGroup(user, group, null));
+        assertEquals(user, this.utils.isUidInGroup("user", group, null));
+        assertFalse(this.utils.isMemberOfGroup(other, group, null));
+        assertNull(this.utils.isDNInGroup(other, group, null));
+    }
+
+    @Test
+    public void isInGroupInChainWithOrganizationUnit() throws Exception
+    {
+        when(this.configuration.getMembershipCheck()).thenReturn("inchain");
+
+        String unit = "ou=users,dc=xwiki,dc=org";
+        String user = "cn=user,dc=xwiki,dc=org";
+
+        LDAPSearchFuture notMember = mock(LDAPSearchFuture.class);
+        when(notMember.getEntries()).thenReturn(Collections.<LDAPEntry>emptyList());
+        when(this.connection.searchAsync(eq(user), anyString(), any(String[].class), eq(LDAPConnection.SCOPE_BASE)))
+            .thenReturn(notMember);
+        mockRead(unit, "objectClass", entry(unit, attribute("objectClass", "top", "organizationalUnit")));
+
+        LDAPGroupsCache caches = mock(LDAPGroupsCache.class);
+        Cache<Map<String, String>> cache = mock(Cache.class);
+        when(caches.getGroupCache(this.utils)).thenReturn(cache);
+        when(cache.get(unit)).thenReturn(Collections.singletonMap(user, "user"));
+        ReflectionUtils.setFieldValue(this.utils, "caches", caches);
+
+        // The entries of an organization unit are not members for the in-chain matching rule
+        assertTrue(this.utils.isMemberOfGroup(user, unit, null));
+        assertEquals(user, this.utils.isDNInGroup(user, unit, null));
+    }
+
+    @Test
+    public void isMemberOfGroupsWithUserGroups() throws Exception
+    {
+        String user = "cn=user,dc=xwiki,dc=org";
+        String group = "cn=group,dc=xwiki,dc=org";
+        String flatGroup = "cn=flat,dc=xwiki,dc=org";
+        String nestingGroup = "cn=nesting,dc=xwiki,dc=org";
+        String filter = "(cn=group)";
+
+        LDAPGroupsCache caches = mock(LDAPGroupsCache.class);
+        Cache<Map<String, String>> cache = mock(Cache.class);
+        when(caches.getGroupCache(this.utils)).thenReturn(cache);
+        when(caches.isFlatGroup(this.utils, flatGroup)).thenReturn(true);
+        when(cache.get(nestingGroup)).thenReturn(Collections.singletonMap(user, "user"));
+        when(cache.get(filter)).thenReturn(Collections.singletonMap(user, "user"));
+        ReflectionUtils.setFieldValue(this.utils, "caches", caches);
+
+        Set<String> userGroups = Collections.singleton(group);
+
+        assertTrue(this.utils.isMemberOfGroups(user, Arrays.asList("CN=Group, DC=xwiki, DC=org"), userGroups, null));
+        // A flat group has to directly contain the user
+        assertFalse(this.utils.isMemberOfGroups(user, Arrays.asList(flatGroup), userGroups, null));
+        verify(cache, never()).get(flatGroup);
+
+        // The user is in the other groups through nested groups or filters
+        assertTrue(this.utils.isMemberOfGroups(user, Arrays.asList(flatGroup, nestingGroup), userGroups, null));
+        assertTrue(this.utils.isMemberOfGroups(user, Arrays.asList(filter), userGroups, null));
+    }
+
+    @Test
+    public void isDNInGroupWithEscapedDN() throws Exception
+    {
+        String group = "cn=group,dc=xwiki,dc=org";
+
+        LDAPGroupsCache caches = mock(LDAPGroupsCache.class);
+        Cache<Map<String, String>> cache = mock(Cache.class);
+        when(caches.getGroupCache(this.utils)).thenReturn(cache);
+        when(cache.get(group)).thenReturn(Collections.singletonMap("cn=doe\\, john,dc=xwiki,dc=org", "jdoe"));
+        ReflectionUtils.setFieldValue(this.utils, "caches", caches);
+
+        // The escaping of the DN does not matter, but the escaped characters do
+        assertEquals("CN=Doe\\2C John,DC=xwiki,DC=org",
+            this.utils.isDNInGroup("CN=Doe\\2C John,DC=xwiki,DC=org", group, null));
+        assertNull(this.utils.isDNInGroup("cn=Doe John,dc=xwiki,dc=org", group, null));
+    }
+
+    @Test
+    public void isInGroupInChainWithFilter() throws Exception
+    {
+        when(this.configuration.getMembershipCheck()).thenReturn("inchain");
+
+        // Filters are expanded, the in-chain matching rule only applies to a group DN
+        assertNull(this.utils.isInGroup("user", "cn=user,dc=xwiki,dc=org", "(cn=group)", null));
+
+        verify(this.connection, never()).searchAsync(anyString(), anyString(), any(String[].class), anyInt());
+    }
+
+    @Test
+    public void getUserGroups()
+    {
+        when(this.configuration.getLDAPParam(XWikiLDAPConfig.PREF_LDAP_UPDATE_PHOTO, "0")).thenReturn("0");
+
+        assertNull(this.utils.getAttributeNameTable(null));
+        assertNull(this.utils.getUserGroups(Arrays.asList(new XWikiLDAPSearchAttribute("cn", "John"))));
+
+        when(this.configuration.getUserGroupsAttribute()).thenReturn("memberOf");
+
+        assertArrayEquals(new String[] {"*", "memberOf"}, this.utils.getAttributeNameTable(null));
+        assertNull(this.utils.getUserGroups(null));
+        assertEquals(Collections.emptySet(),
+            this.utils.getUserGroups(Arrays.asList(new XWikiLDAPSearchAttribute("cn", "John"))));
+        assertEquals(new HashSet<>(Arrays.asList("cn=group1,dc=xwiki,dc=org", "cn=group2,dc=xwiki,dc=org")),
+            this.utils.getUserGroups(Arrays.asList(new XWikiLDAPSearchAttribute("cn", "John"),
+                new XWikiLDAPSearchAttribute("memberOf", "CN=Group1,DC=xwiki,DC=org"),
+                new XWikiLDAPSearchAttribute("memberof", "cn=group2,dc=xwiki,dc=org"))));
+    }
+
+    private LDAPAttribute attributeEq(final String name, final String value)
+    {
+        return argThat(new ArgumentMatcher<LDAPAttribute>()
+        {
+            @Override
+            public boolean matches(Object argument)
+            {
+                LDAPAttribute attribute = (LDAPAttribute) argument;
+
+                return name.equals(attribute.getName()) && value.equals(attribute.getStringValue());
+            }
+        });
+    }
+
+    @Test
+    public void isDirectMember() throws LDAPException
+    {
+        this.utils.setGroupMemberFields(Arrays.asList("member", "memberUid"));
+        this.utils.setUidAttributeName("uid");
+
+        String group = "cn=group,dc=xwiki,dc=org";
+        when(this.connection.compare(eq(group), attributeEq("member", "uid=user1,dc=xwiki,dc=org"))).thenReturn(true);
+
+        assertTrue(this.utils.isDirectMember("uid=user1,dc=xwiki,dc=org", group));
+        assertFalse(this.utils.isDirectMember("uid=user2,dc=xwiki,dc=org", group));
+
+        // The DN is never compared with uid fields
+        verify(this.connection, never()).compare(eq(group), attributeEq("memberUid", "uid=user2,dc=xwiki,dc=org"));
+    }
+
+    @Test
+    public void isDirectMemberWithInvalidSyntax() throws LDAPException
+    {
+        this.utils.setGroupMemberFields(Arrays.asList("member", "uniqueMember"));
+        this.utils.setUidAttributeName("uid");
+
+        String group = "cn=group,dc=xwiki,dc=org";
+        when(this.connection.compare(eq(group), attributeEq("member", "uid=user1,dc=xwiki,dc=org")))
+            .thenThrow(new LDAPException(null, LDAPException.INVALID_ATTRIBUTE_SYNTAX, null));
+        when(this.connection.compare(eq(group), attributeEq("uniqueMember", "uid=user1,dc=xwiki,dc=org")))
+            .thenReturn(true);
+
+        assertTrue(this.utils.isDirectMember("uid=user1,dc=xwiki,dc=org", group));
+    }
+
+    private PagedLDAPSearchResults mockSearch(String dn, LDAPEntry... entries) throws LDAPException
+    {
+        PagedLDAPSearchResults result = mock(PagedLDAPSearchResults.class);
+        when(result.iterator()).thenReturn(Arrays.asList(entries).iterator());
+        when(this.connection.searchPaginated(eq(dn), eq(LDAPConnection.SCOPE_SUB), anyString(), any(String[].class),
+            eq(false))).thenReturn(result);
+
+        return result;
+    }
+
+    private LDAPGroupsCache setFlatGroup(String... members) throws Exception
+    {
+        this.utils.setGroupMemberFields(Arrays.asList("member", "memberUid"));
+        this.utils.setUidAttributeName("uid");
+
+        String group = "cn=group,dc=xwiki,dc=org";
+        mockSearch(group, entry(group, attribute("objectClass", "group"), attribute("member", members)));
+        mockSearch("uid=user1,dc=xwiki,dc=org", entry("uid=user1,dc=xwiki,dc=org", attribute("uid", "user1")));
+        mockSearch("ou=users,dc=xwiki,dc=org", entry("ou=users,dc=xwiki,dc=org"),
+            entry("uid=user2,dc=xwiki,dc=org", attribute("uid", "user2")));
+
+        LDAPGroupsCache caches = mock(LDAPGroupsCache.class);
+        when(caches.getGroupCache(this.utils)).thenReturn(mock(Cache.class));
+        ReflectionUtils.setFieldValue(this.utils, "caches", caches);
+
+        this.utils.getGroupMembers(group, null);
+
+        return caches;
+    }
+
+    @Test
+    public void setFlatGroupWithDirectMembers() throws Exception
+    {
+        LDAPGroupsCache caches = setFlatGroup("uid=user1,dc=xwiki,dc=org");
+
+        verify(caches).setFlatGroup(this.utils, "cn=group,dc=xwiki,dc=org", true);
+    }
+
+    @Test
+    public void setFlatGroupWithIndirectMembers() throws Exception
+    {
+        // The members of an organization unit are not listed with their DN
+        LDAPGroupsCache caches = setFlatGroup("uid=user1,dc=xwiki,dc=org", "ou=users,dc=xwiki,dc=org");
+
+        verify(caches).setFlatGroup(this.utils, "cn=group,dc=xwiki,dc=org", false);
+
+        // Neither are the members of a posixGroup listed by uid
+        caches = setFlatGroup("user1");
+
+        verify(caches).setFlatGroup(this.utils, "cn=group,dc=xwiki,dc=org", false);
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validate {@link LDAPCanonicalDN}.
+ * 
+ * @version $Id$
+ */
+public class LDAPCanonicalDNTest
+{
+    @Test
+    public void normalize()
+    {
+        assertEquals("cn=horatio hornblower,ou=people,o=sevenseas",
+            LDAPCanonicalDN.normalize("cn=Horatio Hornblower, ou=people ,o=sevenSeas"));
+        assertEquals("cn=a\\,b,o=x", LDAPCanonicalDN.normalize("CN = a\\,b ; O=X"));
+        assertEquals("cn=a+sn=b,o=x", LDAPCanonicalDN.normalize("cn=a + sn=b,o=x"));
+        assertEquals("cn=a\\ ,o=y", LDAPCanonicalDN.normalize("cn=a\\ ,o=y"));
+        assertEquals("cn=\" q, x \",o=y", LDAPCanonicalDN.normalize("cn=\" q, x \" , o=y"));
+        assertEquals("cn=\"q\\\"x\",o=y", LDAPCanonicalDN.normalize("cn=\"q\\\"x\",o=y"));
+        // Escaped characters
+        assertEquals("cn=a\\,b,o=x", LDAPCanonicalDN.normalize("cn=a\\2Cb,o=x"));
+        assertEquals("cn=a\\,b,o=x", LDAPCanonicalDN.normalize("cn=a\\2cb,o=x"));
+        assertEquals("cn=ab,o=x", LDAPCanonicalDN.normalize("cn=a\\62,o=x"));
+        assertEquals("cn=\u00e9a\\ ,o=x", LDAPCanonicalDN.normalize("cn=\\C3\\A9A\\20,o=x"));
+        assertEquals("cn=\\#a\\\\b,o=x", LDAPCanonicalDN.normalize("cn=\\23a\\5Cb,o=x"));
+        assertEquals("cn=\\ff,o=x", LDAPCanonicalDN.normalize("cn=\\FF,o=x"));
+    }
+
+    @Test
+    public void valueOf()
+    {
+        LDAPCanonicalDN dn = LDAPCanonicalDN.valueOf("cn=Horatio Hornblower, ou=people,o=sevenSeas");
+
+        assertEquals("cn=horatio hornblower,ou=people,o=sevenseas", dn.toString());
+        assertSame(dn, LDAPCanonicalDN.valueOf("CN=Horatio Hornblower,OU=people,O=sevenSeas"));
+        assertSame(dn, LDAPCanonicalDN.valueOf("cn=horatio hornblower,ou=people,o=sevenseas"));
+
+        assertNull(LDAPCanonicalDN.valueOf("(cn=Top group)"));
+        assertNull(LDAPCanonicalDN.valueOf(null));
+        assertTrue(LDAPCanonicalDN.isValid("uid=a,dc=org"));
+        assertFalse(LDAPCanonicalDN.isValid("User.With.Points"));
+
+        assertEquals("(cn=top group)", LDAPCanonicalDN.canonicalize("(cn=Top group)"));
+        assertEquals("uid=a,dc=org", LDAPCanonicalDN.canonicalize("uid=A , DC=org"));
+    }
+
+    @Test
+    public void cacheIsBounded()
+    {
+        LDAPCanonicalDN.clearCache();
+
+        LDAPCanonicalDN dn = LDAPCanonicalDN.valueOf("uid=a,dc=org");
+
+        for (int i = 0; i < 150000; ++i) {
+            LDAPCanonicalDN.isValid("user" + i);
+
+            if (i % 1000 == 0) {
+                // Recently used DNs are kept
+                assertSame(dn, LDAPCanonicalDN.valueOf("uid=a,dc=org"));
+            }
+        }
+
+        assertTrue(LDAPCanonicalDN.getCacheSize() <= 100000);
+        assertTrue(LDAPCanonicalDN.getCacheSize() > 90000);
+        assertSame(dn, LDAPCanonicalDN.valueOf("uid=a,dc=org"));
+    }
+}
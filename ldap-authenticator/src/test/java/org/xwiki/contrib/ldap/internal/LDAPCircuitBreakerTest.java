@@ -0,0 +1,208 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.internal.LDAPCircuitBreaker.State;
+
+import com.novell.ldap.LDAPException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPCircuitBreaker}.
+ * 
+ * @version $Id$
+ */
+public class LDAPCircuitBreakerTest
+{
+    private static final LDAPException CONNECT_ERROR =
+        new LDAPException("connect", LDAPException.CONNECT_ERROR, null);
+
+    private static final LDAPException INVALID_CREDENTIALS =
+        new LDAPException("credentials", LDAPException.INVALID_CREDENTIALS, null);
+
+    private static final String SERVER = "ldap:389";
+
+    private static final String OTHER_SERVER = "ldap2:389";
+
+    private LDAPCircuitBreaker circuitBreaker;
+
+    private XWikiLDAPConfig configuration;
+
+    @Before
+    public void before()
+    {
+        this.circuitBreaker = new LDAPCircuitBreaker();
+
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.isCircuitBreakerEnabled()).thenReturn(true);
+        when(this.configuration.getCircuitBreakerFailureRate()).thenReturn(50);
+        when(this.configuration.getCircuitBreakerWindowSize()).thenReturn(4);
+        when(this.configuration.getCircuitBreakerMinimumCalls()).thenReturn(4);
+        when(this.configuration.getCircuitBreakerOpenDuration()).thenReturn(60000L);
+        when(this.configuration.getCircuitBreakerHalfOpenCalls()).thenReturn(2);
+    }
+
+    private void call(Exception error) throws LDAPException
+    {
+        this.circuitBreaker.acquire(this.configuration, SERVER);
+
+        if (error != null) {
+            this.circuitBreaker.failure(this.configuration, SERVER, error);
+        } else {
+            this.circuitBreaker.success(this.configuration, SERVER);
+        }
+    }
+
+    private void assertFailFast()
+    {
+        try {
+            this.circuitBreaker.acquire(this.configuration, SERVER);
+            fail();
+        } catch (LDAPException e) {
+            assertEquals(LDAPException.UNAVAILABLE, e.getResultCode());
+        }
+    }
+
+    @Test
+    public void openWhenFailureRateReached() throws LDAPException
+    {
+        call(CONNECT_ERROR);
+        call(null);
+        call(INVALID_CREDENTIALS);
+
+        // Not enough calls yet
+        assertEquals(State.CLOSED, this.circuitBreaker.getState(SERVER));
+
+        call(CONNECT_ERROR);
+
+        assertEquals(State.OPEN, this.circuitBreaker.getState(SERVER));
+        assertFailFast();
+    }
+
+    @Test
+    public void stayClosedWithRequestErrors() throws LDAPException
+    {
+        for (int i = 0; i < 10; ++i) {
+            call(INVALID_CREDENTIALS);
+        }
+
+        assertEquals(State.CLOSED, this.circuitBreaker.getState(SERVER));
+    }
+
+    @Test
+    public void halfOpen() throws LDAPException
+    {
+        when(this.configuration.getCircuitBreakerOpenDuration()).thenReturn(0L);
+
+        for (int i = 0; i < 4; ++i) {
+            call(CONNECT_ERROR);
+        }
+        assertEquals(State.OPEN, this.circuitBreaker.getState(SERVER));
+
+        // First trial call
+        this.circuitBreaker.acquire(this.configuration, SERVER);
+        assertEquals(State.HALF_OPEN, this.circuitBreaker.getState(SERVER));
+        // Second trial call
+        this.circuitBreaker.acquire(this.configuration, SERVER);
+        // No more trial calls allowed
+        assertFailFast();
+
+        this.circuitBreaker.success(this.configuration, SERVER);
+        assertEquals(State.HALF_OPEN, this.circuitBreaker.getState(SERVER));
+        this.circuitBreaker.success(this.configuration, SERVER);
+        assertEquals(State.CLOSED, this.circuitBreaker.getState(SERVER));
+    }
+
+    @Test
+    public void halfOpenFailure() throws LDAPException
+    {
+        when(this.configuration.getCircuitBreakerOpenDuration()).thenReturn(0L);
+
+        for (int i = 0; i < 4; ++i) {
+            call(CONNECT_ERROR);
+        }
+
+        call(CONNECT_ERROR);
+
+        assertEquals(State.OPEN, this.circuitBreaker.getState(SERVER));
+    }
+
+    @Test
+    public void openPerServer() throws LDAPException
+    {
+        for (int i = 0; i < 4; ++i) {
+            call(CONNECT_ERROR);
+        }
+
+        assertEquals(State.OPEN, this.circuitBreaker.getState(SERVER));
+
+        // The other servers of the list can still be used
+        this.circuitBreaker.acquire(this.configuration, OTHER_SERVER);
+        assertEquals(State.CLOSED, this.circuitBreaker.getState(OTHER_SERVER));
+    }
+
+    @Test
+    public void openWithUnexpectedErrors() throws LDAPException
+    {
+        for (int i = 0; i < 4; ++i) {
+            call(new IllegalStateException());
+        }
+
+        assertEquals(State.OPEN, this.circuitBreaker.getState(SERVER));
+    }
+
+    @Test
+    public void stayClosedWithServerSideLimits() throws LDAPException
+    {
+        for (int i = 0; i < 10; ++i) {
+            call(new LDAPException("time limit", LDAPException.TIME_LIMIT_EXCEEDED, null));
+            call(new LDAPException("unwilling", LDAPException.UNWILLING_TO_PERFORM, null));
+            call(new LDAPException("other", LDAPException.OTHER, null));
+        }
+
+        assertEquals(State.CLOSED, this.circuitBreaker.getState(SERVER));
+    }
+
+    @Test
+    public void halfOpenRelease() throws LDAPException
+    {
+        when(this.configuration.getCircuitBreakerOpenDuration()).thenReturn(0L);
+
+        for (int i = 0; i < 4; ++i) {
+            call(CONNECT_ERROR);
+        }
+
+        this.circuitBreaker.acquire(this.configuration, SERVER);
+        this.circuitBreaker.acquire(this.configuration, SERVER);
+        assertFailFast();
+
+        // An abandoned trial call lets another one go through
+        this.circuitBreaker.release(this.configuration, SERVER);
+        this.circuitBreaker.acquire(this.configuration, SERVER);
+        assertEquals(State.HALF_OPEN, this.circuitBreaker.getState(SERVER));
+    }
+}
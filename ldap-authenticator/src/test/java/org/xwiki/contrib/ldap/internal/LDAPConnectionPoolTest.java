@@ -0,0 +1,269 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+import com.novell.ldap.LDAPSearchConstraints;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPConnectionPool}.
+ * 
+ * @version $Id$
+ */
+public class LDAPConnectionPoolTest
+{
+    private static final String KEY = LDAPConnectionPool.getKey("localhost", 389, false, "cn=admin", "secret");
+
+    private static final String CREDENTIALS_KEY =
+        LDAPConnectionPool.getKey("localhost", 389, false, "", "") + "#credentials";
+
+    private static final byte[] PASSWORD = "secret".getBytes();
+
+    private LDAPConnectionPool pool;
+
+    private XWikiLDAPConfig configuration;
+
+    private int created;
+
+    private LDAPConnectionPool.ConnectionFactory factory = new LDAPConnectionPool.ConnectionFactory()
+    {
+        @Override
+        public LDAPConnection createConnection() throws LDAPException
+        {
+            created++;
+
+            LDAPConnection connection = mock(LDAPConnection.class);
+            when(connection.isConnected()).thenReturn(true);
+            when(connection.isConnectionAlive()).thenReturn(true);
+
+            return connection;
+        }
+    };
+
+    @Before
+    public void before()
+    {
+        this.pool = new LDAPConnectionPool();
+
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.getConnectionPoolMaxSize()).thenReturn(2);
+        when(this.configuration.getConnectionPoolIdleTimeout()).thenReturn(60000L);
+        when(this.configuration.getConnectionPoolMaxWait()).thenReturn(10L);
+    }
+
+    @Test
+    public void getKey()
+    {
+        assertEquals(KEY, LDAPConnectionPool.getKey("localhost", 389, false, "cn=admin", "secret"));
+        assertFalse(KEY.equals(LDAPConnectionPool.getKey("localhost", 389, false, "cn=other", "secret")));
+        assertFalse(KEY.equals(LDAPConnectionPool.getKey("localhost", 389, true, "cn=admin", "secret")));
+        assertFalse(KEY.equals(LDAPConnectionPool.getKey("localhost", 389, false, "cn=admin", "other")));
+        assertFalse(KEY.contains("secret"));
+    }
+
+    @Test
+    public void releaseResetConstraints() throws LDAPException
+    {
+        PooledLDAPConnection connection = this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+        this.pool.release(connection);
+
+        verify(connection.getConnection()).setConstraints(any(LDAPSearchConstraints.class));
+    }
+
+    @Test
+    public void borrowReuseReleasedConnection() throws LDAPException
+    {
+        PooledLDAPConnection connection = this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+        this.pool.release(connection);
+
+        assertSame(connection, this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory));
+        assertEquals(1, this.created);
+    }
+
+    @Test
+    public void borrowDiscardDeadConnection() throws LDAPException
+    {
+        PooledLDAPConnection connection = this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+        this.pool.release(connection);
+
+        when(connection.getConnection().isConnectionAlive()).thenReturn(false);
+
+        assertNotSame(connection, this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory));
+        assertEquals(2, this.created);
+        verify(connection.getConnection()).disconnect();
+    }
+
+    @Test
+    public void borrowWhenFull() throws LDAPException
+    {
+        this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+        PooledLDAPConnection connection = this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+
+        try {
+            this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+            fail("Should have failed to get a connection from a full pool");
+        } catch (LDAPException expected) {
+            assertEquals(LDAPException.CONNECT_ERROR, expected.getResultCode());
+        }
+
+        // Invalidating a connection makes room for a new one
+        this.pool.invalidate(connection);
+
+        this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+        assertEquals(3, this.created);
+    }
+
+    @Test
+    public void borrowEvictIdleConnections() throws LDAPException
+    {
+        when(this.configuration.getConnectionPoolIdleTimeout()).thenReturn(-1L);
+
+        PooledLDAPConnection connection = this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+        this.pool.release(connection);
+
+        assertNotSame(connection, this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory));
+        verify(connection.getConnection()).disconnect();
+    }
+
+    @Test
+    public void releaseTwice() throws LDAPException
+    {
+        PooledLDAPConnection connection = this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+        this.pool.release(connection);
+        this.pool.release(connection);
+
+        assertSame(connection, this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory));
+        assertNotSame(connection, this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory));
+    }
+
+    @Test
+    public void evict() throws LDAPException
+    {
+        PooledLDAPConnection borrowed = this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+        PooledLDAPConnection idle = this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+        this.pool.release(idle);
+
+        // Nothing expired yet
+        this.pool.evict();
+
+        assertEquals(1, this.pool.getPartitionCount());
+        verify(idle.getConnection(), never()).disconnect();
+
+        when(this.configuration.getConnectionPoolIdleTimeout()).thenReturn(-1L);
+        idle = this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+        this.pool.release(idle);
+
+        // The partition is kept as long as one of its connections is borrowed
+        this.pool.evict();
+
+        assertEquals(1, this.pool.getPartitionCount());
+        verify(idle.getConnection()).disconnect();
+
+        this.pool.release(borrowed);
+        this.pool.evict();
+
+        assertEquals(0, this.pool.getPartitionCount());
+        verify(borrowed.getConnection()).disconnect();
+
+        // A new partition is created when needed
+        this.pool.borrow(KEY, "cn=admin", this.configuration, this.factory);
+
+        assertEquals(1, this.pool.getPartitionCount());
+    }
+
+    @Test
+    public void verifyCredentials() throws LDAPException
+    {
+        PooledLDAPConnection connection = this.pool.borrow(CREDENTIALS_KEY, "", this.configuration, this.factory);
+
+        this.pool.verifyCredentials(connection, "uid=john,dc=org", PASSWORD);
+
+        verify(connection.getConnection()).bind(LDAPConnection.LDAP_V3, "uid=john,dc=org", PASSWORD);
+        verify(connection.getConnection(), never()).disconnect();
+
+        // The connection went back to the pool
+        assertSame(connection, this.pool.borrow(CREDENTIALS_KEY, "", this.configuration, this.factory));
+        assertEquals(1, this.created);
+    }
+
+    @Test
+    public void verifyInvalidCredentials() throws LDAPException
+    {
+        PooledLDAPConnection connection = this.pool.borrow(CREDENTIALS_KEY, "", this.configuration, this.factory);
+        doThrow(new LDAPException("Invalid credentials", LDAPException.INVALID_CREDENTIALS, null))
+            .when(connection.getConnection()).bind(anyInt(), anyString(), aryEq(PASSWORD));
+
+        try {
+            this.pool.verifyCredentials(connection, "uid=john,dc=org", PASSWORD);
+            fail("Should have failed to verify invalid credentials");
+        } catch (LDAPException expected) {
+            assertEquals(LDAPException.INVALID_CREDENTIALS, expected.getResultCode());
+        }
+
+        // Rejected credentials don't say anything wrong about the connection
+        verify(connection.getConnection(), never()).disconnect();
+        assertSame(connection, this.pool.borrow(CREDENTIALS_KEY, "", this.configuration, this.factory));
+        assertEquals(1, this.created);
+    }
+
+    @Test
+    public void verifyCredentialsWithError() throws LDAPException
+    {
+        PooledLDAPConnection connection = this.pool.borrow(CREDENTIALS_KEY, "", this.configuration, this.factory);
+        doThrow(new LDAPException("Server down", LDAPException.SERVER_DOWN, null)).when(connection.getConnection())
+            .bind(anyInt(), anyString(), aryEq(PASSWORD));
+
+        try {
+            this.pool.verifyCredentials(connection, "uid=john,dc=org", PASSWORD);
+            fail("Should have failed to verify credentials");
+        } catch (LDAPException expected) {
+            assertEquals(LDAPException.SERVER_DOWN, expected.getResultCode());
+        }
+
+        // The connection is in an unknown state and is not reused
+        verify(connection.getConnection()).disconnect();
+        assertNotSame(connection, this.pool.borrow(CREDENTIALS_KEY, "", this.configuration, this.factory));
+        assertEquals(2, this.created);
+
+        // The invalidated connection does not count anymore in the size of the partition
+        this.pool.borrow(CREDENTIALS_KEY, "", this.configuration, this.factory);
+        assertEquals(3, this.created);
+    }
+}
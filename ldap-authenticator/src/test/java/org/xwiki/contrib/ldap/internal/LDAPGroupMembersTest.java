@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validate {@link LDAPGroupMembers}.
+ * 
+ * @version $Id$
+ */
+public class LDAPGroupMembersTest
+{
+    @Test
+    public void sharedDictionary()
+    {
+        LDAPStringDictionary dictionary = new LDAPStringDictionary();
+
+        String memberA = "uid=a,dc=org";
+
+        Map<String, String> members1 = new HashMap<>();
+        members1.put("uid=b,dc=org", "b");
+        members1.put(memberA, "a");
+        members1.put("cn=group,dc=org", "");
+        members1.put("uid=n,dc=org", null);
+
+        Map<String, String> members2 = new HashMap<>();
+        members2.put(new String("uid=a,dc=org"), new String("a"));
+
+        LDAPGroupMembers group1 = new LDAPGroupMembers(members1, "uid", dictionary);
+        LDAPGroupMembers group2 = new LDAPGroupMembers(members2, "uid", dictionary);
+
+        assertEquals(members1, group1);
+        assertEquals(members2, group2);
+        assertEquals(4, group1.size());
+        assertTrue(group1.containsKey("uid=n,dc=org"));
+        assertNull(group1.get("uid=n,dc=org"));
+        assertFalse(group1.containsKey("uid=c,dc=org"));
+        assertFalse(group2.containsKey("uid=b,dc=org"));
+        assertNull(group2.get("uid=b,dc=org"));
+
+        // The strings (including the uid RDN values) are stored once
+        assertEquals(8, dictionary.size());
+        assertSame(group1.get(memberA), group2.get(memberA));
+        assertSame(memberA, group2.keySet().iterator().next());
+    }
+
+    @Test
+    public void getMemberByUid()
+    {
+        Map<String, String> members = new HashMap<>();
+        members.put("uid=a,ou=people,dc=org", "a");
+        members.put("uid=b ,ou=people,dc=org", "");
+        members.put("cn=c,ou=people,dc=org", "Cuid");
+        members.put("cn=group,dc=org", "");
+
+        LDAPGroupMembers group = new LDAPGroupMembers(members, "UID", new LDAPStringDictionary());
+
+        assertEquals("uid=a,ou=people,dc=org", group.getMemberByUid("A"));
+        assertEquals("uid=b ,ou=people,dc=org", group.getMemberByUid("b"));
+        assertEquals("cn=c,ou=people,dc=org", group.getMemberByUid("cuid"));
+        assertNull(group.getMemberByUid("c"));
+        assertNull(group.getMemberByUid("group"));
+        assertNull(group.getMemberByUid("d"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void immutable()
+    {
+        new LDAPGroupMembers(new HashMap<String, String>(), "uid", new LDAPStringDictionary()).put("uid=a,dc=org", "a");
+    }
+}
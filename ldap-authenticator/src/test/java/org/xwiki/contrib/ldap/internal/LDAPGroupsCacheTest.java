@@ -0,0 +1,199 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+import org.xwiki.cache.CacheEntry;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+import org.xwiki.contrib.ldap.XWikiLDAPConnection;
+import org.xwiki.contrib.ldap.XWikiLDAPUtils;
+
+import com.novell.ldap.LDAPConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPGroupsCache}.
+ * 
+ * @version $Id$
+ */
+public class LDAPGroupsCacheTest
+{
+    private static Map<String, String> members(String... dns)
+    {
+        Map<String, String> members = new HashMap<>();
+        for (String dn : dns) {
+            members.put(dn, "");
+        }
+
+        return members;
+    }
+
+    private static XWikiLDAPUtils utils(XWikiLDAPConfig configuration)
+    {
+        LDAPConnection ldapConnection = mock(LDAPConnection.class);
+        when(ldapConnection.getHost()).thenReturn("localhost");
+        when(ldapConnection.getPort()).thenReturn(389);
+        XWikiLDAPConnection connection = mock(XWikiLDAPConnection.class);
+        when(connection.getConnection()).thenReturn(ldapConnection);
+
+        XWikiLDAPUtils utils = mock(XWikiLDAPUtils.class);
+        when(utils.getUidAttributeName()).thenReturn("uid");
+        when(utils.getConnection()).thenReturn(connection);
+        when(utils.getConfiguration()).thenReturn(configuration);
+
+        return utils;
+    }
+
+    @Test
+    public void membershipIndex()
+    {
+        LDAPGroupsCache.MembershipIndex index = new LDAPGroupsCache.MembershipIndex();
+
+        Map<String, String> group1 = members("uid=a,dc=org", "uid=b,dc=org");
+        index.index("cn=group1,dc=org", group1);
+        index.index("cn=group2,dc=org", members("uid=b,dc=org"));
+
+        assertTrue(index.isIndexed("cn=group1,dc=org"));
+        assertEquals(Collections.singleton("cn=group1,dc=org"), index.getGroups("uid=a,dc=org"));
+        assertEquals(new HashSet<>(Arrays.asList("cn=group1,dc=org", "cn=group2,dc=org")),
+            index.getGroups("uid=b,dc=org"));
+        assertEquals(Collections.emptySet(), index.getGroups("uid=c,dc=org"));
+
+        // Reloaded group
+        Map<String, String> reloadedGroup1 = members("uid=c,dc=org");
+        index.index("cn=group1,dc=org", reloadedGroup1);
+
+        assertEquals(Collections.emptySet(), index.getGroups("uid=a,dc=org"));
+        assertEquals(Collections.singleton("cn=group2,dc=org"), index.getGroups("uid=b,dc=org"));
+        assertEquals(Collections.singleton("cn=group1,dc=org"), index.getGroups("uid=c,dc=org"));
+
+        // The removal of the previous members of the group should not affect the new ones
+        index.remove("cn=group1,dc=org", group1);
+
+        assertTrue(index.isIndexed("cn=group1,dc=org"));
+        assertEquals(Collections.singleton("cn=group1,dc=org"), index.getGroups("uid=c,dc=org"));
+
+        index.remove("cn=group1,dc=org", reloadedGroup1);
+
+        assertFalse(index.isIndexed("cn=group1,dc=org"));
+        assertEquals(Collections.emptySet(), index.getGroups("uid=c,dc=org"));
+    }
+
+    @Test
+    public void dictionaryRenewedAfterLifespan()
+    {
+        LDAPGroupsCache.MembershipIndex index = new LDAPGroupsCache.MembershipIndex();
+
+        LDAPStringDictionary dictionary = index.getDictionary(3600000);
+
+        assertSame(dictionary, index.getDictionary(3600000));
+
+        // The groups using the previous dictionary expired
+        LDAPStringDictionary newDictionary = index.getDictionary(0);
+
+        assertNotSame(dictionary, newDictionary);
+        assertSame(newDictionary, index.getDictionary(3600000));
+    }
+
+    @Test
+    public void flatGroup()
+    {
+        XWikiLDAPConfig configuration = mock(XWikiLDAPConfig.class);
+        when(configuration.getCacheExpiration()).thenReturn(3600);
+        XWikiLDAPUtils utils = utils(configuration);
+
+        LDAPGroupsCache caches = new LDAPGroupsCache();
+
+        assertFalse(caches.isFlatGroup(utils, "cn=group,dc=org"));
+
+        caches.setFlatGroup(utils, "cn=group,dc=org", true);
+
+        assertTrue(caches.isFlatGroup(utils, "CN=Group, DC=org"));
+
+        caches.setFlatGroup(utils, "cn=group,dc=org", false);
+
+        assertFalse(caches.isFlatGroup(utils, "cn=group,dc=org"));
+
+        // The flag expires with the cache entries
+        caches.setFlatGroup(utils, "cn=group,dc=org", true);
+        when(configuration.getCacheExpiration()).thenReturn(0);
+
+        assertFalse(caches.isFlatGroup(utils, "cn=group,dc=org"));
+
+        when(configuration.getCacheExpiration()).thenReturn(3600);
+
+        assertFalse(caches.isFlatGroup(utils, "cn=group,dc=org"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static CacheEntryEvent<Map<String, String>> event(String key, Map<String, String> value)
+    {
+        CacheEntry<Map<String, String>> entry = mock(CacheEntry.class);
+        when(entry.getKey()).thenReturn(key);
+        when(entry.getValue()).thenReturn(value);
+        CacheEntryEvent<Map<String, String>> event = mock(CacheEntryEvent.class);
+        when(event.getEntry()).thenReturn(entry);
+
+        return event;
+    }
+
+    @Test
+    public void groupVersionForgottenWhenEvicted()
+    {
+        XWikiLDAPConfig configuration = mock(XWikiLDAPConfig.class);
+        when(configuration.getCacheExpiration()).thenReturn(3600);
+        XWikiLDAPUtils utils = utils(configuration);
+
+        LDAPGroupsCache caches = new LDAPGroupsCache();
+        Map<String, String> members = members("uid=a,dc=org");
+        caches.setGroupVersion(utils, "cn=group,dc=org", members, Collections.singletonMap("cn=group,dc=org", "1"));
+
+        // Expired entries are kept to be refreshed
+        caches.new VersionsListener("uid.localhost:389", 0).cacheEntryRemoved(event("cn=group,dc=org", members));
+
+        assertNotNull(caches.getGroupVersion(utils, "cn=group,dc=org"));
+
+        // Entries removed before their lifespan are evicted, unless they were expanded again in the meantime
+        LDAPGroupsCache.VersionsListener listener = caches.new VersionsListener("uid.localhost:389", 600000);
+        listener.cacheEntryRemoved(event("cn=group,dc=org", members("uid=a,dc=org")));
+
+        assertNotNull(caches.getGroupVersion(utils, "cn=group,dc=org"));
+
+        listener.cacheEntryRemoved(event("cn=group,dc=org", members));
+
+        assertNull(caches.getGroupVersion(utils, "cn=group,dc=org"));
+    }
+}
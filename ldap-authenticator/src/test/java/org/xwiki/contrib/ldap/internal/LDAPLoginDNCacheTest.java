@@ -0,0 +1,233 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPLoginDNCache}.
+ *
+ * @version $Id$
+ */
+public class LDAPLoginDNCacheTest
+{
+    private static final String KEY = "localhost:389/dc=org/john@example.org";
+
+    private CacheManager cacheManager;
+
+    private Map<String, Cache<String>> caches = new HashMap<>();
+
+    private Map<String, LRUCacheConfiguration> configurations = new HashMap<>();
+
+    private XWikiLDAPConfig configuration;
+
+    private LDAPLoginDNCache loginDNCache;
+
+    @Before
+    public void before() throws CacheException
+    {
+        this.cacheManager = mock(CacheManager.class);
+        when(this.cacheManager.createNewCache(any(CacheConfiguration.class))).thenAnswer(new Answer<Cache<String>>()
+        {
+            @Override
+            public Cache<String> answer(InvocationOnMock invocation)
+            {
+                LRUCacheConfiguration cacheConfiguration = (LRUCacheConfiguration) invocation.getArguments()[0];
+
+                // Simple map backed cache, expiration is simulated by removing the entry
+                final Map<String, String> entries = new HashMap<>();
+                Cache<String> cache = mock(Cache.class);
+                when(cache.get(anyString())).thenAnswer(new Answer<String>()
+                {
+                    @Override
+                    public String answer(InvocationOnMock invocation)
+                    {
+                        return entries.get(invocation.getArguments()[0]);
+                    }
+                });
+                doAnswer(new Answer<Void>()
+                {
+                    @Override
+                    public Void answer(InvocationOnMock invocation)
+                    {
+                        entries.put((String) invocation.getArguments()[0], (String) invocation.getArguments()[1]);
+
+                        return null;
+                    }
+                }).when(cache).set(anyString(), anyString());
+                doAnswer(new Answer<Void>()
+                {
+                    @Override
+                    public Void answer(InvocationOnMock invocation)
+                    {
+                        entries.remove(invocation.getArguments()[0]);
+
+                        return null;
+                    }
+                }).when(cache).remove(anyString());
+
+                configurations.put(cacheConfiguration.getConfigurationId(), cacheConfiguration);
+                caches.put(cacheConfiguration.getConfigurationId(), cache);
+
+                return cache;
+            }
+        });
+
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.getLoginDNCacheExpiration()).thenReturn(3600);
+        when(this.configuration.getLoginDNCacheUnresolvedExpiration()).thenReturn(300);
+        when(this.configuration.getLoginDNCacheSize()).thenReturn(100);
+
+        this.loginDNCache = new LDAPLoginDNCache();
+        ReflectionUtils.setFieldValue(this.loginDNCache, "cacheManager", this.cacheManager);
+    }
+
+    @Test
+    public void resolved()
+    {
+        assertNull(this.loginDNCache.get(this.configuration, KEY));
+
+        this.loginDNCache.set(this.configuration, KEY, "uid=john,dc=org");
+
+        assertEquals("uid=john,dc=org", this.loginDNCache.get(this.configuration, KEY));
+
+        LRUCacheConfiguration cacheConfiguration = this.configurations.get("ldap.logindn");
+        assertEquals(3600, cacheConfiguration.getLRUEvictionConfiguration().getLifespan());
+        assertEquals(100, cacheConfiguration.getLRUEvictionConfiguration().getMaxEntries());
+    }
+
+    @Test
+    public void unresolved()
+    {
+        this.loginDNCache.setUnresolved(this.configuration, KEY, "john@example.org");
+
+        assertEquals("john@example.org", this.loginDNCache.get(this.configuration, KEY));
+
+        // Unresolved inputs have their own (shorter) lifespan
+        LRUCacheConfiguration cacheConfiguration = this.configurations.get("ldap.logindn.unresolved");
+        assertEquals(300, cacheConfiguration.getLRUEvictionConfiguration().getLifespan());
+        assertEquals(100, cacheConfiguration.getLRUEvictionConfiguration().getMaxEntries());
+
+        // Once expired the input has to be resolved again
+        this.caches.get("ldap.logindn.unresolved").remove(KEY);
+
+        assertNull(this.loginDNCache.get(this.configuration, KEY));
+    }
+
+    @Test
+    public void resolvedTakesPrecedenceOverUnresolved()
+    {
+        this.loginDNCache.setUnresolved(this.configuration, KEY, "john@example.org");
+        this.loginDNCache.set(this.configuration, KEY, "uid=john,dc=org");
+
+        assertEquals("uid=john,dc=org", this.loginDNCache.get(this.configuration, KEY));
+
+        // The resolved DN expired before the unresolved input
+        this.caches.get("ldap.logindn").remove(KEY);
+
+        assertEquals("john@example.org", this.loginDNCache.get(this.configuration, KEY));
+    }
+
+    @Test
+    public void unresolvedDisabled()
+    {
+        when(this.configuration.getLoginDNCacheUnresolvedExpiration()).thenReturn(0);
+
+        this.loginDNCache.setUnresolved(this.configuration, KEY, "john@example.org");
+
+        assertNull(this.loginDNCache.get(this.configuration, KEY));
+        assertNull(this.caches.get("ldap.logindn.unresolved"));
+
+        // The resolved cache is not affected
+        this.loginDNCache.set(this.configuration, KEY, "uid=john,dc=org");
+
+        assertEquals("uid=john,dc=org", this.loginDNCache.get(this.configuration, KEY));
+    }
+
+    @Test
+    public void disabled() throws CacheException
+    {
+        when(this.configuration.getLoginDNCacheExpiration()).thenReturn(0);
+        when(this.configuration.getLoginDNCacheUnresolvedExpiration()).thenReturn(-1);
+
+        this.loginDNCache.set(this.configuration, KEY, "uid=john,dc=org");
+        this.loginDNCache.setUnresolved(this.configuration, KEY, "john@example.org");
+
+        assertNull(this.loginDNCache.get(this.configuration, KEY));
+        verify(this.cacheManager, never()).createNewCache(any(CacheConfiguration.class));
+    }
+
+    @Test
+    public void newCacheWhenConfigurationChanges()
+    {
+        this.loginDNCache.set(this.configuration, KEY, "uid=john,dc=org");
+        Cache<String> cache = this.caches.get("ldap.logindn");
+
+        when(this.configuration.getLoginDNCacheExpiration()).thenReturn(60);
+
+        // Entries resolved with the previous lifespan are not visible anymore
+        assertNull(this.loginDNCache.get(this.configuration, KEY));
+
+        this.loginDNCache.set(this.configuration, KEY, "uid=john,dc=org");
+
+        assertNotSame(cache, this.caches.get("ldap.logindn"));
+        assertEquals(60, this.configurations.get("ldap.logindn").getLRUEvictionConfiguration().getLifespan());
+    }
+
+    @Test
+    public void reset()
+    {
+        this.loginDNCache.set(this.configuration, KEY, "uid=john,dc=org");
+        this.loginDNCache.setUnresolved(this.configuration, KEY, "john@example.org");
+        Cache<String> resolved = this.caches.get("ldap.logindn");
+        Cache<String> unresolved = this.caches.get("ldap.logindn.unresolved");
+
+        this.loginDNCache.reset();
+
+        verify(resolved).dispose();
+        verify(unresolved).dispose();
+
+        assertNull(this.loginDNCache.get(this.configuration, KEY));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import org.junit.Test;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Validate {@link LDAPMetrics}.
+ * 
+ * @version $Id$
+ */
+public class LDAPMetricsTest
+{
+    @Test
+    public void percentiles()
+    {
+        LDAPMetrics.Operation operation = new LDAPMetrics.Operation(LDAPMetrics.SEARCH, "ldap:389");
+
+        for (int i = 0; i < 90; ++i) {
+            operation.record(3, false);
+        }
+        for (int i = 0; i < 9; ++i) {
+            operation.record(150, false);
+        }
+        operation.record(70000, true);
+
+        LDAPOperationStatistics statistics = operation.getStatistics();
+
+        assertEquals(100, statistics.getCount());
+        assertEquals(1, statistics.getErrors());
+        assertEquals(5, statistics.getP50());
+        assertEquals(200, statistics.getP95());
+        assertEquals(200, statistics.getP99());
+        assertEquals(70000, statistics.getMax());
+        assertEquals((90 * 3 + 9 * 150 + 70000) / 100, statistics.getMean());
+    }
+
+    @Test
+    public void latency()
+    {
+        LDAPMetrics metrics = new LDAPMetrics();
+
+        assertEquals(-1, metrics.getLatency("ldap:389"));
+
+        LDAPMetrics.Operation search = new LDAPMetrics.Operation(LDAPMetrics.SEARCH, "ldap:389");
+        search.latency(800);
+
+        assertEquals(800, search.getLatency());
+
+        // Recent durations are averaged
+        search.latency(1600);
+
+        assertEquals(900, search.getLatency());
+
+        metrics.start(LDAPMetrics.SEARCH, "ldap:389").stop();
+        metrics.start(LDAPMetrics.CONNECT, "other:389").stop();
+
+        assertTrue(metrics.getLatency("ldap:389") >= 0);
+        // Only the operations answered by the server tell how fast it is
+        assertEquals(-1, metrics.getLatency("other:389"));
+    }
+
+    @Test
+    public void timer()
+    {
+        LDAPMetrics metrics = new LDAPMetrics();
+
+        LDAPMetrics.Timer timer = metrics.start(LDAPMetrics.BIND, "ldap:389");
+
+        assertEquals(1, metrics.getStatistics().get(0).getInFlight());
+
+        timer.stop();
+        // Already stopped
+        timer.fail();
+
+        LDAPOperationStatistics statistics = metrics.getStatistics().get(0);
+        assertEquals(0, statistics.getInFlight());
+        assertEquals(1, statistics.getCount());
+        assertEquals(0, statistics.getErrors());
+
+        metrics.reset();
+
+        assertEquals(0, metrics.getStatistics().size());
+    }
+
+    @Test
+    public void byteCounting()
+    {
+        LDAPMetrics metrics = new LDAPMetrics();
+
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        attributes.add(new LDAPAttribute("cn", "John"));
+        LDAPEntry entry = new LDAPEntry("cn=John", attributes);
+
+        LDAPMetrics.Timer timer = metrics.start(LDAPMetrics.SEARCH, "ldap:389");
+        timer.entry(entry);
+        timer.stop();
+
+        // Disabled by default
+        assertEquals(1, metrics.getStatistics().get(0).getEntries());
+        assertEquals(0, metrics.getStatistics().get(0).getBytes());
+
+        metrics.setByteCounting(true);
+
+        timer = metrics.start(LDAPMetrics.SEARCH, "ldap:389");
+        timer.entry(entry);
+        timer.stop();
+
+        assertEquals(2, metrics.getStatistics().get(0).getEntries());
+        assertEquals("cn=John".length() + "cn".length() + "John".length(), metrics.getStatistics().get(0).getBytes());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.novell.ldap.LDAPAttribute;
+import com.novell.ldap.LDAPAttributeSet;
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPEntry;
+import com.novell.ldap.LDAPException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPServerCapabilities}.
+ * 
+ * @version $Id$
+ */
+public class LDAPServerCapabilitiesTest
+{
+    private LDAPServerCapabilities capabilities;
+
+    private LDAPConnection connection;
+
+    @Before
+    public void before()
+    {
+        this.capabilities = new LDAPServerCapabilities();
+
+        this.connection = mock(LDAPConnection.class);
+        when(this.connection.getHost()).thenReturn("ldap");
+        when(this.connection.getPort()).thenReturn(389);
+    }
+
+    @Test
+    public void isControlSupported() throws LDAPException
+    {
+        LDAPAttributeSet attributes = new LDAPAttributeSet();
+        attributes.add(new LDAPAttribute("supportedControl",
+            new String[] {LDAPServerCapabilities.PAGED_RESULTS, "1.2.840.113556.1.4.473"}));
+        attributes.add(new LDAPAttribute("supportedCapabilities", LDAPServerCapabilities.ACTIVE_DIRECTORY));
+        when(this.connection.read(eq(""), any(String[].class))).thenReturn(new LDAPEntry("", attributes));
+
+        assertTrue(this.capabilities.isControlSupported(this.connection, LDAPServerCapabilities.PAGED_RESULTS));
+        assertFalse(this.capabilities.isControlSupported(this.connection, "1.2.3"));
+        assertTrue(
+            this.capabilities.isCapabilitySupported(this.connection, LDAPServerCapabilities.ACTIVE_DIRECTORY));
+        assertFalse(
+            this.capabilities.isCapabilitySupported(this.connection, LDAPServerCapabilities.PAGED_RESULTS));
+
+        this.capabilities.setUnsupported(this.connection, LDAPServerCapabilities.PAGED_RESULTS);
+
+        assertFalse(this.capabilities.isControlSupported(this.connection, LDAPServerCapabilities.PAGED_RESULTS));
+
+        // The root DSE is read only once
+        verify(this.connection).read(eq(""), any(String[].class));
+    }
+
+    @Test
+    public void isControlSupportedWhenReadFails() throws LDAPException
+    {
+        when(this.connection.read(eq(""), any(String[].class)))
+            .thenThrow(new LDAPException("down", LDAPException.SERVER_DOWN, null));
+
+        assertFalse(this.capabilities.isControlSupported(this.connection, LDAPServerCapabilities.PAGED_RESULTS));
+        assertFalse(this.capabilities.isControlSupported(this.connection, LDAPServerCapabilities.PAGED_RESULTS));
+
+        // Failures are not remembered
+        verify(this.connection, times(2)).read(eq(""), any(String[].class));
+    }
+}
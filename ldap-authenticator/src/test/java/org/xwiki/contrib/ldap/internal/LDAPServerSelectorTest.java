@@ -0,0 +1,148 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPServerSelector}.
+ * 
+ * @version $Id$
+ */
+public class LDAPServerSelectorTest
+{
+    private LDAPServerSelector selector;
+
+    private XWikiLDAPConfig configuration;
+
+    private LDAPMetrics metrics;
+
+    @Before
+    public void before()
+    {
+        this.selector = new LDAPServerSelector();
+        this.metrics = new LDAPMetrics();
+        ReflectionUtils.setFieldValue(this.selector, "metrics", this.metrics);
+
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.getLDAPServers()).thenReturn(Arrays.asList("ldap1", "ldap2:1389", "ldap3"));
+        when(this.configuration.getLDAPPort()).thenReturn(0);
+        when(this.configuration.getLDAPServerStrategy()).thenReturn(LDAPServerSelector.STRATEGY_ROUNDROBIN);
+        when(this.configuration.getLDAPServerProbeInterval()).thenReturn(0L);
+    }
+
+    @After
+    public void after() throws Exception
+    {
+        this.selector.dispose();
+    }
+
+    @Test
+    public void getServersRoundRobin()
+    {
+        List<LDAPServer> servers = this.selector.getServers(this.configuration, false);
+
+        assertEquals("[ldap1:389, ldap2:1389, ldap3:389]", servers.toString());
+        assertEquals("[ldap2:1389, ldap3:389, ldap1:389]",
+            this.selector.getServers(this.configuration, false).toString());
+        assertEquals("[ldap3:636, ldap1:636, ldap2:1389]",
+            this.selector.getServers(this.configuration, true).toString());
+    }
+
+    @Test
+    public void getServersWithFailedServer()
+    {
+        List<LDAPServer> servers = this.selector.getServers(this.configuration, false);
+
+        this.selector.failed(servers.get(0));
+
+        // The failed server is tried last
+        assertEquals("[ldap3:389, ldap2:1389, ldap1:389]",
+            this.selector.getServers(this.configuration, false).toString());
+        assertEquals("[ldap2:1389, ldap3:389, ldap1:389]",
+            this.selector.getServers(this.configuration, false).toString());
+
+        this.selector.connected(servers.get(0), 10);
+
+        assertEquals("[ldap1:389, ldap2:1389, ldap3:389]",
+            this.selector.getServers(this.configuration, false).toString());
+    }
+
+    @Test
+    public void getServersLeastOutstanding()
+    {
+        when(this.configuration.getLDAPServerStrategy()).thenReturn(LDAPServerSelector.STRATEGY_LEASTOUTSTANDING);
+
+        List<LDAPServer> servers = this.selector.getServers(this.configuration, false);
+
+        LDAPServer.Lease lease1 = this.selector.connected(servers.get(0), 10);
+        this.selector.connected(servers.get(1), 10);
+
+        assertEquals("[ldap3:389, ldap1:389, ldap2:1389]",
+            this.selector.getServers(this.configuration, false).toString());
+
+        lease1.release();
+        // Releasing several times has no effect
+        lease1.release();
+
+        assertEquals(0, servers.get(0).getOutstanding());
+        assertEquals("[ldap1:389, ldap3:389, ldap2:1389]",
+            this.selector.getServers(this.configuration, false).toString());
+    }
+
+    @Test
+    public void getServersLatency() throws InterruptedException
+    {
+        when(this.configuration.getLDAPServers()).thenReturn(Arrays.asList("ldap1", "ldap2"));
+        when(this.configuration.getLDAPServerStrategy()).thenReturn(LDAPServerSelector.STRATEGY_LATENCY);
+
+        List<LDAPServer> servers = this.selector.getServers(this.configuration, false);
+
+        // Getting a connection to ldap1 is faster (typically a pool borrow) but it's slower to answer operations
+        this.selector.connected(servers.get(0), 1);
+        this.selector.connected(servers.get(1), 100);
+
+        LDAPMetrics.Timer timer = this.metrics.start(LDAPMetrics.SEARCH, "ldap1:389");
+        Thread.sleep(200);
+        timer.stop();
+        this.metrics.start(LDAPMetrics.SEARCH, "ldap2:389").stop();
+
+        int ldap2First = 0;
+        for (int i = 0; i < 100; ++i) {
+            if (this.selector.getServers(this.configuration, false).get(0).getHost().equals("ldap2")) {
+                ldap2First++;
+            }
+        }
+
+        assertTrue(ldap2First > 90);
+    }
+}
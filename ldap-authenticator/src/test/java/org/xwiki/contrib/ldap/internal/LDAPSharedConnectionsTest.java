@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import com.novell.ldap.LDAPConnection;
+import com.novell.ldap.LDAPException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPSharedConnections}.
+ * 
+ * @version $Id$
+ */
+public class LDAPSharedConnectionsTest
+{
+    private static final String KEY = LDAPConnectionPool.getKey("localhost", 389, false, "cn=admin", "secret");
+
+    private LDAPSharedConnections sharedConnections;
+
+    private XWikiLDAPConfig configuration;
+
+    private List<LDAPConnection> created = new ArrayList<>();
+
+    private LDAPConnectionPool.ConnectionFactory factory = new LDAPConnectionPool.ConnectionFactory()
+    {
+        @Override
+        public LDAPConnection createConnection() throws LDAPException
+        {
+            LDAPConnection connection = mock(LDAPConnection.class);
+            when(connection.isConnectionAlive()).thenReturn(true);
+            when(connection.clone()).thenReturn(mock(LDAPConnection.class));
+
+            created.add(connection);
+
+            return connection;
+        }
+    };
+
+    @Before
+    public void before()
+    {
+        this.sharedConnections = new LDAPSharedConnections();
+
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.getSharedConnectionsCount()).thenReturn(2);
+        when(this.configuration.getConnectionPoolIdleTimeout()).thenReturn(60000L);
+    }
+
+    @Test
+    public void get() throws LDAPException
+    {
+        for (int i = 0; i < 10; ++i) {
+            this.sharedConnections.get(KEY, this.configuration, this.factory);
+        }
+
+        // Only as many connections as configured are created
+        assertEquals(2, this.created.size());
+
+        this.sharedConnections.reset();
+
+        verify(this.created.get(0)).disconnect();
+        verify(this.created.get(1)).disconnect();
+    }
+
+    @Test
+    public void getWithAnotherPassword() throws LDAPException
+    {
+        when(this.configuration.getSharedConnectionsCount()).thenReturn(1);
+
+        LDAPConnection clone = this.sharedConnections.get(KEY, this.configuration, this.factory);
+
+        // Same DN but another password: never share the connection bound with the first one
+        String otherKey = LDAPConnectionPool.getKey("localhost", 389, false, "cn=admin", "wrong");
+        LDAPConnection otherClone = this.sharedConnections.get(otherKey, this.configuration, this.factory);
+
+        assertEquals(2, this.created.size());
+        assertSame(this.created.get(0).clone(), clone);
+        assertSame(this.created.get(1).clone(), otherClone);
+    }
+
+    @Test
+    public void getReplacesDeadConnection() throws LDAPException
+    {
+        when(this.configuration.getSharedConnectionsCount()).thenReturn(1);
+
+        this.sharedConnections.get(KEY, this.configuration, this.factory);
+
+        LDAPConnection dead = this.created.get(0);
+        when(dead.isConnectionAlive()).thenReturn(false);
+
+        LDAPConnection clone = this.sharedConnections.get(KEY, this.configuration, this.factory);
+
+        assertEquals(2, this.created.size());
+        assertSame(this.created.get(1).clone(), clone);
+        verify(dead).disconnect();
+    }
+
+    @Test
+    public void evict() throws LDAPException
+    {
+        this.sharedConnections.get(KEY, this.configuration, this.factory);
+
+        // Nothing expired yet
+        this.sharedConnections.evict();
+
+        assertEquals(1, this.sharedConnections.getGroupCount());
+        verify(this.created.get(0), never()).disconnect();
+
+        when(this.configuration.getConnectionPoolIdleTimeout()).thenReturn(-1L);
+        this.sharedConnections.get(KEY, this.configuration, this.factory);
+
+        this.sharedConnections.evict();
+
+        assertEquals(0, this.sharedConnections.getGroupCount());
+        verify(this.created.get(0)).disconnect();
+        verify(this.created.get(1)).disconnect();
+
+        // A new group is created when needed
+        this.sharedConnections.get(KEY, this.configuration, this.factory);
+
+        assertEquals(1, this.sharedConnections.getGroupCount());
+        assertEquals(3, this.created.size());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.ldap.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import java.security.Security;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xwiki.contrib.ldap.XWikiLDAPConfig;
+
+import com.novell.ldap.LDAPSocketFactory;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Validate {@link LDAPSocketFactories}.
+ *
+ * @version $Id$
+ */
+public class LDAPSocketFactoriesTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private XWikiLDAPConfig configuration;
+
+    private File trustStore;
+
+    private LDAPSocketFactories factories;
+
+    @Before
+    public void before() throws Exception
+    {
+        this.configuration = mock(XWikiLDAPConfig.class);
+        when(this.configuration.getLDAPParam("ldap_ssl.secure_provider", "")).thenReturn("");
+        when(this.configuration.getSecureProvider()).thenReturn(Security.getProviders()[0]);
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        this.trustStore = this.folder.newFile("truststore");
+        try (OutputStream stream = new FileOutputStream(this.trustStore)) {
+            keyStore.store(stream, "changeit".toCharArray());
+        }
+
+        this.factories = new LDAPSocketFactories();
+    }
+
+    @Test
+    public void getSSLSocketFactory() throws Exception
+    {
+        LDAPSocketFactory factory = this.factories.getSSLSocketFactory(this.configuration, this.trustStore.getPath());
+
+        assertSame(factory, this.factories.getSSLSocketFactory(this.configuration, this.trustStore.getPath()));
+
+        // The default trust store has its own factory
+        LDAPSocketFactory defaultFactory = this.factories.getSSLSocketFactory(this.configuration, null);
+
+        assertNotSame(factory, defaultFactory);
+        assertSame(defaultFactory, this.factories.getSSLSocketFactory(this.configuration, ""));
+    }
+
+    @Test
+    public void getSSLSocketFactoryWhenTrustStoreIsModified() throws Exception
+    {
+        LDAPSocketFactory factory = this.factories.getSSLSocketFactory(this.configuration, this.trustStore.getPath());
+
+        this.trustStore.setLastModified(this.trustStore.lastModified() - 60000);
+
+        LDAPSocketFactory modifiedFactory =
+            this.factories.getSSLSocketFactory(this.configuration, this.trustStore.getPath());
+
+        assertNotSame(factory, modifiedFactory);
+        assertSame(modifiedFactory,
+            this.factories.getSSLSocketFactory(this.configuration, this.trustStore.getPath()));
+    }
+
+    @Test
+    public void reset() throws Exception
+    {
+        LDAPSocketFactory factory = this.factories.getSSLSocketFactory(this.configuration, this.trustStore.getPath());
+
+        this.factories.reset();
+
+        assertNotSame(factory, this.factories.getSSLSocketFactory(this.configuration, this.trustStore.getPath()));
+    }
+}